@@ -0,0 +1,74 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost of turning read data into what crosses the bridge, per encoding.
+ *
+ * The "array" encoding builds a WritableArray on Android, which is not
+ * available here; {@link #boxedArray()} approximates it with the boxing of
+ * one number per byte that it costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class ByteEncodingBenchmark {
+    @Param({"16", "256", "4096", "65536"})
+    int payloadSize;
+
+    private byte[] mData;
+    private String mBase64;
+    private byte[] mDecoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mData = new byte[payloadSize];
+        for (int i = 0; i < payloadSize; i++) {
+            mData[i] = (byte) (i * 31);
+        }
+
+        mBase64 = ByteEncoding.toBase64(mData);
+        mDecoded = new byte[ByteEncoding.maxBase64DecodedLength(mBase64)];
+    }
+
+    @Benchmark
+    public List<Double> boxedArray() {
+        List<Double> values = new ArrayList<>(mData.length);
+        for (byte b : mData) {
+            values.add((double) (b & 0xFF));
+        }
+        return values;
+    }
+
+    @Benchmark
+    public String base64() {
+        return ByteEncoding.toBase64(mData);
+    }
+
+    @Benchmark
+    public String hex() {
+        return ByteEncoding.toHex(mData);
+    }
+
+    @Benchmark
+    public String latin1() {
+        return ByteEncoding.toLatin1(mData);
+    }
+
+    /**
+     * The write path: base64 from JS into a pooled array
+     */
+    @Benchmark
+    public int decodeBase64() {
+        return ByteEncoding.decodeBase64(mBase64, mDecoded, 0);
+    }
+}
@@ -0,0 +1,106 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+
+/**
+ * Append and consume throughput of {@link DeviceBuffer}, and the cost of
+ * finding the delimiter in a backlog, across chunk sizes.
+ *
+ * Each invocation receives {@link #CHUNKS} chunks, as the reader would, and
+ * consumes them the way JS does: everything at once, or message by message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class DeviceBufferBenchmark {
+    static final int CHUNKS = 64;
+
+    @Param({"16", "256", "4096"})
+    int chunkSize;
+
+    @Param({"1", "2"})
+    int delimiterLength;
+
+    private byte[] mChunk;
+    private byte[] mChunkWithoutDelimiter;
+    private byte[] mDelimiter;
+    private DeviceBuffer mBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mDelimiter = delimiterLength == 1 ? new byte[] { '\n' } : new byte[] { '\r', '\n' };
+
+        // Printable payload ending in the delimiter, one message per chunk
+        mChunk = new byte[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            mChunk[i] = (byte) ('a' + i % 26);
+        }
+        System.arraycopy(mDelimiter, 0, mChunk, chunkSize - mDelimiter.length, mDelimiter.length);
+
+        mChunkWithoutDelimiter = Arrays.copyOf(mChunk, chunkSize);
+        Arrays.fill(mChunkWithoutDelimiter, chunkSize - mDelimiter.length, chunkSize, (byte) 'x');
+
+        mBuffer = new DeviceBuffer();
+        mBuffer.setDelimiter(mDelimiter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public byte[] receiveThenReadAll() {
+        for (int i = 0; i < CHUNKS; i++) {
+            mBuffer.receive(mChunk, 0, mChunk.length);
+        }
+
+        return mBuffer.readAll();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public void receiveThenReadUntilDelimiter(Blackhole blackhole) {
+        for (int i = 0; i < CHUNKS; i++) {
+            mBuffer.receive(mChunk, 0, mChunk.length);
+        }
+
+        for (int i = 0; i < CHUNKS; i++) {
+            blackhole.consume(mBuffer.readUntilDelimiter());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public byte[] receiveThenReadCompleteMessages() {
+        for (int i = 0; i < CHUNKS; i++) {
+            mBuffer.receive(mChunk, 0, mChunk.length);
+        }
+
+        return mBuffer.readCompleteMessages();
+    }
+
+    /**
+     * Delimiter search over a backlog without a match, polled after every
+     * chunk: the incremental scan should keep this linear in the bytes
+     * received.
+     */
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public int pollWithoutMatch() {
+        int index = -1;
+        for (int i = 0; i < CHUNKS; i++) {
+            mBuffer.receive(mChunkWithoutDelimiter, 0, mChunkWithoutDelimiter.length);
+            index = mBuffer.indexOfDelimiter();
+        }
+
+        mBuffer.clear();
+        return index;
+    }
+}
@@ -0,0 +1,73 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Decoding length-prefixed frames into a {@link DeviceBuffer} and reading
+ * them back, with frames that arrive whole and frames split across reads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class FrameDecoderBenchmark {
+    static final int FRAMES = 64;
+
+    @Param({"16", "256", "4096"})
+    int frameSize;
+
+    /**
+     * Bytes per simulated socket read; 0 delivers the whole stream at once
+     */
+    @Param({"0", "100"})
+    int readSize;
+
+    private byte[] mStream;
+    private LengthFieldFrameDecoder mDecoder;
+    private DeviceBuffer mBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 2 byte big-endian length counting the payload only
+        mStream = new byte[FRAMES * frameSize];
+        int payload = frameSize - 2;
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int start = frame * frameSize;
+            mStream[start] = (byte) (payload >>> 8);
+            mStream[start + 1] = (byte) payload;
+            for (int i = 2; i < frameSize; i++) {
+                mStream[start + i] = (byte) i;
+            }
+        }
+
+        mDecoder = new LengthFieldFrameDecoder(0, 2, true, 0, LengthFieldFrameDecoder.DEFAULT_MAX_FRAME_LENGTH);
+        mBuffer = new DeviceBuffer();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int decodeAndReadFrames() throws IOException {
+        int step = readSize > 0 ? readSize : mStream.length;
+
+        for (int offset = 0; offset < mStream.length; offset += step) {
+            mDecoder.decode(mStream, offset, Math.min(step, mStream.length - offset), mBuffer);
+        }
+
+        int total = 0;
+        byte[] frame;
+        while ((frame = mBuffer.readFrame()) != null) {
+            total += frame.length;
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,317 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The connected I/O path of the service over an in-memory link, without a
+ * radio: writes go through the ConnectionWriter of a SerialConnection to a
+ * LoopbackTransport peer that echoes them, and come back through the
+ * connection's reader, the buffer limits and the ChunkQueue into the
+ * DeviceBuffer, from which the benchmark thread reads like JS does.
+ *
+ * {@link #echo} measures round trips of messages in either reader mode.
+ * {@link #reconnectAfterDrop} stresses the failure path with injected
+ * connect failures and link drops: a {@link DeviceConnector} keeps the
+ * device connected through its reconnect policy, and every invocation sends
+ * until the link drops and waits until the device is connected again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class LoopbackPipelineBenchmark {
+    static final int MESSAGES = 64;
+    static final String ADDRESS = "00:11:22:33:44:55";
+    static final long TIMEOUT_MS = 10000;
+
+    @Param({"blocking", "polling"})
+    String readerMode;
+
+    @Param({"64", "990", "8192"})
+    int messageSize;
+
+    private SerialExecutors mExecutors;
+    private BufferLimits mLimits;
+    private DeviceBuffer mBuffer;
+    private SerialConnection mConnection;
+    private Harness mHarness;
+    private byte[] mMessage;
+
+    /**
+     * Plays the service and the module for one device: what the listener of
+     * the service does, minus the Android parts
+     */
+    static class Harness implements SerialConnection.Listener {
+        final BufferLimits limits;
+        final DeviceBuffer buffer;
+        final ConnectionStats stats = new ConnectionStats();
+        final Tracer tracer = new Tracer(Tracer.DEFAULT_CAPACITY);
+        final CountDownLatch lost = new CountDownLatch(1);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        volatile BufferLimits.Limit limit = BufferLimits.NONE;
+        volatile SerialConnection current;
+
+        Harness(BufferLimits limits, DeviceBuffer buffer) {
+            this.limits = limits;
+            this.buffer = buffer;
+        }
+
+        SerialConnection connect(SerialTransport transport, SerialExecutors executors, boolean polling) {
+            SerialConnection connection = new SerialConnection(transport, ADDRESS, buffer, stats, limits, tracer,
+                    executors.getIoExecutor(), this);
+            current = connection;
+
+            if (polling) {
+                new PollingReader(connection, executors.getPollingScheduler(), PollingReader.DEFAULT_MAX_DELAY_MS).start();
+            } else {
+                executors.executeIo(connection);
+            }
+
+            return connection;
+        }
+
+        @Override
+        public boolean isCurrent(SerialConnection connection) {
+            return current == connection;
+        }
+
+        @Override
+        public BufferLimits.Limit getBufferLimit() {
+            return limit;
+        }
+
+        @Override
+        public void onData(SerialConnection connection, byte[] data, int offset, int length) {
+            int skip = limits.admit(buffer, limit, length, stats);
+            buffer.receive(data, offset + skip, length - skip);
+        }
+
+        @Override
+        public void onLost(SerialConnection connection) {
+            lost.countDown();
+        }
+
+        @Override
+        public void onError(Exception e, String tag) {
+            error.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Completion that only counts failures
+     */
+    static class WriteFailures implements ConnectionWriter.Callback {
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void onWritten() {
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            count.incrementAndGet();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mExecutors = new SerialExecutors();
+        mLimits = new BufferLimits();
+        mBuffer = new DeviceBuffer(mLimits.getUsage());
+        mHarness = new Harness(mLimits, mBuffer);
+
+        LoopbackTransport.Options options = new LoopbackTransport.Options();
+        options.chunkSize = 990; // RFCOMM payload of a common MTU
+
+        SerialTransport transport = new LoopbackTransport.Factory(options, LoopbackTransport.ECHO).create(ADDRESS, null);
+        transport.connect();
+        mConnection = mHarness.connect(transport, mExecutors, "polling".equals(readerMode));
+
+        mMessage = new byte[messageSize];
+        for (int i = 0; i < mMessage.length; i++) {
+            mMessage[i] = (byte) i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mConnection.cancel();
+        mExecutors.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long echo() {
+        WriteFailures failures = new WriteFailures();
+
+        for (int i = 0; i < MESSAGES; i++) {
+            mConnection.write(mMessage, 0, mMessage.length, failures);
+        }
+
+        long expected = (long) MESSAGES * messageSize;
+        long received = 0;
+        long checksum = 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+
+        while (received < expected) {
+            byte[] data = mBuffer.readAll();
+
+            if (data.length == 0) {
+                if (failures.count.get() > 0 || mHarness.lost.getCount() == 0 || System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Echo stalled after " + received + " of " + expected + " bytes",
+                            mHarness.error.get());
+                }
+                LockSupport.parkNanos(10000);
+                continue;
+            }
+
+            for (byte value : data) {
+                checksum += value;
+            }
+            received += data.length;
+        }
+
+        return checksum;
+    }
+
+    /**
+     * Plays the service for {@link FlakyDevice}: buffers the data like the
+     * module does and counts the connection events
+     */
+    static class ConnectorEvents implements DeviceConnector.Listener {
+        final Semaphore connected = new Semaphore(0);
+        final AtomicInteger lost = new AtomicInteger();
+        final AtomicInteger reconnects = new AtomicInteger();
+        final AtomicReference<Exception> failed = new AtomicReference<>();
+        volatile BufferLimits limits;
+
+        @Override
+        public void onConnected(DeviceSession session) {
+            connected.release();
+        }
+
+        @Override
+        public void onConnectFailed(DeviceSession session, Exception error) {
+            failed.set(error);
+        }
+
+        @Override
+        public void onConnectionLost(DeviceSession session) {
+            lost.incrementAndGet();
+        }
+
+        @Override
+        public void onReconnecting(DeviceSession session, int attempt, long delayMs) {
+            reconnects.incrementAndGet();
+        }
+
+        @Override
+        public void onData(DeviceSession session, byte[] data, int offset, int length) {
+            int skip = limits.admit(session.getBuffer(), session.getBufferLimit(), length, session.getStats());
+            session.getBuffer().receive(data, offset + skip, length - skip);
+        }
+
+        @Override
+        public void onError(Exception e, String id, String tag) {
+            // Expected, the faults are injected
+        }
+
+        @Override
+        public boolean isRadioOff() {
+            return false;
+        }
+    }
+
+    /**
+     * A device behind a link with injected connect failures and drops,
+     * connected once per trial and reconnected by its policy after each drop
+     */
+    @State(Scope.Thread)
+    public static class FlakyDevice {
+        @Param({"0.25"})
+        double connectFailureRate;
+
+        @Param({"16384"})
+        long dropAfterBytes;
+
+        ConnectorEvents events;
+        DeviceConnector connector;
+        DeviceSession session;
+        byte[] message = new byte[4096];
+
+        @Setup(Level.Trial)
+        public void setUp() throws InterruptedException {
+            LoopbackTransport.Options options = new LoopbackTransport.Options();
+            options.chunkSize = 990;
+            options.connectFailureRate = connectFailureRate;
+            options.dropAfterBytes = dropAfterBytes;
+            options.seed = 42;
+
+            events = new ConnectorEvents();
+            connector = new DeviceConnector(new LoopbackTransport.Factory(options, LoopbackTransport.ECHO),
+                    new ConnectStrategyCache(null), events);
+            events.limits = connector.getBufferLimits();
+
+            // Every strategy of an explicit connect may fail, which is not retried
+            do {
+                events.failed.set(null);
+                session = connector.connect(ADDRESS, TIMEOUT_MS);
+
+                while (!events.connected.tryAcquire(1, TimeUnit.MILLISECONDS) && events.failed.get() == null) {
+                    // Connecting, the attempt has a deadline
+                }
+            } while (!session.isConnected());
+
+            connector.setReconnectPolicy(session, new ReconnectPolicy(1, 10, 2, 0, 0, TIMEOUT_MS));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            connector.stopAll();
+        }
+    }
+
+    /**
+     * Send until the link drops, then wait for the reconnect policy to bring
+     * the device back through the connector
+     *
+     * @return Reconnect attempts it took
+     */
+    @Benchmark
+    public int reconnectAfterDrop(FlakyDevice device) throws Exception {
+        ConnectorEvents events = device.events;
+        int lost = events.lost.get();
+        int reconnects = events.reconnects.get();
+        WriteFailures failures = new WriteFailures();
+
+        // Keep sending until the link drops; writes after the drop fail
+        while (events.lost.get() == lost) {
+            if (failures.count.get() == 0) {
+                device.connector.write(device.session, device.message, 0, device.message.length, failures);
+            }
+            device.session.getBuffer().readAll();
+            LockSupport.parkNanos(100000);
+        }
+
+        if (!events.connected.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS) || !device.session.isConnected()) {
+            throw new IllegalStateException("Device did not reconnect after the link dropped", events.failed.get());
+        }
+
+        return events.reconnects.get() - reconnects;
+    }
+}
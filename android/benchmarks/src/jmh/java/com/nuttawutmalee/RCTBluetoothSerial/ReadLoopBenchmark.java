@@ -0,0 +1,91 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The per-read work of ConnectedThread without a socket: take a pooled
+ * receive buffer, read into it, hand the bytes to the device buffer and give
+ * the buffer back, with JS draining the device buffer now and then.
+ *
+ * The stream returns at most {@code burst} bytes per read, like an RFCOMM
+ * socket delivering one packet at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class ReadLoopBenchmark {
+    static final int READS = 256;
+    static final int READS_PER_DRAIN = 16;
+
+    @Param({"32", "990", "8192"})
+    int burst;
+
+    private byte[] mSource;
+    private ReceiveBufferPool mPool;
+    private DeviceBuffer mBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSource = new byte[burst * READS];
+        for (int i = 0; i < mSource.length; i++) {
+            mSource[i] = (byte) (i % 10 == 9 ? '\n' : 'a' + i % 10);
+        }
+
+        mPool = new ReceiveBufferPool();
+        mBuffer = new DeviceBuffer();
+        mBuffer.setDelimiter(new byte[] { '\n' });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public int readLoop() throws IOException {
+        InputStream in = new BurstInputStream(mSource, burst);
+        int delivered = 0;
+
+        for (int i = 0; i < READS; i++) {
+            byte[] buffer = mPool.acquire();
+            int bytes = 0;
+
+            try {
+                bytes = in.read(buffer, 0, buffer.length);
+                mBuffer.receive(buffer, 0, bytes);
+            } finally {
+                mPool.release(buffer, bytes);
+            }
+
+            if (i % READS_PER_DRAIN == READS_PER_DRAIN - 1) {
+                delivered += mBuffer.readCompleteMessages().length;
+            }
+        }
+
+        return delivered + mBuffer.readAll().length;
+    }
+
+    /**
+     * Stream returning at most a fixed number of bytes per read
+     */
+    private static class BurstInputStream extends ByteArrayInputStream {
+        private final int mBurst;
+
+        BurstInputStream(byte[] data, int burst) {
+            super(data);
+            mBurst = burst;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, mBurst));
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps on the received bytes buffered for JS, so a session whose data is not
+ * read, e.g. while the JS thread is busy or the screen is off, cannot grow
+ * until the app runs out of memory.
+ *
+ * Each device may have a limit, and one limit covers all devices together.
+ * A limit has a policy for data that does not fit:
+ * <ul>
+ * <li>{@link Policy#DROP_OLDEST} drops from the head of the buffer, keeping the latest data</li>
+ * <li>{@link Policy#DROP_NEWEST} drops what was just received, keeping the backlog</li>
+ * <li>{@link Policy#PAUSE} stops reading the socket until JS caught up. RFCOMM flow
+ * control then holds off the remote device, so nothing is lost on this side.</li>
+ * </ul>
+ *
+ * Over the limit of a device, DROP_OLDEST drops from that device's buffer.
+ * Over the limit across devices, it drops from the head of the largest
+ * buffers first, whichever device received the data, so an idle device with
+ * a large backlog cannot leave the others nothing but dropped reads. Only
+ * buffers of registered {@link Holder}s and the receiving one are evicted.
+ *
+ * Dropping is done by the reader as data arrives, see {@link #admit}; a paused
+ * reader checks {@link #isFull} before it reads. Sizes are the lock-free
+ * estimates of the buffers, so a limit can be overshot by about one read.
+ */
+class BufferLimits {
+    enum Policy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        PAUSE
+    }
+
+    static final long DEFAULT_TOTAL_CAPACITY = 32 << 20;
+    static final long PAUSE_CHECK_MS = 20; // how often a paused reader looks for room
+    static final int RESUME_PERCENT = 75; // a paused reader resumes below this share of the limit
+
+    /**
+     * A capacity with its policy. Limits are immutable.
+     */
+    static class Limit {
+        final long capacity; // bytes, 0 for no limit
+        final Policy policy;
+
+        Limit(long capacity, Policy policy) {
+            this.capacity = Math.max(0, capacity);
+            this.policy = policy;
+        }
+
+        boolean isSet() {
+            return capacity > 0;
+        }
+    }
+
+    static final Limit NONE = new Limit(0, Policy.DROP_OLDEST);
+
+    /**
+     * A receive buffer that counts towards the limit across devices
+     */
+    interface Holder {
+        DeviceBuffer getBuffer();
+
+        /**
+         * @return Statistics that count the bytes dropped from the buffer
+         */
+        ConnectionStats getStats();
+    }
+
+    /**
+     * Told about data dropped from the buffer of a device other than the one
+     * that received, to make room under the limit across devices
+     */
+    interface EvictionListener {
+        /**
+         * Called on the reader thread of the receiving device
+         *
+         * @param holder Holder of the buffer
+         * @param bytes  Bytes dropped
+         */
+        void onEvicted(Holder holder, int bytes);
+    }
+
+    private final AtomicLong mUsage = new AtomicLong();
+    private volatile Limit mTotal = new Limit(DEFAULT_TOTAL_CAPACITY, Policy.DROP_OLDEST);
+    private final CopyOnWriteArrayList<Holder> mHolders = new CopyOnWriteArrayList<>();
+    private volatile EvictionListener mEvictionListener;
+
+    /**
+     * @return Counter the device buffers add their size to
+     */
+    AtomicLong getUsage() {
+        return mUsage;
+    }
+
+    /**
+     * @return Bytes buffered across all devices
+     */
+    long getUsed() {
+        return Math.max(0, mUsage.get());
+    }
+
+    Limit getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @param total Limit across all devices, {@link #NONE} for no limit
+     */
+    void setTotal(Limit total) {
+        mTotal = total;
+    }
+
+    /**
+     * @param holder Buffer that may be evicted from under the limit across devices
+     */
+    void register(Holder holder) {
+        mHolders.addIfAbsent(holder);
+    }
+
+    void unregister(Holder holder) {
+        mHolders.remove(holder);
+    }
+
+    /**
+     * @param listener Told about evictions from other devices, or null
+     */
+    void setEvictionListener(EvictionListener listener) {
+        mEvictionListener = listener;
+    }
+
+    /**
+     * Make room for received bytes before they are buffered. Reader side only.
+     *
+     * @param buffer Receive buffer of the device
+     * @param device Limit of the device
+     * @param length Bytes received
+     * @param stats  Statistics of the device that count the dropped bytes
+     * @return Number of received bytes to drop, counted from the first
+     */
+    int admit(DeviceBuffer buffer, Limit device, int length, ConnectionStats stats) {
+        Limit total = mTotal;
+        long deviceExcess = device.isSet() ? buffer.approximateAvailable() + (long) length - device.capacity : 0;
+        long totalExcess = total.isSet() ? getUsed() + length - total.capacity : 0;
+
+        if (deviceExcess <= 0 && totalExcess <= 0) {
+            return 0;
+        }
+
+        if ((deviceExcess > 0 && device.policy == Policy.DROP_NEWEST)
+                || (totalExcess > 0 && total.policy == Policy.DROP_NEWEST)) {
+            stats.onDropped(length);
+            return length;
+        }
+
+        long deviceRest = device.policy == Policy.DROP_OLDEST ? deviceExcess : 0;
+        long totalRest = total.policy == Policy.DROP_OLDEST ? totalExcess : 0;
+
+        if (deviceRest <= 0 && totalRest <= 0) {
+            return 0; // Over a PAUSE limit only, the reader stops before its next read
+        }
+
+        // The buffer of this device pays for its own overflow, which frees
+        // room under the total as well
+        int discarded = 0;
+
+        if (deviceRest > 0) {
+            discarded = buffer.discard((int) Math.min(deviceRest, Integer.MAX_VALUE));
+            deviceRest -= discarded;
+            totalRest -= discarded;
+        }
+
+        if (totalRest > 0) {
+            totalRest -= evictLargest(buffer, stats, totalRest);
+        }
+
+        // Whatever the buffers cannot cover is taken from the new data
+        int dropped = (int) Math.min(length, Math.max(0, Math.max(deviceRest, totalRest)));
+
+        stats.onDropped(discarded + dropped);
+        return dropped;
+    }
+
+    /**
+     * Drop from the head of the largest buffers until enough room is free
+     *
+     * @param receiver Buffer of the receiving device, always a candidate
+     * @param stats    Statistics of the receiving device
+     * @param excess   Bytes to free
+     * @return Bytes dropped
+     */
+    private long evictLargest(DeviceBuffer receiver, ConnectionStats stats, long excess) {
+        long evicted = 0;
+
+        while (evicted < excess) {
+            Holder largest = null; // null for the receiver
+            int largestSize = receiver.approximateAvailable();
+
+            for (Holder holder : mHolders) {
+                DeviceBuffer buffer = holder.getBuffer();
+                int size = buffer.approximateAvailable();
+
+                if (buffer != receiver && size > largestSize) {
+                    largest = holder;
+                    largestSize = size;
+                }
+            }
+
+            if (largestSize <= 0) {
+                break;
+            }
+
+            DeviceBuffer victim = largest != null ? largest.getBuffer() : receiver;
+            int bytes = victim.discard((int) Math.min(excess - evicted, Integer.MAX_VALUE));
+
+            if (bytes == 0) {
+                break; // Read by JS in the meantime
+            }
+
+            evicted += bytes;
+
+            if (largest == null) {
+                stats.onDropped(bytes);
+            } else {
+                largest.getStats().onDropped(bytes);
+
+                EvictionListener listener = mEvictionListener;
+                if (listener != null) {
+                    listener.onEvicted(largest, bytes);
+                }
+            }
+        }
+
+        return evicted;
+    }
+
+    /**
+     * @param buffer Receive buffer of the device
+     * @param device Limit of the device
+     * @return Whether a PAUSE limit is reached and the reader must not read
+     */
+    boolean isFull(DeviceBuffer buffer, Limit device) {
+        return isOver(buffer, device, 100);
+    }
+
+    /**
+     * @param buffer Receive buffer of the device
+     * @param device Limit of the device
+     * @return Whether a paused reader may read again
+     */
+    boolean hasRoom(DeviceBuffer buffer, Limit device) {
+        return !isOver(buffer, device, RESUME_PERCENT);
+    }
+
+    private boolean isOver(DeviceBuffer buffer, Limit device, int percent) {
+        Limit total = mTotal;
+
+        return (device.isSet() && device.policy == Policy.PAUSE
+                && buffer.approximateAvailable() * 100L >= device.capacity * percent)
+                || (total.isSet() && total.policy == Policy.PAUSE
+                && getUsed() * 100 >= total.capacity * percent);
+    }
+
+    /**
+     * @param name "dropOldest", "dropNewest" or "pause"
+     * @return The policy
+     * @throws IllegalArgumentException for an unknown name
+     */
+    static Policy parsePolicy(String name) {
+        if ("dropOldest".equals(name)) return Policy.DROP_OLDEST;
+        if ("dropNewest".equals(name)) return Policy.DROP_NEWEST;
+        if ("pause".equals(name)) return Policy.PAUSE;
+
+        throw new IllegalArgumentException("Unknown overflow policy " + name);
+    }
+
+    static String policyName(Policy policy) {
+        switch (policy) {
+            case DROP_NEWEST:
+                return "dropNewest";
+            case PAUSE:
+                return "pause";
+            default:
+                return "dropOldest";
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.Arrays;
+
+/**
+ * Compact string encodings for moving bytes across the bridge.
+ *
+ * An array of numbers costs a boxed double per byte on the JS side; these
+ * encodings cost 1 (latin1), 1.33 (base64) or 2 (hex) characters per byte.
+ * Everything here is plain Java so it can be used off the Android runtime.
+ */
+final class ByteEncoding {
+    static final int ARRAY = 0;
+    static final int BASE64 = 1;
+    static final int HEX = 2;
+    static final int LATIN1 = 3;
+
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+            BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+        }
+        // Accept the URL-safe alphabet too
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['_'] = 63;
+    }
+
+    private ByteEncoding() {
+    }
+
+    /**
+     * Parse an encoding name coming from JS
+     *
+     * @param name "array", "base64", "hex" or "latin1"; null means "array"
+     * @return Encoding constant
+     */
+    static int fromName(String name) {
+        if (name == null || "array".equals(name)) {
+            return ARRAY;
+        } else if ("base64".equals(name)) {
+            return BASE64;
+        } else if ("hex".equals(name)) {
+            return HEX;
+        } else if ("latin1".equals(name)) {
+            return LATIN1;
+        }
+
+        throw new IllegalArgumentException("Unknown encoding " + name);
+    }
+
+    /**
+     * @param data Bytes to encode
+     * @return Padded base64 without line breaks
+     */
+    static String toBase64(byte[] data) {
+        int length = data.length;
+        char[] out = new char[((length + 2) / 3) * 4];
+        int o = 0;
+        int i = 0;
+
+        for (; i + 2 < length; i += 3) {
+            int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+            out[o++] = BASE64_ALPHABET[bits >>> 18];
+            out[o++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+            out[o++] = BASE64_ALPHABET[(bits >>> 6) & 0x3F];
+            out[o++] = BASE64_ALPHABET[bits & 0x3F];
+        }
+
+        int remaining = length - i;
+
+        if (remaining > 0) {
+            int bits = (data[i] & 0xFF) << 16 | (remaining == 2 ? (data[i + 1] & 0xFF) << 8 : 0);
+            out[o++] = BASE64_ALPHABET[bits >>> 18];
+            out[o++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+            out[o++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3F] : '=';
+            out[o] = '=';
+        }
+
+        return new String(out);
+    }
+
+    /**
+     * @param base64 Base64 text
+     * @return Upper bound of the decoded length
+     */
+    static int maxBase64DecodedLength(String base64) {
+        return (int) (((long) base64.length() * 3) / 4) + 3;
+    }
+
+    /**
+     * Decode base64 into an existing array. Padding is optional and
+     * whitespace is ignored.
+     *
+     * @param base64 Base64 text
+     * @param dst    Destination, at least {@link #maxBase64DecodedLength(String)} long
+     * @param offset Offset of the first decoded byte in dst
+     * @return Number of decoded bytes
+     * @throws IllegalArgumentException If the text is not valid base64
+     */
+    static int decodeBase64(String base64, byte[] dst, int offset) {
+        int o = offset;
+        int bits = 0;
+        int count = 0;
+
+        for (int i = 0; i < base64.length(); i++) {
+            char c = base64.charAt(i);
+
+            if (c == '=') {
+                break;
+            }
+
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                continue;
+            }
+
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid base64 character at " + i);
+            }
+
+            bits = (bits << 6) | value;
+
+            if (++count == 4) {
+                dst[o++] = (byte) (bits >> 16);
+                dst[o++] = (byte) (bits >> 8);
+                dst[o++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        if (count == 1) {
+            throw new IllegalArgumentException("Truncated base64");
+        } else if (count == 2) {
+            dst[o++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            dst[o++] = (byte) (bits >> 10);
+            dst[o++] = (byte) (bits >> 2);
+        }
+
+        return o - offset;
+    }
+
+    /**
+     * @param data Bytes to encode
+     * @return Lower case hex, two characters per byte
+     */
+    static String toHex(byte[] data) {
+        char[] out = new char[data.length * 2];
+
+        for (int i = 0, o = 0; i < data.length; i++) {
+            out[o++] = HEX_DIGITS[(data[i] >>> 4) & 0x0F];
+            out[o++] = HEX_DIGITS[data[i] & 0x0F];
+        }
+
+        return new String(out);
+    }
+
+    /**
+     * @param data Bytes to encode
+     * @return One char per byte, with the same value (ISO-8859-1)
+     */
+    static String toLatin1(byte[] data) {
+        char[] out = new char[data.length];
+
+        for (int i = 0; i < data.length; i++) {
+            out[i] = (char) (data[i] & 0xFF);
+        }
+
+        return new String(out);
+    }
+
+    /**
+     * Encode bytes with one of the string encodings
+     *
+     * @param data     Bytes to encode
+     * @param encoding BASE64, HEX or LATIN1
+     * @return Encoded string
+     */
+    static String toString(byte[] data, int encoding) {
+        switch (encoding) {
+            case BASE64:
+                return toBase64(data);
+            case HEX:
+                return toHex(data);
+            case LATIN1:
+                return toLatin1(data);
+            default:
+                throw new IllegalArgumentException("Not a string encoding: " + encoding);
+        }
+    }
+}
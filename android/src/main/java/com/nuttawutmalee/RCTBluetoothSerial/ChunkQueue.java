@@ -0,0 +1,170 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue carrying received chunks from exactly one producer
+ * (the reader of a connection) to exactly one consumer at a time.
+ *
+ * Every slot owns a byte array that is reused once the consumer has moved
+ * past it, so a steady stream of reads allocates nothing. The producer
+ * publishes a slot with an ordered store of the tail index, the consumer
+ * releases it with an ordered store of the head index; each index is written
+ * by one side only, so no compare-and-set or lock is needed.
+ *
+ * Slot arrays grow with the chunks they carry up to {@link #MAX_CHUNK_SIZE},
+ * so the storage a queue keeps is bounded. Larger data is split across
+ * slots; a larger frame cannot be split and is not queued at all.
+ */
+class ChunkQueue {
+    static final int DEFAULT_CAPACITY = 64;
+
+    static final int MAX_CHUNK_SIZE = 4096;
+
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    /**
+     * Receiver of drained chunks
+     */
+    interface Consumer {
+        /**
+         * @param chunk  Chunk storage, only valid during the call
+         * @param length Number of bytes in the chunk
+         * @param frame  Whether the chunk is one complete frame
+         */
+        void onChunk(byte[] chunk, int length, boolean frame);
+    }
+
+    private final byte[][] mChunks;
+    private final int[] mLengths;
+    private final boolean[] mFrames;
+    private final int mMask;
+
+    private final AtomicLong mHead = new AtomicLong(); // next slot to consume, written by the consumer
+    private final AtomicLong mTail = new AtomicLong(); // next slot to fill, written by the producer
+    private long mCachedHead = 0; // producer's last view of mHead
+
+    ChunkQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    ChunkQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        mChunks = new byte[size][];
+        mLengths = new int[size];
+        mFrames = new boolean[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Copy bytes into the queue, split into slots of at most
+     * {@link #MAX_CHUNK_SIZE} bytes. Producer side only.
+     *
+     * @param src    Source array
+     * @param offset Offset of the bytes in src
+     * @param length Number of bytes
+     * @return Number of bytes queued, from the start. Less than length if
+     * the queue filled up.
+     */
+    int offer(byte[] src, int offset, int length) {
+        long tail = mTail.get();
+        int queued = 0;
+
+        while (queued < length && hasFreeSlot(tail)) {
+            int piece = Math.min(length - queued, MAX_CHUNK_SIZE);
+            fill(tail++, src, offset + queued, piece, false);
+            queued += piece;
+        }
+
+        mTail.lazySet(tail); // publish the slots
+
+        return queued;
+    }
+
+    /**
+     * Copy one complete frame into a single slot. Producer side only.
+     *
+     * @param src    Source array
+     * @param offset Offset of the frame in src
+     * @param length Frame length
+     * @return False if the queue is full or the frame is larger than
+     * {@link #MAX_CHUNK_SIZE}, and nothing was copied
+     */
+    boolean offerFrame(byte[] src, int offset, int length) {
+        long tail = mTail.get();
+
+        if (length > MAX_CHUNK_SIZE || !hasFreeSlot(tail)) {
+            return false;
+        }
+
+        fill(tail, src, offset, length, true);
+        mTail.lazySet(tail + 1); // publish the slot
+
+        return true;
+    }
+
+    private void fill(long index, byte[] src, int offset, int length, boolean frame) {
+        int slot = (int) index & mMask;
+        byte[] chunk = mChunks[slot];
+
+        if (chunk == null || chunk.length < length) {
+            int size = Integer.highestOneBit(Math.max(MIN_CHUNK_SIZE, length));
+            chunk = new byte[size < length ? size << 1 : size];
+            mChunks[slot] = chunk;
+        }
+
+        System.arraycopy(src, offset, chunk, 0, length);
+        mLengths[slot] = length;
+        mFrames[slot] = frame;
+    }
+
+    /**
+     * Producer side only
+     */
+    private boolean hasFreeSlot(long tail) {
+        if (tail - mCachedHead > mMask) {
+            mCachedHead = mHead.get();
+            return tail - mCachedHead <= mMask;
+        }
+
+        return true;
+    }
+
+    /**
+     * Hand every published chunk to the consumer, oldest first. Consumer side
+     * only; callers must make sure only one thread drains at a time.
+     *
+     * @param consumer Receiver of the chunks
+     * @return Number of chunks drained
+     */
+    int drainTo(Consumer consumer) {
+        long head = mHead.get();
+        long tail = mTail.get();
+
+        for (long next = head; next < tail; next++) {
+            int slot = (int) next & mMask;
+
+            try {
+                consumer.onChunk(mChunks[slot], mLengths[slot], mFrames[slot]);
+            } finally {
+                mHead.lazySet(next + 1); // give the slot back to the producer
+            }
+        }
+
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return Whether a chunk is waiting to be drained
+     */
+    boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+}
@@ -0,0 +1,175 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers per device which socket strategy, and which RFCOMM channel, made
+ * the last successful connection, so the next connect can try it first.
+ *
+ * Entries are kept in memory and persisted in a {@link Store}, shared
+ * preferences on Android, so they survive app restarts. The store is loaded
+ * once, on first use.
+ */
+class ConnectStrategyCache {
+
+    /**
+     * Persistent storage of the entries, one string value per device address
+     */
+    interface Store {
+        /**
+         * @return Stored values by device address, or null if the store is unavailable
+         */
+        Map<String, ?> load();
+
+        /**
+         * Store a value; may be written asynchronously
+         *
+         * @param address Device address
+         * @param value   Value to store
+         */
+        void put(String address, String value);
+
+        /**
+         * @param address Device address to forget
+         */
+        void remove(String address);
+    }
+
+    /**
+     * Ways of opening an RFCOMM socket to a device
+     */
+    enum Strategy {
+        SECURE_SERVICE, // SDP lookup of the SPP UUID
+        SECURE_CHANNEL, // known channel, no SDP lookup
+        INSECURE_SERVICE,
+        INSECURE_CHANNEL
+    }
+
+    /**
+     * Last successful strategy of a device
+     */
+    static class Entry {
+        final Strategy strategy;
+        final int channel; // RFCOMM channel, or -1 if unknown
+
+        Entry(Strategy strategy, int channel) {
+            this.strategy = strategy;
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+
+            Entry other = (Entry) o;
+            return strategy == other.strategy && channel == other.channel;
+        }
+
+        @Override
+        public int hashCode() {
+            return strategy.hashCode() * 31 + channel;
+        }
+    }
+
+    private final Store mStore;
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private volatile boolean mLoaded = false;
+
+    /**
+     * @param store Persistent storage, may be null to keep entries in memory only
+     */
+    ConnectStrategyCache(Store store) {
+        mStore = store;
+    }
+
+    /**
+     * @param address Device address
+     * @return Last successful strategy, or null
+     */
+    Entry get(String address) {
+        load();
+        return mEntries.get(address);
+    }
+
+    /**
+     * Record the strategy that connected a device
+     *
+     * @param address  Device address
+     * @param strategy Successful strategy
+     * @param channel  RFCOMM channel, or -1 if unknown
+     */
+    void put(String address, Strategy strategy, int channel) {
+        load();
+
+        Entry entry = new Entry(strategy, channel);
+        if (entry.equals(mEntries.put(address, entry))) {
+            return; // Unchanged, nothing to persist
+        }
+
+        if (mLoaded) {
+            mStore.put(address, strategy.name() + ":" + channel);
+        }
+    }
+
+    /**
+     * Forget the strategy of a device, e.g. after it stopped working
+     *
+     * @param address Device address
+     */
+    void remove(String address) {
+        load();
+
+        if (mEntries.remove(address) == null) {
+            return;
+        }
+
+        if (mLoaded) {
+            mStore.remove(address);
+        }
+    }
+
+    private void load() {
+        if (mLoaded || mStore == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+
+            Map<String, ?> items = mStore.load();
+            if (items == null) {
+                return;
+            }
+
+            for (Map.Entry<String, ?> item : items.entrySet()) {
+                Entry entry = parse(item.getValue());
+                if (entry != null) {
+                    mEntries.putIfAbsent(item.getKey(), entry);
+                }
+            }
+
+            mLoaded = true;
+        }
+    }
+
+    private static Entry parse(Object value) {
+        if (!(value instanceof String)) {
+            return null;
+        }
+
+        String text = (String) value;
+        int separator = text.indexOf(':');
+
+        try {
+            return new Entry(Strategy.valueOf(text.substring(0, separator)),
+                    Integer.parseInt(text.substring(separator + 1)));
+        } catch (Exception e) {
+            return null; // Written by an older version, ignore
+        }
+    }
+}
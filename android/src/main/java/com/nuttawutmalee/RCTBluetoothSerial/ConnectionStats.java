@@ -0,0 +1,250 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of one device session, cheap enough to record on
+ * every read and write in production: each event is a few atomic increments
+ * and no allocation.
+ *
+ * Statistics start over with an explicit connect and carry over automatic
+ * reconnects, so reconnect counts stay meaningful. Values are read without a
+ * lock, so a snapshot taken while data flows may be slightly inconsistent
+ * between fields.
+ */
+class ConnectionStats {
+
+    /**
+     * Histogram with power of two buckets: bucket 0 counts zeros, bucket i
+     * counts values from 2^(i-1) to 2^i - 1.
+     */
+    static class Histogram {
+        static final int BUCKETS = 32;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+
+        void record(long value) {
+            int bucket = value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            mBuckets.incrementAndGet(bucket);
+        }
+
+        /**
+         * @return Count per bucket
+         */
+        long[] snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mBuckets.get(i);
+            }
+            return counts;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+        }
+
+        /**
+         * @param counts     Snapshot of the buckets
+         * @param percentile Percentile, 0 to 100
+         * @return Upper bound of the bucket holding the percentile, 0 if empty
+         */
+        static long percentile(long[] counts, double percentile) {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return upperBound(i);
+                }
+            }
+
+            return upperBound(counts.length - 1);
+        }
+
+        /**
+         * @param bucket Bucket index
+         * @return Largest value counted in the bucket
+         */
+        static long upperBound(int bucket) {
+            return bucket == 0 ? 0 : (1L << bucket) - 1;
+        }
+    }
+
+    final AtomicLong bytesIn = new AtomicLong();
+    final AtomicLong chunksIn = new AtomicLong();
+    final AtomicLong bytesOut = new AtomicLong();
+    final AtomicLong writesOut = new AtomicLong();
+    final AtomicLong writeFailures = new AtomicLong();
+    final AtomicLong connects = new AtomicLong();
+    final AtomicLong reconnects = new AtomicLong();
+    final AtomicLong connectionsLost = new AtomicLong();
+    final AtomicLong droppedBytes = new AtomicLong(); // over a buffer limit
+    final AtomicLong pauses = new AtomicLong(); // reader stopped at a buffer limit
+
+    final Histogram readSizes = new Histogram(); // bytes per socket read
+    final Histogram writeLatency = new Histogram(); // microseconds from queueing to flush
+    final Histogram deliveryLatency = new Histogram(); // microseconds from socket read to JS
+    final Histogram connectTime = new Histogram(); // ms from connect start to socket connected
+
+    final AtomicLongArray strategyAttempts = new AtomicLongArray(ConnectStrategyCache.Strategy.values().length);
+    final AtomicLongArray strategyFailures = new AtomicLongArray(ConnectStrategyCache.Strategy.values().length);
+    final AtomicLongArray strategyTimeMs = new AtomicLongArray(ConnectStrategyCache.Strategy.values().length); // sum over attempts
+
+    private volatile long mBufferHighWater = 0; // written by the reader only
+    private volatile long mConnectedAt = 0;
+    private volatile ConnectStrategyCache.Strategy mLastStrategy;
+    private final AtomicLong mFirstPendingNanos = new AtomicLong(); // oldest read not delivered yet, 0 if none
+
+    /**
+     * Record a socket read. Reader thread only.
+     *
+     * @param bytes    Bytes read
+     * @param buffered Bytes buffered for JS after the read, may be an estimate
+     */
+    void onRead(int bytes, int buffered) {
+        bytesIn.addAndGet(bytes);
+        chunksIn.incrementAndGet();
+        readSizes.record(bytes);
+
+        if (buffered > mBufferHighWater) {
+            mBufferHighWater = buffered;
+        }
+
+        if (mFirstPendingNanos.get() == 0) {
+            mFirstPendingNanos.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    /**
+     * Record that buffered data reached JS, by a read event or a read call.
+     * The latency is measured from the oldest read that was not delivered
+     * yet.
+     */
+    void onDelivered() {
+        long first = mFirstPendingNanos.getAndSet(0);
+
+        if (first != 0) {
+            deliveryLatency.record((System.nanoTime() - first) / 1000);
+        }
+    }
+
+    /**
+     * @param bytes        Bytes flushed to the socket
+     * @param latencyNanos Time the write waited in the writer
+     */
+    void onWritten(int bytes, long latencyNanos) {
+        bytesOut.addAndGet(bytes);
+        writesOut.incrementAndGet();
+        writeLatency.record(latencyNanos / 1000);
+    }
+
+    /**
+     * @param bytes Received bytes dropped at a buffer limit
+     */
+    void onDropped(int bytes) {
+        if (bytes > 0) {
+            droppedBytes.addAndGet(bytes);
+        }
+    }
+
+    void onPaused() {
+        pauses.incrementAndGet();
+    }
+
+    void onWriteFailed() {
+        writeFailures.incrementAndGet();
+    }
+
+    /**
+     * @param strategy  Strategy that failed to open a socket
+     * @param attemptMs Time the attempt took
+     */
+    void onStrategyFailed(ConnectStrategyCache.Strategy strategy, long attemptMs) {
+        strategyAttempts.incrementAndGet(strategy.ordinal());
+        strategyFailures.incrementAndGet(strategy.ordinal());
+        strategyTimeMs.addAndGet(strategy.ordinal(), attemptMs);
+    }
+
+    /**
+     * @param strategy  Strategy that opened the socket
+     * @param attemptMs Time the successful attempt took
+     * @param elapsedMs Time since the connect started
+     * @param reconnect Whether it was an automatic reconnect
+     */
+    void onConnected(ConnectStrategyCache.Strategy strategy, long attemptMs, long elapsedMs, boolean reconnect) {
+        strategyAttempts.incrementAndGet(strategy.ordinal());
+        strategyTimeMs.addAndGet(strategy.ordinal(), attemptMs);
+        connectTime.record(elapsedMs);
+        (reconnect ? reconnects : connects).incrementAndGet();
+        mLastStrategy = strategy;
+        mConnectedAt = System.currentTimeMillis();
+    }
+
+    void onConnectionLost() {
+        connectionsLost.incrementAndGet();
+        mConnectedAt = 0;
+    }
+
+    long getBufferHighWater() {
+        return mBufferHighWater;
+    }
+
+    /**
+     * @return Milliseconds since the current connection was made, 0 if not connected
+     */
+    long getConnectedFor() {
+        long connectedAt = mConnectedAt;
+        return connectedAt == 0 ? 0 : System.currentTimeMillis() - connectedAt;
+    }
+
+    /**
+     * @return Strategy of the last successful connect, or null
+     */
+    ConnectStrategyCache.Strategy getLastStrategy() {
+        return mLastStrategy;
+    }
+
+    /**
+     * Start over, e.g. on an explicit connect
+     */
+    void reset() {
+        bytesIn.set(0);
+        chunksIn.set(0);
+        bytesOut.set(0);
+        writesOut.set(0);
+        writeFailures.set(0);
+        connects.set(0);
+        reconnects.set(0);
+        connectionsLost.set(0);
+        droppedBytes.set(0);
+        pauses.set(0);
+        readSizes.reset();
+        writeLatency.reset();
+        deliveryLatency.reset();
+        connectTime.reset();
+
+        for (int i = 0; i < strategyAttempts.length(); i++) {
+            strategyAttempts.set(i, 0);
+            strategyFailures.set(i, 0);
+            strategyTimeMs.set(i, 0);
+        }
+
+        mBufferHighWater = 0;
+        mConnectedAt = 0;
+        mLastStrategy = null;
+        mFirstPendingNanos.set(0);
+    }
+}
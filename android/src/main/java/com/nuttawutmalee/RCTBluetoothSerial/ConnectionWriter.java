@@ -0,0 +1,200 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes to one connection's output stream off the caller's thread.
+ *
+ * Writes are queued in a bounded queue so a slow link never blocks the
+ * caller; a drain task is submitted to the executor whenever the queue
+ * becomes non-empty. Small writes that are waiting together are coalesced into one
+ * socket write. Every write reports back once its bytes have been flushed to
+ * the stream, or with the exception that prevented it.
+ */
+class ConnectionWriter implements Runnable {
+    static final int DEFAULT_QUEUE_CAPACITY = 256;
+    static final int COALESCE_LIMIT = 4096;
+
+    /**
+     * Completion of one queued write
+     */
+    interface Callback {
+        void onWritten();
+
+        void onFailed(Exception e);
+    }
+
+    private static class Request {
+        final byte[] data;
+        final int offset;
+        final int length;
+        final Callback callback;
+
+        Request(byte[] data, int offset, int length, Callback callback) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.callback = callback;
+        }
+    }
+
+    private final OutputStream mOutStream;
+    private final BlockingQueue<Request> mQueue;
+    private final Executor mExecutor;
+    private final ArrayList<Request> mBatch = new ArrayList<>();
+    private final byte[] mCoalesceBuffer = new byte[COALESCE_LIMIT];
+
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param outStream     Connection output stream
+     * @param queueCapacity Maximum number of pending writes
+     * @param executor      Runs the drain task while writes are pending
+     */
+    ConnectionWriter(OutputStream outStream, int queueCapacity, Executor executor) {
+        mOutStream = outStream;
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+        mExecutor = executor;
+    }
+
+    /**
+     * Queue bytes for writing. The array must not be modified until the
+     * callback has been called.
+     *
+     * @param data     Bytes to write
+     * @param offset   Offset of the first byte
+     * @param length   Number of bytes
+     * @param callback Completion callback, may be null
+     * @return false if the queue is full or the writer is closed; the
+     *         callback is not called in that case
+     */
+    boolean enqueue(byte[] data, int offset, int length, Callback callback) {
+        if (mClosed) {
+            return false;
+        }
+
+        if (!mQueue.offer(new Request(data, offset, length, callback))) {
+            return false;
+        }
+
+        if (mClosed) {
+            // close() may have drained the queue between the check and the offer
+            failPending(new IOException("Connection closed"));
+        } else {
+            scheduleDrain();
+        }
+
+        return true;
+    }
+
+    /**
+     * Stop the writer and fail all writes that have not been flushed yet
+     */
+    void close() {
+        mClosed = true;
+        failPending(new IOException("Connection closed"));
+    }
+
+    /**
+     * Drain the queue. Only one drain runs at a time; it ends when the queue
+     * is empty, so an idle connection holds no thread.
+     */
+    @Override
+    public void run() {
+        try {
+            drain();
+        } finally {
+            mDrainScheduled.set(false);
+        }
+
+        if (mClosed) {
+            failPending(new IOException("Connection closed"));
+        } else if (!mQueue.isEmpty()) {
+            scheduleDrain(); // A write was queued after the last poll
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!mDrainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            mExecutor.execute(this);
+        } catch (RejectedExecutionException e) {
+            mDrainScheduled.set(false);
+            mClosed = true;
+            failPending(new IOException("Writer is shut down", e));
+        }
+    }
+
+    private void drain() {
+        Request first;
+
+        while (!mClosed && (first = mQueue.poll()) != null) {
+            mBatch.add(first);
+            int total = first.length;
+
+            // Coalesce whatever else is already waiting, up to the limit
+            Request next;
+            while (total < COALESCE_LIMIT && (next = mQueue.peek()) != null
+                    && total + next.length <= COALESCE_LIMIT) {
+                mBatch.add(mQueue.poll());
+                total += next.length;
+            }
+
+            try {
+                if (mBatch.size() == 1) {
+                    mOutStream.write(first.data, first.offset, first.length);
+                } else {
+                    int position = 0;
+                    for (Request request : mBatch) {
+                        System.arraycopy(request.data, request.offset, mCoalesceBuffer, position, request.length);
+                        position += request.length;
+                    }
+                    mOutStream.write(mCoalesceBuffer, 0, position);
+                }
+                mOutStream.flush();
+
+                for (Request request : mBatch) {
+                    complete(request, null);
+                }
+            } catch (Exception e) {
+                for (Request request : mBatch) {
+                    complete(request, e);
+                }
+                mClosed = true;
+                failPending(e);
+            } finally {
+                mBatch.clear();
+            }
+        }
+    }
+
+    private void failPending(Exception e) {
+        Request request;
+        while ((request = mQueue.poll()) != null) {
+            complete(request, e);
+        }
+    }
+
+    private static void complete(Request request, Exception e) {
+        if (request.callback == null) {
+            return;
+        }
+
+        if (e == null) {
+            request.callback.onWritten();
+        } else {
+            request.callback.onFailed(e);
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Growable ring buffer holding the bytes received from one device.
+ *
+ * Appends are amortized O(1): the backing array only grows (by doubling) when
+ * it is full, and existing data is never copied on a normal append. Consuming
+ * k bytes costs O(k), leaving the rest of the backlog where it is.
+ *
+ * The buffer also keeps an incremental Knuth-Morris-Pratt scan for its
+ * delimiter: the scan position and partial match survive between calls, so
+ * every received byte is examined once no matter how often JS polls.
+ *
+ * When a {@link FrameDecoder} feeds the buffer, frame boundaries are recorded
+ * as well so whole frames can be read back one at a time.
+ *
+ * The reader thread hands data over through {@link #receive} and
+ * {@link #onFrame}, which only copy it into a lock-free {@link ChunkQueue}.
+ * Every other method runs under the buffer's monitor and first moves the
+ * queued chunks into the ring, so the reader never waits for JS. Only when
+ * the queue is full does the reader take the monitor and drain it itself.
+ * There is one reader at a time: a replaced connection stops delivering
+ * before the next one starts, see {@link SerialConnection#cancel()}.
+ *
+ * Buffers that share a usage counter add the bytes they hold to it, so a cap
+ * across devices can be checked without visiting every buffer.
+ */
+class DeviceBuffer implements FrameDecoder.Sink {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] mData;
+    private int mHead; // index of the first readable byte
+    private int mSize; // number of readable bytes
+
+    private byte[] mDelimiter = EMPTY;
+    private int[] mFailure = new int[0]; // KMP failure function of mDelimiter
+    private int mScanned; // bytes from the head already fed to the matcher
+    private int mMatched; // length of the delimiter prefix matched at mScanned
+    private int mMatchEnd = -1; // end of the first match relative to the head, or -1
+
+    private int[] mFrames = new int[16]; // ring of remaining frame lengths
+    private int mFrameHead;
+    private int mFrameCount;
+
+    private final ChunkQueue mQueue = new ChunkQueue();
+    private final ChunkQueue.Consumer mDrainTarget = new ChunkQueue.Consumer() {
+        @Override
+        public void onChunk(byte[] chunk, int length, boolean frame) {
+            appendChunk(chunk, 0, length, frame);
+        }
+    };
+
+    // Written by the reader only
+    private volatile long mReceivedBytes;
+    private volatile long mReceivedFrames;
+    // Written under the monitor only
+    private volatile long mConsumedBytes;
+    private volatile long mConsumedFrames;
+
+    private final AtomicLong mUsage; // shared with other buffers, or null
+
+    DeviceBuffer() {
+        this(INITIAL_CAPACITY, null);
+    }
+
+    /**
+     * @param usage Counter of the bytes held by a group of buffers, or null
+     */
+    DeviceBuffer(AtomicLong usage) {
+        this(INITIAL_CAPACITY, usage);
+    }
+
+    /**
+     * @param initialCapacity Initial capacity, rounded up to a power of two
+     */
+    DeviceBuffer(int initialCapacity) {
+        this(initialCapacity, null);
+    }
+
+    /**
+     * @param initialCapacity Initial capacity, rounded up to a power of two
+     * @param usage           Counter of the bytes held by a group of buffers, or null
+     */
+    DeviceBuffer(int initialCapacity, AtomicLong usage) {
+        mData = new byte[roundUpToPowerOfTwo(Math.max(initialCapacity, 16))];
+        mUsage = usage;
+    }
+
+    /**
+     * Hand received bytes to the buffer. Reader side only; does not block
+     * unless the handoff queue is full.
+     *
+     * @param src    Source array, may be reused once this returns
+     * @param offset Offset of the first byte in src
+     * @param length Number of bytes received
+     */
+    void receive(byte[] src, int offset, int length) {
+        if (length > 0) {
+            offer(src, offset, length, false);
+        }
+    }
+
+    @Override
+    public void onFrame(byte[] frame, int offset, int length) {
+        offer(frame, offset, length, true);
+    }
+
+    /**
+     * Lock-free estimate of {@link #available()} for the reader side. It may
+     * briefly count bytes that are being consumed.
+     *
+     * @return Bytes received and not consumed yet
+     */
+    int approximateAvailable() {
+        return (int) Math.max(0, mReceivedBytes - mConsumedBytes);
+    }
+
+    /**
+     * Lock-free estimate of {@link #frameCount()} for the reader side
+     *
+     * @return Frames received and not consumed yet
+     */
+    int approximateFrameCount() {
+        return (int) Math.max(0, mReceivedFrames - mConsumedFrames);
+    }
+
+    private void offer(byte[] src, int offset, int length, boolean frame) {
+        // Count first so the estimates never lag behind the consumer. Queued
+        // bytes count towards the usage as well as those in the ring.
+        mReceivedBytes += length;
+        if (frame) mReceivedFrames++;
+        if (mUsage != null) mUsage.addAndGet(length);
+
+        if (frame) {
+            if (!mQueue.offerFrame(src, offset, length)) {
+                appendBehindQueue(src, offset, length, true);
+            }
+        } else {
+            int queued = mQueue.offer(src, offset, length);
+            if (queued < length) {
+                appendBehindQueue(src, offset + queued, length - queued, false);
+            }
+        }
+    }
+
+    /**
+     * Append what the queue could not take, e.g. because it is full or the
+     * frame is too large for a slot, after the chunks queued before it
+     */
+    private synchronized void appendBehindQueue(byte[] src, int offset, int length, boolean frame) {
+        drain();
+        appendChunk(src, offset, length, frame);
+    }
+
+    private void appendChunk(byte[] src, int offset, int length, boolean frame) {
+        try {
+            if (frame) {
+                appendFrame(src, offset, length);
+            } else {
+                append(src, offset, length);
+            }
+        } catch (IllegalStateException e) {
+            // The chunk is dropped, keep the counters in step
+            consumed(length);
+            if (frame) mConsumedFrames++;
+            throw e;
+        }
+    }
+
+    /**
+     * Move queued chunks into the ring. Must hold the monitor.
+     */
+    private void drain() {
+        if (!mQueue.isEmpty()) {
+            mQueue.drainTo(mDrainTarget);
+        }
+    }
+
+    /**
+     * Append bytes at the tail of the buffer
+     *
+     * @param src    Source array
+     * @param offset Offset of the first byte in src
+     * @param length Number of bytes to append
+     */
+    private void append(byte[] src, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+
+        ensureCapacity(mSize + length);
+
+        int mask = mData.length - 1;
+        int tail = (mHead + mSize) & mask;
+        int first = Math.min(length, mData.length - tail);
+
+        System.arraycopy(src, offset, mData, tail, first);
+        if (first < length) {
+            System.arraycopy(src, offset + first, mData, 0, length - first);
+        }
+
+        mSize += length;
+    }
+
+    /**
+     * Append one complete frame and remember its boundary
+     *
+     * @param src    Source array
+     * @param offset Offset of the frame in src
+     * @param length Frame length
+     */
+    private void appendFrame(byte[] src, int offset, int length) {
+        append(src, offset, length);
+
+        if (mFrameCount == mFrames.length) {
+            int[] grown = new int[mFrames.length << 1];
+            for (int i = 0; i < mFrameCount; i++) {
+                grown[i] = mFrames[(mFrameHead + i) & (mFrames.length - 1)];
+            }
+            mFrames = grown;
+            mFrameHead = 0;
+        }
+
+        mFrames[(mFrameHead + mFrameCount) & (mFrames.length - 1)] = length;
+        mFrameCount++;
+    }
+
+    /**
+     * @return Number of complete frames waiting to be read
+     */
+    synchronized int frameCount() {
+        drain();
+        return mFrameCount;
+    }
+
+    /**
+     * Consume the next frame. If part of it was already consumed by a plain
+     * read, only the remainder is returned.
+     *
+     * @return Frame bytes, or null if no frame is buffered
+     */
+    synchronized byte[] readFrame() {
+        drain();
+
+        if (mFrameCount == 0) {
+            return null;
+        }
+
+        return readLocked(mFrames[mFrameHead]);
+    }
+
+    /**
+     * @return Number of bytes waiting to be read
+     */
+    synchronized int available() {
+        drain();
+        return mSize;
+    }
+
+    /**
+     * Consume and return at most length bytes from the head of the buffer
+     *
+     * @param length Maximum number of bytes to read
+     * @return The consumed bytes
+     */
+    synchronized byte[] read(int length) {
+        drain();
+        return readLocked(length);
+    }
+
+    private byte[] readLocked(int length) {
+        int count = Math.min(length, mSize);
+
+        if (count <= 0) {
+            return EMPTY;
+        }
+
+        byte[] out = new byte[count];
+        copyOut(out, 0, count);
+        skip(count);
+
+        return out;
+    }
+
+    /**
+     * Consume and return everything in the buffer
+     *
+     * @return The consumed bytes
+     */
+    synchronized byte[] readAll() {
+        drain();
+        return readLocked(mSize);
+    }
+
+    /**
+     * Drop everything in the buffer, keeping the allocated storage
+     */
+    synchronized void clear() {
+        drain();
+
+        consumed(mSize);
+        mConsumedFrames += mFrameCount;
+        mHead = 0;
+        mSize = 0;
+        mFrameHead = 0;
+        mFrameCount = 0;
+        resetScan();
+    }
+
+    /**
+     * Set the delimiter used by {@link #readUntilDelimiter()}. Setting the
+     * same delimiter again keeps the current scan state.
+     *
+     * @param delimiter Delimiter bytes, empty to read everything
+     */
+    synchronized void setDelimiter(byte[] delimiter) {
+        if (Arrays.equals(mDelimiter, delimiter)) {
+            return;
+        }
+
+        mDelimiter = delimiter.clone();
+        mFailure = buildFailureTable(mDelimiter);
+        resetScan();
+    }
+
+    /**
+     * Find the end of the first delimiter in the buffer, resuming the scan
+     * where the previous call left off
+     *
+     * @return Position just past the delimiter relative to the head of the
+     *         buffer, or -1 if the buffer does not contain a complete delimiter
+     */
+    synchronized int indexOfDelimiter() {
+        drain();
+
+        if (mMatchEnd >= 0) {
+            return mMatchEnd;
+        }
+
+        int length = mDelimiter.length;
+
+        if (length == 0) {
+            return -1;
+        }
+
+        int mask = mData.length - 1;
+        int matched = mMatched;
+
+        for (int i = mScanned; i < mSize; i++) {
+            byte value = mData[(mHead + i) & mask];
+
+            while (matched > 0 && mDelimiter[matched] != value) {
+                matched = mFailure[matched - 1];
+            }
+
+            if (mDelimiter[matched] == value) {
+                matched++;
+            }
+
+            if (matched == length) {
+                mScanned = i + 1;
+                mMatched = matched;
+                mMatchEnd = i + 1;
+                return mMatchEnd;
+            }
+        }
+
+        mScanned = mSize;
+        mMatched = matched;
+
+        return -1;
+    }
+
+    /**
+     * Consume everything up to and including the first delimiter. With an
+     * empty delimiter the whole buffer is consumed.
+     *
+     * @return The consumed bytes, or an empty array if no delimiter was found
+     */
+    synchronized byte[] readUntilDelimiter() {
+        if (mDelimiter.length == 0) {
+            return readAll();
+        }
+
+        int end = indexOfDelimiter();
+
+        return end >= 0 ? readLocked(end) : EMPTY;
+    }
+
+    private void copyOut(byte[] dst, int dstOffset, int length) {
+        int first = Math.min(length, mData.length - mHead);
+
+        System.arraycopy(mData, mHead, dst, dstOffset, first);
+        if (first < length) {
+            System.arraycopy(mData, 0, dst, dstOffset + first, length - first);
+        }
+    }
+
+    /**
+     * Drop at least length bytes from the head of the buffer, or everything
+     * if it holds less. When the head is a frame, whole frames are dropped so
+     * no truncated frame is left to read.
+     *
+     * @param length Bytes to drop
+     * @return Bytes dropped
+     */
+    synchronized int discard(int length) {
+        drain();
+
+        int count = Math.min(length, mSize);
+        int frames = 0;
+
+        for (int i = 0; i < mFrameCount && frames < count; i++) {
+            frames += mFrames[(mFrameHead + i) & (mFrames.length - 1)];
+        }
+
+        count = Math.min(mSize, Math.max(count, frames));
+        if (count > 0) {
+            skip(count);
+        }
+
+        return count;
+    }
+
+    private void consumed(long bytes) {
+        mConsumedBytes += bytes;
+        if (mUsage != null) mUsage.addAndGet(-bytes);
+    }
+
+    private void skip(int length) {
+        consumed(length);
+        mSize -= length;
+        mHead = mSize == 0 ? 0 : (mHead + length) & (mData.length - 1);
+
+        // Keep the scan state if the consumed bytes are not part of a
+        // (partial) match, otherwise start over from the new head
+        if (length <= mScanned - mMatched) {
+            mScanned -= length;
+            if (mMatchEnd >= 0) {
+                mMatchEnd -= length;
+            }
+        } else {
+            resetScan();
+        }
+
+        while (length > 0 && mFrameCount > 0) {
+            int frame = mFrames[mFrameHead];
+
+            if (length < frame) {
+                mFrames[mFrameHead] = frame - length;
+                break;
+            }
+
+            length -= frame;
+            mFrameHead = (mFrameHead + 1) & (mFrames.length - 1);
+            mFrameCount--;
+            mConsumedFrames++;
+        }
+    }
+
+    private void resetScan() {
+        mScanned = 0;
+        mMatched = 0;
+        mMatchEnd = -1;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= mData.length) {
+            return;
+        }
+
+        if (required < 0 || required > (1 << 30)) {
+            throw new IllegalStateException("Device buffer is too large");
+        }
+
+        // Linearize into the new array so the data starts at index 0 again
+        byte[] grown = new byte[roundUpToPowerOfTwo(required)];
+        copyOut(grown, 0, mSize);
+        mData = grown;
+        mHead = 0;
+    }
+
+    /**
+     * Consume everything up to and including the last delimiter in the
+     * buffer. Bytes after it stay buffered, with their scan state kept, until
+     * a later delimiter completes them. With an empty delimiter the whole
+     * buffer is consumed.
+     *
+     * @return The consumed bytes, or an empty array if no delimiter was found
+     */
+    synchronized byte[] readCompleteMessages() {
+        if (mDelimiter.length == 0) {
+            return readAll();
+        }
+
+        int last = indexOfDelimiter();
+
+        if (last < 0) {
+            return EMPTY;
+        }
+
+        int length = mDelimiter.length;
+        int mask = mData.length - 1;
+        int matched = 0;
+
+        for (int i = last; i < mSize; i++) {
+            byte value = mData[(mHead + i) & mask];
+
+            while (matched > 0 && mDelimiter[matched] != value) {
+                matched = mFailure[matched - 1];
+            }
+
+            if (mDelimiter[matched] == value) {
+                matched++;
+            }
+
+            if (matched == length) {
+                last = i + 1;
+                matched = 0;
+            }
+        }
+
+        byte[] out = readLocked(last);
+
+        // Everything left was scanned above and contains no complete delimiter
+        mScanned = mSize;
+        mMatched = matched;
+        mMatchEnd = -1;
+
+        return out;
+    }
+
+    /**
+     * @return Lengths of the buffered frames, oldest first
+     */
+    synchronized int[] frameLengths() {
+        drain();
+
+        int[] lengths = new int[mFrameCount];
+
+        for (int i = 0; i < mFrameCount; i++) {
+            lengths[i] = mFrames[(mFrameHead + i) & (mFrames.length - 1)];
+        }
+
+        return lengths;
+    }
+
+    private static int[] buildFailureTable(byte[] pattern) {
+        int[] failure = new int[pattern.length];
+        int matched = 0;
+
+        for (int i = 1; i < pattern.length; i++) {
+            while (matched > 0 && pattern[i] != pattern[matched]) {
+                matched = failure[matched - 1];
+            }
+
+            if (pattern[i] == pattern[matched]) {
+                matched++;
+            }
+
+            failure[i] = matched;
+        }
+
+        return failure;
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+}
@@ -0,0 +1,870 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+/**
+ * Connects device sessions, runs their connections and reconnects them after
+ * an outage. Devices are known by address only and links are opened by a
+ * {@link SerialTransport.Factory}, so nothing here depends on Android: the
+ * service plugs in RFCOMM sockets, and the same code runs on a plain JVM
+ * over a {@link LoopbackTransport}. Everything that does need Android, such
+ * as reporting to JS or checking the adapter, goes through the
+ * {@link Listener}.
+ *
+ * Each device has its own {@link DeviceSession}, so connecting, stopping or a
+ * slow socket close of one device never blocks another, and state queries and
+ * writes do not lock at all.
+ */
+class DeviceConnector {
+
+    /**
+     * The owner of the connector
+     */
+    interface Listener {
+        /**
+         * @param session Session of the device that connected
+         */
+        void onConnected(DeviceSession session);
+
+        /**
+         * A connect failed, timed out, or reconnecting gave up
+         *
+         * @param session Session of the device
+         * @param error   Cause, a TimeoutException if the deadline expired
+         */
+        void onConnectFailed(DeviceSession session, Exception error);
+
+        /**
+         * @param session Session of the device whose connection was lost
+         */
+        void onConnectionLost(DeviceSession session);
+
+        /**
+         * @param session Session of the device
+         * @param attempt Attempt number within the outage, starting at 1
+         * @param delayMs Milliseconds until the attempt starts
+         */
+        void onReconnecting(DeviceSession session, int attempt, long delayMs);
+
+        /**
+         * Bytes were read. Reader thread only.
+         *
+         * @param session Session of the device
+         * @param data    Read buffer, only valid during the call
+         * @param offset  Offset of the first byte
+         * @param length  Number of bytes
+         */
+        void onData(DeviceSession session, byte[] data, int offset, int length);
+
+        /**
+         * @param e   The error
+         * @param id  Device address, may be empty
+         * @param tag Where the error was caught
+         */
+        void onError(Exception e, String id, String tag);
+
+        /**
+         * @return Whether links cannot be made because the radio is off.
+         * Reconnecting waits for {@link #onAdapterStateChanged(boolean)} then.
+         */
+        boolean isRadioOff();
+    }
+
+    private volatile DeviceSession mFirstSession = null;
+    private final BufferLimits mBufferLimits = new BufferLimits();
+    private final SessionRegistry mSessions = new SessionRegistry(mBufferLimits);
+    private final SerialExecutors mExecutors = new SerialExecutors();
+    private final ConnectStrategyCache mStrategies;
+    private final SerialTransport.Factory mTransports;
+    private final Listener mListener;
+    private final Random mRandom = new Random();
+    private final Tracer mTracer = new Tracer(Tracer.DEFAULT_CAPACITY);
+
+    /**
+     * @param transports Opens the links to devices
+     * @param strategies Remembers how each device connected last time
+     * @param listener   Owner of the connector
+     */
+    DeviceConnector(SerialTransport.Factory transports, ConnectStrategyCache strategies, Listener listener) {
+        mTransports = transports;
+        mStrategies = strategies;
+        mListener = listener;
+    }
+
+    /**
+     * @return Trace of connection and I/O events
+     */
+    Tracer getTracer() {
+        return mTracer;
+    }
+
+    /**
+     * @return Limits on the data buffered for JS
+     */
+    BufferLimits getBufferLimits() {
+        return mBufferLimits;
+    }
+
+    /**
+     * @return Thread pools used for connecting and I/O
+     */
+    SerialExecutors getExecutors() {
+        return mExecutors;
+    }
+
+    /**
+     * @return Live view of all device sessions
+     */
+    Collection<DeviceSession> getSessions() {
+        return mSessions.sessions();
+    }
+
+    @Nullable
+    String getFirstDeviceAddress() {
+        DeviceSession session = mFirstSession;
+        return session != null ? session.getId() : null;
+    }
+
+    /**
+     * Resolve an id passed from JS to its session without locking
+     *
+     * @param id Session handle, device address, or null for the first device
+     * @return The session, or null if the device has none
+     * @throws IllegalArgumentException if id is a stale session handle
+     */
+    @Nullable
+    DeviceSession getSession(@Nullable String id) {
+        if (id == null) {
+            return mFirstSession;
+        }
+
+        if (!SessionRegistry.isHandle(id)) {
+            return mSessions.get(id);
+        }
+
+        DeviceSession session = null;
+        try {
+            session = mSessions.get(Integer.parseInt(id));
+        } catch (NumberFormatException e) {
+            // Out of range, cannot be a handle we gave out
+        }
+
+        if (session == null) {
+            throw new IllegalArgumentException("Session handle " + id + " is stale");
+        }
+
+        return session;
+    }
+
+    /**
+     * @param address Device address, not validated
+     * @return Existing session of the device, or a new one
+     */
+    DeviceSession getOrCreateSession(String address) {
+        return mSessions.getOrCreate(address);
+    }
+
+    /**
+     * Start a ConnectThread to initiate a connection to a remote device.
+     * While an attempt for the device is in progress, a further connect
+     * joins it instead of starting over; the earliest deadline applies.
+     * An explicit connect ends any pending automatic reconnect.
+     *
+     * @param address   Device address
+     * @param timeoutMs Cancel the attempt after this many milliseconds, 0 for no deadline
+     * @return Session of the device
+     */
+    DeviceSession connect(String address, long timeoutMs) {
+        DeviceSession session = mSessions.getOrCreate(address);
+        startConnect(session, timeoutMs, false);
+
+        return session;
+    }
+
+    /**
+     * @param session   Session of the device
+     * @param timeoutMs Cancel the attempt after this many milliseconds, 0 for no deadline
+     * @param reconnect Whether this is an automatic reconnect, which keeps
+     *                  the handle and only runs while the outage lasts
+     */
+    private void startConnect(DeviceSession session, long timeoutMs, boolean reconnect) {
+        String id = session.getId();
+        ConnectThread previousAttempt;
+        SerialConnection previousConnection;
+        ScheduledFuture<?> reconnectTask;
+        ConnectThread thread;
+
+        synchronized (session) {
+            ConnectThread pending = session.getConnectThread();
+
+            if (reconnect) {
+                if (!session.isReconnecting() || session.getState() != DeviceSession.State.NONE) {
+                    return; // Outage ended in the meantime
+                }
+                reconnectTask = session.swapReconnectTask(null);
+            } else {
+                reconnectTask = session.clearReconnect();
+
+                if (pending != null && !pending.mmReconnect && session.getState() == DeviceSession.State.CONNECTING) {
+                    scheduleConnectTimeout(pending, timeoutMs); // Join the connect in progress
+                    return;
+                }
+            }
+
+            previousAttempt = session.swapConnectThread(null);
+            previousConnection = session.swapConnectedThread(null);
+
+            if (!hasConnectedDevice()) {
+                mFirstSession = session;
+            }
+
+            if (!reconnect) {
+                mSessions.renew(session); // Handles of the previous connection go stale
+                session.getStats().reset();
+            }
+            thread = new ConnectThread(session, reconnect);
+            session.swapConnectThread(thread);
+            session.setState(DeviceSession.State.CONNECTING);
+        }
+
+        mTracer.record(Tracer.Kind.CONNECT, id, reconnect ? 1 : 0, 0);
+        cancelReconnectTask(reconnectTask);
+
+        try {
+            cancelConnectThread(previousAttempt); // Cancel any thread attempting to make a connection
+        } catch (Exception e1) {
+            mListener.onError(e1, id, "RCTBluetoothSerialService.connect.catch.01");
+        }
+
+        try {
+            cancelConnectedThread(previousConnection); // Cancel any thread currently running a connection
+        } catch (Exception e2) {
+            mListener.onError(e2, id, "RCTBluetoothSerialService.connect.catch.02");
+        }
+
+        scheduleConnectTimeout(thread, timeoutMs); // Counts time spent waiting for a connect slot
+
+        try {
+            // Start the thread to connect with the given device
+            mExecutors.executeConnect(thread);
+        } catch (Exception e3) {
+            mListener.onError(e3, id, "RCTBluetoothSerialService.connect.catch.03");
+            connectionFailed(thread);
+        }
+    }
+
+    /**
+     * Set how a device is reconnected after its connection was lost
+     *
+     * @param session Device session
+     * @param policy  Reconnect policy, or null to stop reconnecting
+     */
+    void setReconnectPolicy(DeviceSession session, @Nullable ReconnectPolicy policy) {
+        session.setReconnectPolicy(policy);
+
+        if (policy == null) {
+            ScheduledFuture<?> reconnectTask;
+
+            synchronized (session) {
+                reconnectTask = session.clearReconnect();
+            }
+
+            cancelReconnectTask(reconnectTask);
+        }
+    }
+
+    /**
+     * Pause reconnecting while the adapter is off, resume once it is on.
+     * Attempts are counted from 1 again on resume.
+     *
+     * @param enabled Whether the adapter is on
+     */
+    void onAdapterStateChanged(boolean enabled) {
+        for (DeviceSession session : mSessions.sessions()) {
+            ScheduledFuture<?> reconnectTask;
+
+            synchronized (session) {
+                if (!session.isReconnecting()) {
+                    continue;
+                }
+
+                reconnectTask = session.swapReconnectTask(null);
+                session.resetReconnectAttempts();
+            }
+
+            cancelReconnectTask(reconnectTask);
+
+            if (enabled) {
+                scheduleReconnect(session);
+            }
+        }
+    }
+
+    /**
+     * Queue bytes on the writer of the connection. The callback is
+     * called once the bytes are flushed to the socket or the write failed.
+     * Does not lock.
+     *
+     * @param session  Device session
+     * @param out      The bytes to write, must not be modified until the callback
+     * @param offset   Offset of the first byte in out
+     * @param length   Number of bytes to write
+     * @param callback Write completion
+     * @see SerialConnection#write(byte[], int, int, ConnectionWriter.Callback)
+     */
+    void write(DeviceSession session, byte[] out, int offset, int length, ConnectionWriter.Callback callback) {
+        SerialConnection r = session.isConnected() ? session.getConnectedThread() : null;
+
+        if (r != null) {
+            r.write(out, offset, length, callback);
+        } else {
+            callback.onFailed(new IOException("Device " + session.getId() + " is not connected"));
+        }
+    }
+
+    /**
+     * Stop threads of a specific device and forget its session. Handles of
+     * the session go stale.
+     *
+     * @param session Device session
+     */
+    void release(DeviceSession session) {
+        stop(session);
+        mSessions.remove(session);
+
+        ReadEventBatcher batcher = session.swapBatcher(null);
+        if (batcher != null) {
+            batcher.cancel();
+        }
+
+        session.getBuffer().clear(); // Give its bytes back to the global limit
+    }
+
+    /**
+     * Stop all threads of all devices and forget their sessions
+     */
+    void stopAll() {
+        for (DeviceSession session : mSessions.sessions()) {
+            release(session);
+        }
+
+        mFirstSession = null;
+
+        // Sockets are closed above, so the pooled tasks return; pools are recreated on next connect
+        mExecutors.shutdown();
+    }
+
+    private boolean hasConnectedDevice() {
+        for (DeviceSession session : mSessions.sessions()) {
+            if (session.getConnectedThread() != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Cancel the tasks of a device and reset its state. The sockets are
+     * closed outside the session lock.
+     *
+     * @param session Device session
+     */
+    private void stop(DeviceSession session) {
+        ConnectThread attempt;
+        SerialConnection connection;
+        ScheduledFuture<?> reconnectTask;
+
+        synchronized (session) {
+            attempt = session.swapConnectThread(null);
+            connection = session.swapConnectedThread(null);
+            reconnectTask = session.clearReconnect();
+            session.setState(DeviceSession.State.NONE);
+        }
+
+        mTracer.record(Tracer.Kind.DISCONNECT, session.getId());
+        cancelReconnectTask(reconnectTask);
+        cancelConnectThread(attempt);
+        cancelConnectedThread(connection);
+        clearFirstSession(session);
+    }
+
+    private void clearFirstSession(DeviceSession session) {
+        if (mFirstSession == session) {
+            mFirstSession = null;
+        }
+    }
+
+    /**
+     * Start the SerialConnection to begin managing a connection
+     *
+     * @param transport The transport on which the connection was made
+     * @param attempt   The ConnectThread that made the connection
+     */
+    private void connectionSuccess(SerialTransport transport, ConnectThread attempt) {
+        DeviceSession session = attempt.mmSession;
+        String id = session.getId();
+        SerialConnection previousConnection;
+        ScheduledFuture<?> reconnectTask = null;
+        SerialConnection thread;
+
+        boolean current = attempt.finish(); // False if the deadline expired first
+
+        synchronized (session) {
+            if (!current || !session.clearConnectThread(attempt)) {
+                // Timed out, cancelled or superseded by a newer connect while connecting
+                thread = null;
+                previousConnection = null;
+            } else {
+                // Start the task to manage the connection and perform transmissions
+                thread = new SerialConnection(transport, id, session.getBuffer(), session.getStats(),
+                        mBufferLimits, mTracer, mExecutors.getIoExecutor(), new ConnectionListener(session));
+                previousConnection = session.swapConnectedThread(thread);
+                reconnectTask = session.clearReconnect(); // The outage, if any, is over
+                session.setState(DeviceSession.State.CONNECTED);
+            }
+        }
+
+        if (thread == null) {
+            try {
+                transport.close();
+            } catch (Exception e) {
+                mListener.onError(e, id, "RCTBluetoothSerialService.connectionSuccess.catch.01");
+            }
+            return;
+        }
+
+        cancelReconnectTask(reconnectTask);
+        // Cancel any thread currently running a connection. Once it returned
+        // the old reader no longer feeds the buffer and decoder.
+        cancelConnectedThread(previousConnection);
+
+        FrameDecoder decoder = session.getDecoder();
+        if (decoder != null) {
+            decoder.reset(); // A partial frame from a previous link will never complete
+        }
+
+        if (session.isPolling()) {
+            new PollingReader(thread, mExecutors.getPollingScheduler(), PollingReader.DEFAULT_MAX_DELAY_MS).start();
+        } else {
+            mExecutors.executeIo(thread);
+        }
+
+        mListener.onConnected(session);
+    }
+
+    /**
+     * Indicate that the connection attempt failed. Nothing happens if a newer
+     * connect to the device superseded the attempt, or if the attempt already
+     * timed out.
+     *
+     * @param attempt The ConnectThread that failed
+     */
+    private void connectionFailed(ConnectThread attempt) {
+        if (attempt.finish()) {
+            reportConnectionFailed(attempt, new IOException("Unable to connect to device"));
+        }
+    }
+
+    /**
+     * Give up on a connect attempt whose deadline expired: close its socket
+     * and reject with a timeout
+     *
+     * @param attempt   The ConnectThread that took too long
+     * @param timeoutMs Deadline of the attempt
+     */
+    private void connectionTimedOut(ConnectThread attempt, long timeoutMs) {
+        if (!attempt.finish()) {
+            return; // Connected or failed in the meantime
+        }
+
+        attempt.cancel();
+        reportConnectionFailed(attempt,
+                new TimeoutException("Connection to device timed out after " + timeoutMs + " ms"));
+    }
+
+    private void scheduleConnectTimeout(final ConnectThread attempt, final long timeoutMs) {
+        if (timeoutMs <= 0) {
+            return;
+        }
+
+        try {
+            attempt.setTimeout(mExecutors.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    connectionTimedOut(attempt, timeoutMs);
+                }
+            }, timeoutMs));
+        } catch (Exception e) {
+            mListener.onError(e, attempt.mmSession.getId(), "RCTBluetoothSerialService.scheduleConnectTimeout.catch.01");
+        }
+    }
+
+    private void reportConnectionFailed(ConnectThread attempt, Exception error) {
+        DeviceSession session = attempt.mmSession;
+        String deviceId = session.getId();
+
+        if (!session.clearConnectThread(attempt) && session.getState() != DeviceSession.State.NONE) {
+            return; // A newer attempt or connection owns the session
+        }
+
+        mTracer.record(Tracer.Kind.CONNECT_FAILED, deviceId, 0, (System.nanoTime() - attempt.mmStartedAt) / 1000000);
+
+        if (attempt.mmReconnect && session.getReconnectPolicy() != null) {
+            if (session.compareAndSetState(DeviceSession.State.CONNECTING, DeviceSession.State.NONE)) {
+                clearFirstSession(session);
+                scheduleReconnect(session);
+            }
+            return;
+        }
+
+        try {
+            mListener.onConnectFailed(session, error); // Send a failure message with device
+            if (session.compareAndSetState(DeviceSession.State.CONNECTING, DeviceSession.State.NONE)) {
+                clearFirstSession(session);
+            }
+        } catch (Exception e) {
+            mListener.onError(e, deviceId, "RCTBluetoothSerialService.connectionFailed.catch.02");
+        }
+    }
+
+    /**
+     * Indicate that the connection was lost. Nothing happens if a newer
+     * connection to the device replaced it.
+     *
+     * @param session    Session of the device
+     * @param connection The connection that was lost
+     */
+    private void connectionLost(DeviceSession session, SerialConnection connection) {
+        String deviceId = session.getId();
+        boolean current = session.clearConnectedThread(connection);
+
+        if (!current && session.getState() != DeviceSession.State.NONE) {
+            return; // Stale reader of a replaced connection
+        }
+
+        try {
+            mListener.onConnectionLost(session); // Send a failure message
+            if (current) {
+                mTracer.record(Tracer.Kind.CONNECTION_LOST, deviceId, 0, session.getStats().getConnectedFor());
+                session.getStats().onConnectionLost();
+            }
+            if (current && session.compareAndSetState(DeviceSession.State.CONNECTED, DeviceSession.State.NONE)) {
+                clearFirstSession(session);
+            }
+            cancelConnectedThread(connection); // Close the socket and writer of the lost connection
+        } catch (Exception e) {
+            mListener.onError(e, deviceId, "RCTBluetoothSerialService.connectionLost.catch.02");
+        }
+
+        if (current) {
+            scheduleReconnect(session);
+        }
+    }
+
+    /**
+     * Schedule the next reconnect attempt of a device whose session has a
+     * reconnect policy. While the radio is off the outage is only
+     * recorded; {@link #onAdapterStateChanged(boolean)} resumes it.
+     *
+     * @param session Device session
+     */
+    private void scheduleReconnect(final DeviceSession session) {
+        final ReconnectPolicy policy = session.getReconnectPolicy();
+        if (policy == null) {
+            return;
+        }
+
+        String id = session.getId();
+        int attempt;
+        long delayMs;
+
+        synchronized (session) {
+            if (session.getState() != DeviceSession.State.NONE) {
+                return; // Connected again in the meantime
+            }
+
+            session.setReconnecting();
+
+            if (mListener.isRadioOff()) {
+                return;
+            }
+
+            attempt = session.nextReconnectAttempt();
+
+            if (policy.isExhausted(attempt)) {
+                session.clearReconnect();
+                delayMs = -1;
+            } else {
+                delayMs = policy.getDelay(attempt, mRandom);
+
+                try {
+                    cancelReconnectTask(session.swapReconnectTask(mExecutors.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            startConnect(session, policy.getTimeout(), true);
+                        }
+                    }, delayMs)));
+                } catch (Exception e) {
+                    mListener.onError(e, id, "RCTBluetoothSerialService.scheduleReconnect.catch.01");
+                    session.clearReconnect();
+                    return;
+                }
+            }
+        }
+
+        if (delayMs < 0) {
+            mListener.onConnectFailed(session, new IOException("Unable to reconnect to device after "
+                    + policy.getMaxAttempts() + " attempts"));
+            return;
+        }
+
+        mTracer.record(Tracer.Kind.RECONNECT_SCHEDULED, id, attempt, delayMs);
+        mListener.onReconnecting(session, attempt, delayMs);
+    }
+
+    private static void cancelReconnectTask(@Nullable ScheduledFuture<?> task) {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Cancel connect thread
+     *
+     * @param thread Connection attempt, may be null
+     */
+    private void cancelConnectThread(ConnectThread thread) {
+        if (thread != null) {
+            thread.cancel();
+        }
+    }
+
+    /**
+     * Cancel connected thread. Waits until its reader hands over no more data.
+     *
+     * @param thread Connection, may be null
+     */
+    private void cancelConnectedThread(SerialConnection thread) {
+        if (thread != null) {
+            thread.cancel();
+        }
+    }
+
+    /**
+     * This task runs on the connect pool while attempting to make an outgoing
+     * connection with a device. It runs straight through; the connection
+     * either succeeds or fails.
+     *
+     * The strategy that connected the device last time is tried first, on its
+     * known RFCOMM channel when there is one, which skips the SDP lookup. The
+     * usual fallbacks follow.
+     */
+    class ConnectThread implements Runnable {
+        private volatile SerialTransport mmSocket;
+        private final DeviceSession mmSession;
+        private final boolean mmReconnect;
+        private final long mmStartedAt = System.nanoTime();
+        private volatile boolean mmCancelled = false;
+        private final AtomicBoolean mmFinished = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> mmTimeout;
+        private final String deviceId;
+
+        ConnectThread(DeviceSession session, boolean reconnect) {
+            mmSession = session;
+            mmReconnect = reconnect;
+            deviceId = session.getId();
+        }
+
+        public void run() {
+            if (mmCancelled) {
+                connectionFailed(this); // Cancelled while waiting for a connect slot
+                return;
+            }
+
+            List<ConnectStrategyCache.Entry> attempts = getAttempts(mStrategies.get(deviceId));
+
+            for (ConnectStrategyCache.Entry attempt : attempts) {
+                if (mmCancelled) {
+                    connectionFailed(this); // Closed by cancel(), no fallback
+                    return;
+                }
+
+                long attemptStartedAt = System.nanoTime();
+
+                // Make a connection to the device
+                try {
+                    mmSocket = mTransports.create(deviceId, attempt);
+
+                    if (mmCancelled) {
+                        closeSocket(); // cancel() ran before the socket existed
+                        continue;
+                    }
+
+                    // Blocks until the link is up or fails
+                    mmSocket.connect();
+                } catch (Exception e) {
+                    if (!mmCancelled) {
+                        mListener.onError(e, deviceId, "ConnectThread.run.catch.01");
+                        mmSession.getStats().onStrategyFailed(attempt.strategy, (System.nanoTime() - attemptStartedAt) / 1000000);
+                    }
+                    closeSocket();
+                    continue;
+                }
+
+                int channel = attempt.channel > 0 ? attempt.channel : mmSocket.getChannel();
+                mStrategies.put(deviceId, attempt.strategy, channel);
+
+                long now = System.nanoTime();
+                mmSession.getStats().onConnected(attempt.strategy, (now - attemptStartedAt) / 1000000,
+                        (now - mmStartedAt) / 1000000, mmReconnect);
+                mTracer.record(Tracer.Kind.CONNECTED, deviceId, channel, (now - mmStartedAt) / 1000000);
+
+                connectionSuccess(mmSocket, this); // Start the connected thread
+                return;
+            }
+
+            try {
+                connectionFailed(this);
+            } catch (Exception e5) {
+                mListener.onError(e5, deviceId, "ConnectThread.run.catch.05");
+            }
+        }
+
+        void cancel() {
+            mmCancelled = true;
+            closeSocket();
+        }
+
+        /**
+         * Mark the attempt as settled, by success, failure or timeout
+         *
+         * @return False if it was settled already
+         */
+        boolean finish() {
+            if (!mmFinished.compareAndSet(false, true)) {
+                return false;
+            }
+
+            ScheduledFuture<?> timeout = mmTimeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+
+            return true;
+        }
+
+        void setTimeout(ScheduledFuture<?> timeout) {
+            mmTimeout = timeout;
+
+            if (mmFinished.get()) {
+                timeout.cancel(false); // Settled while scheduling
+            }
+        }
+
+        private void closeSocket() {
+            SerialTransport socket = mmSocket;
+
+            if (socket == null) {
+                return;
+            }
+
+            try {
+                socket.close();
+            } catch (Exception e) {
+                mListener.onError(e, deviceId, "ConnectThread.cancel.catch.01");
+            }
+        }
+
+        /**
+         * Order the connect attempts: the cached strategy first, on its
+         * channel if known, then the default order
+         *
+         * @param cached Strategy that connected last time, or null
+         * @return Attempts without duplicates
+         */
+        private List<ConnectStrategyCache.Entry> getAttempts(ConnectStrategyCache.Entry cached) {
+            List<ConnectStrategyCache.Entry> attempts = new ArrayList<>(5);
+
+            if (cached != null) {
+                if (cached.channel > 0) {
+                    boolean secure = cached.strategy == ConnectStrategyCache.Strategy.SECURE_SERVICE
+                            || cached.strategy == ConnectStrategyCache.Strategy.SECURE_CHANNEL;
+                    attempts.add(new ConnectStrategyCache.Entry(secure
+                            ? ConnectStrategyCache.Strategy.SECURE_CHANNEL
+                            : ConnectStrategyCache.Strategy.INSECURE_CHANNEL, cached.channel));
+                }
+                addAttempt(attempts, new ConnectStrategyCache.Entry(cached.strategy, cached.channel));
+            }
+
+            addAttempt(attempts, new ConnectStrategyCache.Entry(ConnectStrategyCache.Strategy.SECURE_SERVICE, -1));
+            // Some 4.1 devices have problems, try an alternative way to connect
+            // See https://github.com/don/RCTBluetoothSerialModule/issues/89
+            addAttempt(attempts, new ConnectStrategyCache.Entry(ConnectStrategyCache.Strategy.SECURE_CHANNEL, 1));
+            // Fallback to insecure socket
+            addAttempt(attempts, new ConnectStrategyCache.Entry(ConnectStrategyCache.Strategy.INSECURE_SERVICE, -1));
+
+            return attempts;
+        }
+
+        private void addAttempt(List<ConnectStrategyCache.Entry> attempts, ConnectStrategyCache.Entry attempt) {
+            boolean service = attempt.strategy == ConnectStrategyCache.Strategy.SECURE_SERVICE
+                    || attempt.strategy == ConnectStrategyCache.Strategy.INSECURE_SERVICE;
+
+            // The channel of a service lookup is found by SDP, ignore it when comparing
+            for (ConnectStrategyCache.Entry existing : attempts) {
+                if (existing.strategy == attempt.strategy && (service || existing.channel == attempt.channel)) {
+                    return;
+                }
+            }
+
+            attempts.add(service ? new ConnectStrategyCache.Entry(attempt.strategy, -1) : attempt);
+        }
+    }
+
+    /**
+     * Connects a {@link SerialConnection} to the session of its device and
+     * to the listener
+     */
+    private class ConnectionListener implements SerialConnection.Listener {
+        private final DeviceSession mmSession;
+
+        ConnectionListener(DeviceSession session) {
+            mmSession = session;
+        }
+
+        @Override
+        public boolean isCurrent(SerialConnection connection) {
+            return mmSession.getConnectedThread() == connection;
+        }
+
+        @Override
+        public BufferLimits.Limit getBufferLimit() {
+            return mmSession.getBufferLimit();
+        }
+
+        @Override
+        public void onData(SerialConnection connection, byte[] data, int offset, int length) {
+            mListener.onData(mmSession, data, offset, length);
+        }
+
+        @Override
+        public void onLost(SerialConnection connection) {
+            connectionLost(mmSession, connection);
+        }
+
+        @Override
+        public void onError(Exception e, String tag) {
+            mListener.onError(e, mmSession.getId(), tag);
+        }
+    }
+}
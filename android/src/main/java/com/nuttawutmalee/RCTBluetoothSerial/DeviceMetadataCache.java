@@ -0,0 +1,165 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Name, class and bond state of devices, and the list of bonded devices.
+ *
+ * Each getter of {@link BluetoothDevice} and
+ * {@link BluetoothAdapter#getBondedDevices()} is a binder call into the system
+ * Bluetooth service. Listing devices and building event payloads read the
+ * cache instead, which is filled on first use and kept current from the
+ * bond state, name and class broadcasts, see {@link #onBondStateChanged},
+ * {@link #onNameChanged} and {@link #onClassChanged}.
+ *
+ * Lookups do not lock. A load that races with an invalidation is not
+ * stored, so a broadcast is never overwritten by older data.
+ */
+class DeviceMetadataCache {
+    static final int NO_CLASS = -1;
+
+    /**
+     * What is known about a device. Entries are immutable.
+     */
+    static class Entry {
+        final String address;
+        final String name;
+        final int deviceClass; // or NO_CLASS
+        final int bondState;
+
+        Entry(String address, String name, int deviceClass, int bondState) {
+            this.address = address;
+            this.name = name;
+            this.deviceClass = deviceClass;
+            this.bondState = bondState;
+        }
+
+        boolean isBonded() {
+            return bondState == BluetoothDevice.BOND_BONDED;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private volatile List<String> mBonded; // addresses, null until loaded or after a bond change
+    private final AtomicInteger mGeneration = new AtomicInteger(); // bumped by every invalidation
+
+    /**
+     * @param device A device
+     * @return Its metadata, loaded from the device on a miss
+     */
+    Entry get(BluetoothDevice device) {
+        Entry entry = mEntries.get(device.getAddress());
+        return entry != null ? entry : load(device);
+    }
+
+    /**
+     * @param adapter Adapter to ask on a miss
+     * @return Metadata of the bonded devices
+     */
+    List<Entry> getBonded(BluetoothAdapter adapter) {
+        List<String> bonded = mBonded;
+
+        if (bonded == null) {
+            int generation = mGeneration.get();
+            Set<BluetoothDevice> devices = adapter.getBondedDevices();
+            List<Entry> entries = new ArrayList<>(devices != null ? devices.size() : 0);
+            List<String> addresses = new ArrayList<>(entries.size());
+
+            if (devices != null) {
+                for (BluetoothDevice device : devices) {
+                    entries.add(get(device));
+                    addresses.add(device.getAddress());
+                }
+            }
+
+            if (mGeneration.get() == generation) {
+                mBonded = Collections.unmodifiableList(addresses);
+            }
+
+            return entries;
+        }
+
+        List<Entry> entries = new ArrayList<>(bonded.size());
+        for (String address : bonded) {
+            Entry entry = mEntries.get(address);
+            entries.add(entry != null ? entry : load(adapter.getRemoteDevice(address)));
+        }
+
+        return entries;
+    }
+
+    /**
+     * @param device Device whose bond state changed
+     * @param state  New bond state
+     */
+    void onBondStateChanged(BluetoothDevice device, int state) {
+        mGeneration.incrementAndGet();
+        mBonded = null;
+
+        Entry entry = mEntries.get(device.getAddress());
+        if (entry != null) {
+            mEntries.put(entry.address, new Entry(entry.address, entry.name, entry.deviceClass, state));
+        }
+    }
+
+    /**
+     * @param device Device whose name changed, or was received
+     * @param name   The name, or null if not known
+     */
+    void onNameChanged(BluetoothDevice device, @Nullable String name) {
+        mGeneration.incrementAndGet();
+
+        Entry entry = mEntries.get(device.getAddress());
+        if (entry == null) {
+            return; // Loaded with the name on first use
+        }
+
+        if (name == null) {
+            mEntries.remove(entry.address);
+        } else if (!name.equals(entry.name)) {
+            mEntries.put(entry.address, new Entry(entry.address, name, entry.deviceClass, entry.bondState));
+        }
+    }
+
+    /**
+     * @param device Device whose class changed
+     */
+    void onClassChanged(BluetoothDevice device) {
+        mGeneration.incrementAndGet();
+        mEntries.remove(device.getAddress());
+    }
+
+    /**
+     * Forget everything, e.g. when the adapter turns off
+     */
+    void clear() {
+        mGeneration.incrementAndGet();
+        mBonded = null;
+        mEntries.clear();
+    }
+
+    private Entry load(BluetoothDevice device) {
+        int generation = mGeneration.get();
+
+        BluetoothClass bluetoothClass = device.getBluetoothClass();
+        Entry entry = new Entry(device.getAddress(), device.getName(),
+                bluetoothClass != null ? bluetoothClass.getDeviceClass() : NO_CLASS, device.getBondState());
+
+        if (mEntries.putIfAbsent(entry.address, entry) == null && mGeneration.get() != generation) {
+            mEntries.remove(entry.address, entry); // Invalidated while loading
+        }
+
+        return entry;
+    }
+}
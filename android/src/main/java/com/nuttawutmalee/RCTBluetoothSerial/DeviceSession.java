@@ -0,0 +1,315 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import javax.annotation.Nullable;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Everything the library keeps for one device: connection state, the running
+ * tasks, and the receive buffer with its delimiter, frame decoder, read
+ * encoding and push mode settings. JS addresses a session by device address
+ * or, in O(1), by the handle {@link SessionRegistry} gives it.
+ *
+ * State and the running tasks live in atomic references, so queries such as
+ * {@link #isConnected()} and the write path never take a lock. Transitions
+ * that touch several fields synchronize on the session itself, which only
+ * serializes operations on the same device.
+ *
+ * With a {@link ReconnectPolicy} the session also tracks an outage: whether
+ * the device is being reconnected, the attempt count and the scheduled
+ * attempt. These are guarded by the session lock.
+ *
+ * The receive buffer counts towards the {@link BufferLimits} of the registry,
+ * and the session may have a limit of its own.
+ */
+class DeviceSession implements BufferLimits.Holder {
+    enum State {
+        NONE, // we're doing nothing
+        CONNECTING, // now initiating an outgoing connection
+        CONNECTED // now connected to a remote device
+    }
+
+    static final byte[] DEFAULT_DELIMITER = { 0 };
+
+    private final String mId;
+    private final int mSlot;
+    private volatile int mHandle = -1;
+    private final AtomicReference<State> mState = new AtomicReference<>(State.NONE);
+    private final AtomicReference<DeviceConnector.ConnectThread> mConnectThread = new AtomicReference<>();
+    private final AtomicReference<SerialConnection> mConnectedThread = new AtomicReference<>();
+    private volatile boolean mPolling = false;
+
+    private final DeviceBuffer mBuffer;
+    private volatile BufferLimits.Limit mBufferLimit = BufferLimits.NONE;
+    private final AtomicBoolean mDropEventPending = new AtomicBoolean();
+    private long mDroppedReported = 0; // written by the event task only
+    private volatile FrameDecoder mDecoder;
+    private volatile int mEncoding = ByteEncoding.ARRAY;
+    private final AtomicReference<ReadEventBatcher> mBatcher = new AtomicReference<>();
+    private final ConnectionStats mStats = new ConnectionStats();
+
+    private volatile ReconnectPolicy mReconnectPolicy;
+    private boolean mReconnecting = false;
+    private int mReconnectAttempts = 0;
+    private ScheduledFuture<?> mReconnectTask;
+
+    /**
+     * @param id     Device address
+     * @param slot   Slot in the {@link SessionRegistry}
+     * @param limits Limits the receive buffer counts towards
+     */
+    DeviceSession(String id, int slot, BufferLimits limits) {
+        mId = id;
+        mSlot = slot;
+        mBuffer = new DeviceBuffer(limits.getUsage());
+        mBuffer.setDelimiter(DEFAULT_DELIMITER);
+    }
+
+    String getId() {
+        return mId;
+    }
+
+    int getSlot() {
+        return mSlot;
+    }
+
+    /**
+     * @return Current handle, or -1 once the session was removed
+     */
+    int getHandle() {
+        return mHandle;
+    }
+
+    void setHandle(int handle) {
+        mHandle = handle;
+    }
+
+    State getState() {
+        return mState.get();
+    }
+
+    boolean isConnected() {
+        return mState.get() == State.CONNECTED;
+    }
+
+    /**
+     * @param state New state
+     * @return Previous state
+     */
+    State setState(State state) {
+        return mState.getAndSet(state);
+    }
+
+    /**
+     * @param expect Expected current state
+     * @param update New state
+     * @return Whether the session was in the expected state and was updated
+     */
+    boolean compareAndSetState(State expect, State update) {
+        return mState.compareAndSet(expect, update);
+    }
+
+    DeviceConnector.ConnectThread getConnectThread() {
+        return mConnectThread.get();
+    }
+
+    /**
+     * @param thread New connection attempt, or null
+     * @return Previous attempt, which the caller must cancel
+     */
+    DeviceConnector.ConnectThread swapConnectThread(DeviceConnector.ConnectThread thread) {
+        return mConnectThread.getAndSet(thread);
+    }
+
+    /**
+     * Clear the connection attempt if it is still the given one
+     *
+     * @param thread Attempt that finished
+     * @return Whether the attempt was current
+     */
+    boolean clearConnectThread(DeviceConnector.ConnectThread thread) {
+        return mConnectThread.compareAndSet(thread, null);
+    }
+
+    SerialConnection getConnectedThread() {
+        return mConnectedThread.get();
+    }
+
+    /**
+     * @param thread New connection, or null
+     * @return Previous connection, which the caller must cancel
+     */
+    SerialConnection swapConnectedThread(SerialConnection thread) {
+        return mConnectedThread.getAndSet(thread);
+    }
+
+    /**
+     * Clear the connection if it is still the given one
+     *
+     * @param thread Connection that ended
+     * @return Whether the connection was current
+     */
+    boolean clearConnectedThread(SerialConnection thread) {
+        return mConnectedThread.compareAndSet(thread, null);
+    }
+
+    /**
+     * @return Whether the device is read by the shared polling pool
+     */
+    boolean isPolling() {
+        return mPolling;
+    }
+
+    void setPolling(boolean polling) {
+        mPolling = polling;
+    }
+
+    /**
+     * @return Receive buffer, kept across connections of the session
+     */
+    @Override
+    public DeviceBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    BufferLimits.Limit getBufferLimit() {
+        return mBufferLimit;
+    }
+
+    /**
+     * @param limit Limit of the receive buffer, {@link BufferLimits#NONE} for none
+     */
+    void setBufferLimit(BufferLimits.Limit limit) {
+        mBufferLimit = limit;
+    }
+
+    /**
+     * @return Whether the caller should schedule a dropped data event, false
+     * if one is scheduled already
+     */
+    boolean markDropEventPending() {
+        return mDropEventPending.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by the event task. Drops counted after the pending flag is
+     * cleared schedule the next event.
+     *
+     * @return Bytes dropped since the previous event
+     */
+    long takeDroppedSinceEvent() {
+        mDropEventPending.set(false);
+        long dropped = mStats.droppedBytes.get();
+        long since = dropped - mDroppedReported;
+        mDroppedReported = dropped;
+        return Math.max(0, since);
+    }
+
+    @Nullable
+    FrameDecoder getDecoder() {
+        return mDecoder;
+    }
+
+    void setDecoder(@Nullable FrameDecoder decoder) {
+        mDecoder = decoder;
+    }
+
+    /**
+     * @return Default read encoding, a constant from ByteEncoding
+     */
+    int getEncoding() {
+        return mEncoding;
+    }
+
+    void setEncoding(int encoding) {
+        mEncoding = encoding;
+    }
+
+    @Nullable
+    ReadEventBatcher getBatcher() {
+        return mBatcher.get();
+    }
+
+    /**
+     * @param batcher New push mode batcher, or null to turn push mode off
+     * @return Previous batcher, which the caller must cancel
+     */
+    @Nullable
+    ReadEventBatcher swapBatcher(@Nullable ReadEventBatcher batcher) {
+        return mBatcher.getAndSet(batcher);
+    }
+
+    /**
+     * @return Statistics, kept across automatic reconnects
+     */
+    @Override
+    public ConnectionStats getStats() {
+        return mStats;
+    }
+
+    @Nullable
+    ReconnectPolicy getReconnectPolicy() {
+        return mReconnectPolicy;
+    }
+
+    void setReconnectPolicy(@Nullable ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    /**
+     * @return Whether there is an outage the device is reconnected from.
+     * Caller holds the session lock.
+     */
+    boolean isReconnecting() {
+        return mReconnecting;
+    }
+
+    /**
+     * Start or continue an outage. Caller holds the session lock.
+     */
+    void setReconnecting() {
+        mReconnecting = true;
+    }
+
+    /**
+     * @return Number of the next attempt of the outage, starting at 1.
+     * Caller holds the session lock.
+     */
+    int nextReconnectAttempt() {
+        return ++mReconnectAttempts;
+    }
+
+    /**
+     * Start counting attempts from 1 again, e.g. after the adapter came back.
+     * Caller holds the session lock.
+     */
+    void resetReconnectAttempts() {
+        mReconnectAttempts = 0;
+    }
+
+    /**
+     * @param task Scheduled attempt, or null. Caller holds the session lock.
+     * @return Previously scheduled attempt, which the caller must cancel
+     */
+    @Nullable
+    ScheduledFuture<?> swapReconnectTask(@Nullable ScheduledFuture<?> task) {
+        ScheduledFuture<?> previous = mReconnectTask;
+        mReconnectTask = task;
+        return previous;
+    }
+
+    /**
+     * End the outage, e.g. after reconnecting or an explicit connect. Caller
+     * holds the session lock.
+     *
+     * @return Scheduled attempt, which the caller must cancel
+     */
+    @Nullable
+    ScheduledFuture<?> clearReconnect() {
+        mReconnecting = false;
+        mReconnectAttempts = 0;
+        return swapReconnectTask(null);
+    }
+}
@@ -0,0 +1,139 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Devices seen by discovery, with their name, class, signal strength and the
+ * time they were last seen, so known devices can be shown before an inquiry
+ * of about 12 seconds has finished.
+ *
+ * Entries expire once not seen for the TTL. Sightings are counted per scan:
+ * Android reports a device several times during one inquiry, often with its
+ * name only on a later report, so a sighting is worth passing on only when
+ * it is the first of the scan or adds the name or class.
+ */
+class DiscoveryCache {
+    static final long DEFAULT_TTL_MS = 300000;
+    static final int NO_CLASS = -1;
+    static final int NO_RSSI = Short.MIN_VALUE;
+
+    /**
+     * A device as last seen. Entries are immutable, a sighting replaces them.
+     */
+    static class Entry {
+        final String address;
+        final String name; // null until the device told it
+        final int deviceClass; // or NO_CLASS
+        final int rssi; // dBm, or NO_RSSI
+        final long lastSeen; // ms since epoch
+        final int scan; // scan of the last sighting
+
+        Entry(String address, String name, int deviceClass, int rssi, long lastSeen, int scan) {
+            this.address = address;
+            this.name = name;
+            this.deviceClass = deviceClass;
+            this.rssi = rssi;
+            this.lastSeen = lastSeen;
+            this.scan = scan;
+        }
+    }
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(); // in order of discovery
+    private long mTtlMs;
+    private int mScan = 0;
+    private long mLastScanFinished = 0;
+
+    /**
+     * @param ttlMs How long a device is kept after it was last seen
+     */
+    DiscoveryCache(long ttlMs) {
+        mTtlMs = Math.max(0, ttlMs);
+    }
+
+    synchronized long getTtl() {
+        return mTtlMs;
+    }
+
+    synchronized void setTtl(long ttlMs) {
+        mTtlMs = Math.max(0, ttlMs);
+    }
+
+    /**
+     * A scan begins: devices count as new to it again
+     */
+    synchronized void startScan() {
+        mScan++;
+    }
+
+    /**
+     * @return Number of the current or last scan, compare with {@link Entry#scan}
+     */
+    synchronized int getScan() {
+        return mScan;
+    }
+
+    synchronized void finishScan() {
+        mLastScanFinished = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Milliseconds since the last scan finished, or Long.MAX_VALUE
+     * if none did
+     */
+    synchronized long getLastScanAge() {
+        return mLastScanFinished == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - mLastScanFinished;
+    }
+
+    /**
+     * Record a sighting. Unknown fields keep their previous value.
+     *
+     * @param address     Device address
+     * @param name        Device name, or null if not reported
+     * @param deviceClass Device class, or NO_CLASS
+     * @param rssi        Signal strength, or NO_RSSI
+     * @return The updated entry if the sighting is news to the current scan,
+     * or null for a repeat
+     */
+    @Nullable
+    synchronized Entry onFound(String address, @Nullable String name, int deviceClass, int rssi) {
+        Entry previous = mEntries.get(address);
+
+        if (previous != null) {
+            name = name != null ? name : previous.name;
+            deviceClass = deviceClass != NO_CLASS ? deviceClass : previous.deviceClass;
+            rssi = rssi != NO_RSSI ? rssi : previous.rssi;
+        }
+
+        Entry entry = new Entry(address, name, deviceClass, rssi, System.currentTimeMillis(), mScan);
+        mEntries.put(address, entry);
+
+        boolean news = previous == null
+                || previous.scan != mScan
+                || (name != null && !name.equals(previous.name))
+                || deviceClass != previous.deviceClass;
+
+        return news ? entry : null;
+    }
+
+    /**
+     * @return Devices seen within the TTL, in order of discovery
+     */
+    synchronized List<Entry> getFresh() {
+        long oldest = System.currentTimeMillis() - mTtlMs;
+        Iterator<Entry> iterator = mEntries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().lastSeen < oldest) {
+                iterator.remove();
+            }
+        }
+
+        return new ArrayList<>(mEntries.values());
+    }
+}
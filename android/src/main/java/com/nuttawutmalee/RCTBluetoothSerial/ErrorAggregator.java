@@ -0,0 +1,242 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Folds bursts of errors into a few reports, so a disconnect that throws in
+ * every catch of the connect and read paths does not flood the bridge.
+ *
+ * Errors are keyed by device, tag and exception class. The first error of a
+ * key is reported at once and opens a window; repeats within the window are
+ * only counted and reported together, with their count, when it closes. An
+ * error after the window opens a new one.
+ *
+ * Reports carry no stack trace. The exception of each report is retained for
+ * a while, so {@link #getStackTrace(int)} can format it on request.
+ */
+class ErrorAggregator {
+    static final long DEFAULT_WINDOW_MS = 1000;
+    static final int RETAINED_EXCEPTIONS = 64;
+    private static final int MAX_KEYS = 256;
+
+    /**
+     * Receiver of reports
+     */
+    interface Listener {
+        void onReport(Report report);
+    }
+
+    /**
+     * One or more errors of a key
+     */
+    static class Report {
+        final int id; // to look up the stack trace
+        final String device;
+        final String tag;
+        final String exception; // class name
+        final String message; // of the latest error
+        final int count;
+        final long firstTime; // ms since epoch
+        final long lastTime;
+
+        Report(int id, String device, String tag, String exception, String message, int count,
+               long firstTime, long lastTime) {
+            this.id = id;
+            this.device = device;
+            this.tag = tag;
+            this.exception = exception;
+            this.message = message;
+            this.count = count;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+        }
+    }
+
+    private static class Entry {
+        final String device;
+        final String tag;
+        final String exception;
+        long windowEnd;
+        int pending = 0; // errors since the window opened, not reported yet
+        long firstPending;
+        long lastPending;
+        Throwable lastError;
+
+        Entry(String device, String tag, String exception) {
+            this.device = device;
+            this.tag = tag;
+            this.exception = exception;
+        }
+    }
+
+    private final SerialExecutors mExecutors;
+    private final Listener mListener;
+    private volatile long mWindowMs;
+
+    // Guarded by this
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    private final LinkedHashMap<Integer, Throwable> mRetained = new LinkedHashMap<Integer, Throwable>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Throwable> eldest) {
+            return size() > RETAINED_EXCEPTIONS;
+        }
+    };
+    private int mNextId = 1;
+
+    /**
+     * @param windowMs  Window in which repeats are folded, 0 to report every error
+     * @param executors Runs the end of each window
+     * @param listener  Receives the reports
+     */
+    ErrorAggregator(long windowMs, SerialExecutors executors, Listener listener) {
+        mWindowMs = Math.max(0, windowMs);
+        mExecutors = executors;
+        mListener = listener;
+    }
+
+    long getWindow() {
+        return mWindowMs;
+    }
+
+    /**
+     * @param windowMs Window of errors that occur from now on, 0 to report every error
+     */
+    void setWindow(long windowMs) {
+        mWindowMs = Math.max(0, windowMs);
+    }
+
+    /**
+     * @param error  The error
+     * @param device Device address, may be empty
+     * @param tag    Where the error was caught
+     */
+    void report(Throwable error, String device, String tag) {
+        String exception = error.getClass().getName();
+        String key = device + '\n' + tag + '\n' + exception;
+        long now = System.currentTimeMillis();
+        Report report;
+        final Entry flush;
+        long delayMs;
+
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+
+            if (entry != null && now < entry.windowEnd) {
+                entry.lastError = error;
+                entry.lastPending = now;
+                if (entry.pending++ > 0) {
+                    return; // The end of the window is scheduled already
+                }
+
+                entry.firstPending = now;
+                flush = entry;
+                delayMs = entry.windowEnd - now;
+                report = null;
+            } else {
+                if (entry == null) {
+                    if (mEntries.size() >= MAX_KEYS) {
+                        removeIdle(now);
+                    }
+                    entry = new Entry(device, tag, exception);
+                    mEntries.put(key, entry);
+                }
+
+                entry.windowEnd = now + mWindowMs;
+                report = newReport(entry, error, 1, now, now);
+                flush = null;
+                delayMs = 0;
+            }
+        }
+
+        if (report != null) {
+            mListener.onReport(report);
+            return;
+        }
+
+        try {
+            mExecutors.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(flush);
+                }
+            }, delayMs);
+        } catch (Exception e) {
+            flush(flush); // Report now rather than lose the count
+        }
+    }
+
+    /**
+     * @param id Id of a report
+     * @return Stack trace of the latest error of the report, or null if it is
+     * no longer retained
+     */
+    String getStackTrace(int id) {
+        Throwable error;
+
+        synchronized (this) {
+            error = mRetained.get(id);
+        }
+
+        return error != null ? formatStackTrace(error) : null;
+    }
+
+    /**
+     * @param error An error
+     * @return Frames of its stack trace separated by " --- "
+     */
+    static String formatStackTrace(Throwable error) {
+        StringBuilder sb = new StringBuilder();
+
+        for (StackTraceElement element : error.getStackTrace()) {
+            if (sb.length() > 0) {
+                sb.append(" --- ");
+            }
+            sb.append(element);
+        }
+
+        return sb.toString();
+    }
+
+    private void flush(Entry entry) {
+        Report report;
+
+        synchronized (this) {
+            if (entry.pending == 0) {
+                return;
+            }
+
+            report = newReport(entry, entry.lastError, entry.pending, entry.firstPending, entry.lastPending);
+            entry.pending = 0;
+            entry.lastError = null;
+        }
+
+        mListener.onReport(report);
+    }
+
+    /**
+     * Caller holds the lock
+     */
+    private Report newReport(Entry entry, Throwable error, int count, long firstTime, long lastTime) {
+        int id = mNextId++;
+        mRetained.put(id, error);
+
+        return new Report(id, entry.device, entry.tag, entry.exception, error.getMessage(), count, firstTime, lastTime);
+    }
+
+    /**
+     * Forget keys whose window is over. Caller holds the lock.
+     */
+    private void removeIdle(long now) {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now >= entry.windowEnd && entry.pending == 0) {
+                iterator.remove();
+            }
+        }
+    }
+}
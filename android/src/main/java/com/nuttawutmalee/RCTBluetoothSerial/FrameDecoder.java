@@ -0,0 +1,45 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.io.IOException;
+
+/**
+ * Streaming decoder sitting between the socket and the device buffer. It is
+ * fed raw chunks as they are read and hands complete frames to a sink, keeping
+ * any partial frame until the rest of it arrives.
+ *
+ * A decoder instance belongs to one device and is only called from that
+ * device's reader thread.
+ */
+interface FrameDecoder {
+    /**
+     * Receiver of decoded frames
+     */
+    interface Sink {
+        /**
+         * Called once per complete frame. The bytes are only valid for the
+         * duration of the call.
+         *
+         * @param frame  Array holding the frame
+         * @param offset Offset of the frame in the array
+         * @param length Frame length in bytes
+         */
+        void onFrame(byte[] frame, int offset, int length);
+    }
+
+    /**
+     * Feed a chunk of raw bytes to the decoder
+     *
+     * @param data   Received bytes
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     * @param sink   Receiver of complete frames
+     * @throws IOException If the stream cannot be framed; the decoder should
+     *                     be reset before it is used again
+     */
+    void decode(byte[] data, int offset, int length, Sink sink) throws IOException;
+
+    /**
+     * Drop any partially received frame
+     */
+    void reset();
+}
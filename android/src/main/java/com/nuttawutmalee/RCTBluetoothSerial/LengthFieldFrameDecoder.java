@@ -0,0 +1,140 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.io.IOException;
+
+/**
+ * Decoder for frames that carry their own length in a header field.
+ *
+ * The total frame length is computed as
+ * {@code lengthFieldOffset + lengthFieldLength + value + lengthAdjustment}, so
+ * a 2 byte big-endian length that counts the whole packet (header included) is
+ * described by offset 0, length 2, adjustment -2.
+ *
+ * Frames that arrive whole inside one chunk are passed to the sink straight
+ * from the chunk; only the tail of a frame that spans reads is copied into the
+ * internal accumulator.
+ */
+class LengthFieldFrameDecoder implements FrameDecoder {
+    static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024;
+
+    private final int mLengthFieldOffset;
+    private final int mLengthFieldLength;
+    private final boolean mBigEndian;
+    private final int mLengthAdjustment;
+    private final int mMaxFrameLength;
+    private final int mHeaderLength;
+
+    private byte[] mPending = new byte[256];
+    private int mPendingLength = 0;
+
+    /**
+     * @param lengthFieldOffset Offset of the length field in the frame
+     * @param lengthFieldLength Width of the length field: 1, 2, 3 or 4 bytes
+     * @param bigEndian         Byte order of the length field
+     * @param lengthAdjustment  Value added to the length field to get the
+     *                          number of bytes following the field
+     * @param maxFrameLength    Largest accepted frame
+     */
+    LengthFieldFrameDecoder(int lengthFieldOffset, int lengthFieldLength, boolean bigEndian,
+                            int lengthAdjustment, int maxFrameLength) {
+        if (lengthFieldOffset < 0) {
+            throw new IllegalArgumentException("lengthFieldOffset must not be negative: " + lengthFieldOffset);
+        }
+
+        if (lengthFieldLength < 1 || lengthFieldLength > 4) {
+            throw new IllegalArgumentException("lengthFieldLength must be 1, 2, 3 or 4: " + lengthFieldLength);
+        }
+
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive: " + maxFrameLength);
+        }
+
+        mLengthFieldOffset = lengthFieldOffset;
+        mLengthFieldLength = lengthFieldLength;
+        mBigEndian = bigEndian;
+        mLengthAdjustment = lengthAdjustment;
+        mMaxFrameLength = maxFrameLength;
+        mHeaderLength = lengthFieldOffset + lengthFieldLength;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, Sink sink) throws IOException {
+        int end = offset + length;
+
+        // Complete the frame left over from previous reads first
+        while (mPendingLength > 0 && offset < end) {
+            int needed = mPendingLength < mHeaderLength
+                    ? mHeaderLength - mPendingLength
+                    : frameLength(mPending, 0) - mPendingLength;
+            int count = Math.min(needed, end - offset);
+
+            appendPending(data, offset, count);
+            offset += count;
+
+            if (mPendingLength >= mHeaderLength) {
+                int frameLength = frameLength(mPending, 0);
+
+                if (mPendingLength == frameLength) {
+                    mPendingLength = 0;
+                    sink.onFrame(mPending, 0, frameLength);
+                }
+            }
+        }
+
+        // Whole frames inside this chunk go to the sink without copying
+        while (end - offset >= mHeaderLength) {
+            int frameLength = frameLength(data, offset);
+
+            if (end - offset < frameLength) {
+                break;
+            }
+
+            sink.onFrame(data, offset, frameLength);
+            offset += frameLength;
+        }
+
+        if (offset < end) {
+            appendPending(data, offset, end - offset);
+        }
+    }
+
+    @Override
+    public void reset() {
+        mPendingLength = 0;
+    }
+
+    private int frameLength(byte[] data, int offset) throws IOException {
+        long value = 0;
+        int start = offset + mLengthFieldOffset;
+
+        for (int i = 0; i < mLengthFieldLength; i++) {
+            int shift = mBigEndian ? (mLengthFieldLength - 1 - i) * 8 : i * 8;
+            value |= (long) (data[start + i] & 0xFF) << shift;
+        }
+
+        long frameLength = mHeaderLength + value + mLengthAdjustment;
+
+        if (frameLength < mHeaderLength || frameLength > mMaxFrameLength) {
+            throw new IOException("Invalid frame length " + frameLength + " (length field " + value + ")");
+        }
+
+        return (int) frameLength;
+    }
+
+    private void appendPending(byte[] data, int offset, int length) {
+        if (mPendingLength + length > mPending.length) {
+            int capacity = mPending.length;
+
+            while (capacity < mPendingLength + length) {
+                capacity <<= 1;
+            }
+
+            byte[] grown = new byte[capacity];
+            System.arraycopy(mPending, 0, grown, 0, mPendingLength);
+            mPending = grown;
+        }
+
+        System.arraycopy(data, offset, mPending, mPendingLength, length);
+        mPendingLength += length;
+    }
+}
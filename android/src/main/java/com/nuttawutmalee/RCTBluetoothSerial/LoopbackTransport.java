@@ -0,0 +1,429 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory stand-in for an RFCOMM socket, so the connect, read, write and
+ * reconnect pipeline can be benchmarked and stressed without a radio.
+ *
+ * Each direction is a pipe that models the link: a write becomes readable
+ * after the configured latency plus its transmission time at the configured
+ * bandwidth, and reads return at most one chunk, like the MTU-sized packets
+ * of a real link. The other end of the link is a {@link Remote} handed to a
+ * {@link Peer}, which plays the device.
+ *
+ * Faults are injected from a seeded random source, so a run can be repeated:
+ * connects can be slow or fail, and the link can drop at random or after a
+ * given number of bytes.
+ */
+class LoopbackTransport implements SerialTransport {
+
+    /**
+     * Link model and faults. Zero turns a setting off.
+     */
+    static class Options {
+        long bandwidth = 0; // bytes per second in each direction
+        long latencyMs = 0; // one way
+        int chunkSize = 0; // most bytes per read
+        int capacity = 65536; // bytes in flight per direction before writes block
+        long connectDelayMs = 0;
+        double connectFailureRate = 0; // share of connects that fail, 0 to 1
+        double dropRate = 0; // chance that the link drops on each read, 0 to 1
+        long dropAfterBytes = 0; // drop the link once this many bytes were read
+        long seed = 0;
+    }
+
+    /**
+     * Plays the device end of each link
+     */
+    interface Peer {
+        /**
+         * Called on the connecting thread once a link is up; must not block
+         *
+         * @param address Device address
+         * @param remote  Device end of the link
+         */
+        void onConnected(String address, Remote remote);
+    }
+
+    /**
+     * Peer that sends everything it receives back, from a thread of its own
+     */
+    static final Peer ECHO = new Peer() {
+        @Override
+        public void onConnected(String address, final Remote remote) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[4096];
+
+                    try {
+                        InputStream in = remote.getInputStream();
+                        OutputStream out = remote.getOutputStream();
+
+                        while (true) {
+                            int bytes = in.read(buffer, 0, buffer.length);
+                            if (bytes < 0) {
+                                break;
+                            }
+                            out.write(buffer, 0, bytes);
+                        }
+                    } catch (IOException e) {
+                        // Link closed
+                    }
+                }
+            }, "LoopbackEcho-" + address);
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+    };
+
+    /**
+     * Creates loopback links that share options, peer and random source
+     */
+    static class Factory implements SerialTransport.Factory {
+        private final Options mOptions;
+        private final Peer mPeer;
+        private final Random mRandom;
+
+        /**
+         * @param options Link model and faults
+         * @param peer    Plays the devices
+         */
+        Factory(Options options, Peer peer) {
+            mOptions = options;
+            mPeer = peer;
+            mRandom = new Random(options.seed);
+        }
+
+        @Override
+        public SerialTransport create(String address, ConnectStrategyCache.Entry attempt) {
+            return new LoopbackTransport(address, mOptions, mPeer, mRandom);
+        }
+    }
+
+    /**
+     * Device end of a link
+     */
+    class Remote {
+        /**
+         * @return Bytes the app wrote
+         */
+        InputStream getInputStream() {
+            return mToDevice.mInput;
+        }
+
+        /**
+         * @return Bytes for the app to read
+         */
+        OutputStream getOutputStream() {
+            return mToApp.mOutput;
+        }
+
+        String getAddress() {
+            return mAddress;
+        }
+
+        /**
+         * Drop the link as if the device went away
+         */
+        void close() {
+            fail(new IOException("Connection reset by the remote device"));
+        }
+    }
+
+    /**
+     * One direction of the link. Bytes become readable at the time the link
+     * model gives them.
+     */
+    private class Pipe {
+        private final boolean mFaulty; // read by the app, faults are injected here
+        private final ArrayDeque<Segment> mSegments = new ArrayDeque<>();
+        private int mInFlight = 0;
+        private long mNextFreeNanos = 0; // when the link finishes sending what is queued
+        private long mRead = 0;
+        private IOException mError;
+
+        final InputStream mInput = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                return Pipe.this.available();
+            }
+
+            @Override
+            public void close() {
+                LoopbackTransport.this.close();
+            }
+        };
+
+        final OutputStream mOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                LoopbackTransport.this.close();
+            }
+        };
+
+        Pipe(boolean faulty) {
+            mFaulty = faulty;
+        }
+
+        private int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            IOException fault = null;
+            int bytes = 0;
+
+            synchronized (this) {
+                while (true) {
+                    if (mError != null) {
+                        throw new IOException(mError.getMessage());
+                    }
+
+                    Segment head = mSegments.peek();
+                    long waitNanos = head == null ? 0 : head.readyAt - System.nanoTime();
+
+                    if (head != null && waitNanos <= 0) {
+                        break;
+                    }
+
+                    try {
+                        if (head == null) {
+                            wait();
+                        } else {
+                            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading");
+                    }
+                }
+
+                if (mFaulty && mOptions.dropRate > 0 && mRandom.nextDouble() < mOptions.dropRate) {
+                    fault = new IOException("Injected link drop");
+                } else {
+                    int limit = mOptions.chunkSize > 0 ? Math.min(len, mOptions.chunkSize) : len;
+                    long now = System.nanoTime();
+
+                    // Merge segments that arrived meanwhile, up to one chunk
+                    while (bytes < limit && !mSegments.isEmpty() && mSegments.peek().readyAt <= now) {
+                        Segment head = mSegments.peek();
+                        int count = Math.min(limit - bytes, head.data.length - head.offset);
+                        System.arraycopy(head.data, head.offset, b, off + bytes, count);
+                        head.offset += count;
+                        bytes += count;
+
+                        if (head.offset == head.data.length) {
+                            mSegments.poll();
+                        }
+                    }
+
+                    mInFlight -= bytes;
+                    mRead += bytes;
+                    notifyAll(); // Room for blocked writers
+
+                    if (mFaulty && mOptions.dropAfterBytes > 0 && mRead >= mOptions.dropAfterBytes) {
+                        fault = new IOException("Injected link drop after " + mRead + " bytes");
+                    }
+                }
+            }
+
+            if (fault != null) {
+                fail(fault);
+                if (bytes == 0) {
+                    throw fault;
+                }
+            }
+
+            return bytes; // The read that reached the limit still delivers its chunk
+        }
+
+        private synchronized int available() {
+            long now = System.nanoTime();
+            int bytes = 0;
+
+            for (Segment segment : mSegments) {
+                if (segment.readyAt > now) {
+                    break;
+                }
+                bytes += segment.data.length - segment.offset;
+            }
+
+            return bytes;
+        }
+
+        private synchronized void write(byte[] b, int off, int len) throws IOException {
+            int chunk = mOptions.chunkSize > 0 ? mOptions.chunkSize : Math.max(1, len);
+
+            for (int start = 0; start < len; start += chunk) {
+                int count = Math.min(chunk, len - start);
+
+                // Block while the link is full, like a socket with full buffers
+                while (mError == null && mInFlight > 0 && mInFlight + count > mOptions.capacity) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while writing");
+                    }
+                }
+
+                if (mError != null) {
+                    throw new IOException(mError.getMessage());
+                }
+
+                long now = System.nanoTime();
+                long transmitNanos = mOptions.bandwidth > 0 ? count * 1000000000L / mOptions.bandwidth : 0;
+                mNextFreeNanos = Math.max(now, mNextFreeNanos) + transmitNanos;
+
+                byte[] data = new byte[count];
+                System.arraycopy(b, off + start, data, 0, count);
+                mSegments.add(new Segment(data, mNextFreeNanos + TimeUnit.MILLISECONDS.toNanos(mOptions.latencyMs)));
+                mInFlight += count;
+            }
+
+            notifyAll();
+        }
+
+        private synchronized void close(IOException error) {
+            if (mError == null) {
+                mError = error;
+            }
+            notifyAll();
+        }
+    }
+
+    private static class Segment {
+        final byte[] data;
+        final long readyAt; // System.nanoTime() at which the bytes are readable
+        int offset = 0;
+
+        Segment(byte[] data, long readyAt) {
+            this.data = data;
+            this.readyAt = readyAt;
+        }
+    }
+
+    private final String mAddress;
+    private final Options mOptions;
+    private final Peer mPeer;
+    private final Random mRandom;
+    private final Pipe mToApp = new Pipe(true);
+    private final Pipe mToDevice = new Pipe(false);
+
+    // Guarded by this
+    private boolean mConnected = false;
+    private boolean mClosed = false;
+
+    /**
+     * @param address Device address
+     * @param options Link model and faults
+     * @param peer    Plays the device
+     * @param random  Source of the faults
+     */
+    LoopbackTransport(String address, Options options, Peer peer, Random random) {
+        mAddress = address;
+        mOptions = options;
+        mPeer = peer;
+        mRandom = random;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        synchronized (this) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mOptions.connectDelayMs);
+            long waitNanos;
+
+            while (!mClosed && (waitNanos = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while connecting");
+                }
+            }
+
+            if (mClosed) {
+                throw new IOException("Socket closed");
+            }
+
+            if (mOptions.connectFailureRate > 0 && mRandom.nextDouble() < mOptions.connectFailureRate) {
+                throw new IOException("Injected connect failure");
+            }
+
+            mConnected = true;
+        }
+
+        mPeer.onConnected(mAddress, new Remote());
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (!mConnected) {
+            throw new IOException("Not connected");
+        }
+        return mToApp.mInput;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (!mConnected) {
+            throw new IOException("Not connected");
+        }
+        return mToDevice.mOutput;
+    }
+
+    @Override
+    public int getChannel() {
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+            notifyAll(); // Fail a connect in progress
+        }
+
+        fail(new IOException("Socket closed"));
+    }
+
+    /**
+     * Drop both directions of the link
+     *
+     * @param error Cause reported to readers and writers
+     */
+    private void fail(IOException error) {
+        mToApp.close(error);
+        mToDevice.close(error);
+    }
+}
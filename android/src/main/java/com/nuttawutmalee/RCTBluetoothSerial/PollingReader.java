@@ -0,0 +1,68 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads one connection from a shared scheduler instead of a dedicated
+ * blocking thread, for devices that only send a few bytes now and then.
+ *
+ * Each run polls the source once. After data it polls again right away;
+ * after an empty poll the delay doubles from {@link #MIN_DELAY_MS} up to the
+ * configured maximum, so idle links cost almost nothing.
+ */
+class PollingReader implements Runnable {
+    static final long MIN_DELAY_MS = 1;
+    static final long DEFAULT_MAX_DELAY_MS = 100;
+
+    /**
+     * Connection being polled
+     */
+    interface Source {
+        /**
+         * Read whatever is available without blocking
+         *
+         * @return Number of bytes read, 0 if nothing was available, or -1 when
+         *         the connection is finished and polling should stop
+         */
+        int poll();
+    }
+
+    private final Source mSource;
+    private final ScheduledExecutorService mScheduler;
+    private final long mMaxDelayMs;
+    private long mDelayMs = 0;
+
+    /**
+     * @param source     Connection to poll
+     * @param scheduler  Shared polling scheduler
+     * @param maxDelayMs Longest back-off between polls of an idle connection
+     */
+    PollingReader(Source source, ScheduledExecutorService scheduler, long maxDelayMs) {
+        mSource = source;
+        mScheduler = scheduler;
+        mMaxDelayMs = Math.max(MIN_DELAY_MS, maxDelayMs);
+    }
+
+    void start() {
+        mScheduler.execute(this);
+    }
+
+    @Override
+    public void run() {
+        int bytes = mSource.poll();
+
+        if (bytes < 0) {
+            return;
+        }
+
+        mDelayMs = bytes > 0 ? 0 : Math.min(mMaxDelayMs, Math.max(MIN_DELAY_MS, mDelayMs * 2));
+
+        try {
+            mScheduler.schedule(this, mDelayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Scheduler shut down, the connection is being torn down
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Map;
+
+/**
+ * {@link ConnectStrategyCache.Store} in shared preferences. Writes are applied
+ * asynchronously.
+ */
+class PreferencesStore implements ConnectStrategyCache.Store {
+    static final String CONNECT_STRATEGIES = "RCTBluetoothSerial.connectStrategies";
+
+    private final Context mContext;
+    private final String mName;
+    private volatile SharedPreferences mPreferences;
+
+    /**
+     * @param context Context owning the preferences
+     * @param name    Name of the preferences file
+     */
+    PreferencesStore(Context context, String name) {
+        mContext = context;
+        mName = name;
+    }
+
+    @Override
+    public Map<String, ?> load() {
+        SharedPreferences preferences = mContext.getSharedPreferences(mName, Context.MODE_PRIVATE);
+        if (preferences == null) {
+            return null;
+        }
+
+        mPreferences = preferences;
+        return preferences.getAll();
+    }
+
+    @Override
+    public void put(String address, String value) {
+        SharedPreferences preferences = mPreferences;
+        if (preferences != null) {
+            preferences.edit().putString(address, value).apply();
+        }
+    }
+
+    @Override
+    public void remove(String address) {
+        SharedPreferences preferences = mPreferences;
+        if (preferences != null) {
+            preferences.edit().remove(address).apply();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Brings up a batch of devices: pairs each one that is not bonded yet, then
+ * connects it.
+ *
+ * At most {@code concurrency} devices are in progress at a time; a finished
+ * device makes room for the next one in the list. Android bonds one device at
+ * a time, so pairing is serialized within the job while connects run in
+ * parallel. How many sockets are opened at once is further bounded by the
+ * connect pool of {@link SerialExecutors}.
+ *
+ * Outcomes of pairing and connecting arrive from broadcasts and service
+ * callbacks on other threads. The job only updates its bookkeeping under its
+ * lock; calls into the {@link Host} happen outside of it.
+ */
+class ProvisioningJob {
+    static final int DEFAULT_CONCURRENCY = 4;
+    static final long DEFAULT_PAIR_TIMEOUT_MS = 30000;
+    static final long DEFAULT_CONNECT_TIMEOUT_MS = 15000;
+
+    static final String STAGE_PAIRING = "pairing";
+    static final String STAGE_CONNECTING = "connecting";
+
+    /**
+     * Does the Bluetooth work of the job and receives its progress
+     */
+    interface Host {
+        /**
+         * @param id Device address
+         * @return Whether the device is bonded already
+         */
+        boolean isBonded(String id);
+
+        /**
+         * @param id Device address
+         * @return Whether the device is connected already
+         */
+        boolean isConnected(String id);
+
+        /**
+         * Start bonding, the outcome is reported to {@link #onBondStateChanged}
+         *
+         * @param id Device address
+         * @throws Exception if bonding could not be started
+         */
+        void createBond(String id) throws Exception;
+
+        /**
+         * Start connecting, the outcome is reported to {@link #onConnected}
+         * or {@link #onConnectFailed}
+         *
+         * @param id        Device address
+         * @param timeoutMs Deadline of the attempt
+         */
+        void connect(String id, long timeoutMs);
+
+        /**
+         * @param job   The job
+         * @param id    Device address
+         * @param stage STAGE_PAIRING or STAGE_CONNECTING
+         */
+        void onProgress(ProvisioningJob job, String id, String stage);
+
+        /**
+         * @param job   The job
+         * @param id    Device address
+         * @param error Cause of the failure, or null if the device is connected
+         */
+        void onResult(ProvisioningJob job, String id, @Nullable Exception error);
+
+        /**
+         * @param job The job, all of whose devices are done
+         */
+        void onFinished(ProvisioningJob job);
+    }
+
+    private final int mId;
+    private final List<String> mIds;
+    private final int mConcurrency;
+    private final long mPairTimeoutMs;
+    private final long mConnectTimeoutMs;
+    private final SerialExecutors mExecutors;
+    private final Host mHost;
+    private final long mStartedAt = System.currentTimeMillis();
+
+    // Guarded by this
+    private int mNext = 0;
+    private final HashMap<String, String> mActive = new HashMap<>(); // address -> stage
+    private final ArrayDeque<String> mPairQueue = new ArrayDeque<>();
+    private String mPairing;
+    private ScheduledFuture<?> mPairTimeout;
+    private final List<String> mSucceeded = new ArrayList<>();
+    private final List<String> mFailed = new ArrayList<>();
+    private boolean mCancelled = false;
+    private boolean mFinished = false;
+
+    /**
+     * @param id               Job id
+     * @param ids              Device addresses, duplicates are ignored
+     * @param concurrency      Devices in progress at a time, at least 1
+     * @param pairTimeoutMs    Deadline of each pairing
+     * @param connectTimeoutMs Deadline of each connect
+     * @param executors        Runs the pairing deadline
+     * @param host             Does the work and receives progress
+     */
+    ProvisioningJob(int id, List<String> ids, int concurrency, long pairTimeoutMs, long connectTimeoutMs,
+                    SerialExecutors executors, Host host) {
+        mId = id;
+        mIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        mConcurrency = Math.max(1, concurrency);
+        mPairTimeoutMs = pairTimeoutMs;
+        mConnectTimeoutMs = connectTimeoutMs;
+        mExecutors = executors;
+        mHost = host;
+    }
+
+    int getId() {
+        return mId;
+    }
+
+    /**
+     * @return Milliseconds since the job was created
+     */
+    long getElapsed() {
+        return System.currentTimeMillis() - mStartedAt;
+    }
+
+    synchronized List<String> getSucceeded() {
+        return new ArrayList<>(mSucceeded);
+    }
+
+    synchronized List<String> getFailed() {
+        return new ArrayList<>(mFailed);
+    }
+
+    /**
+     * Start the first devices
+     */
+    void start() {
+        advance();
+    }
+
+    /**
+     * Start no further devices. Devices in progress finish normally.
+     */
+    void cancel() {
+        List<String> skipped;
+
+        synchronized (this) {
+            mCancelled = true;
+            skipped = new ArrayList<>(mPairQueue);
+            mPairQueue.clear();
+        }
+
+        for (String id : skipped) {
+            finish(id, STAGE_PAIRING, new IOException("Provisioning was cancelled"));
+        }
+
+        advance(); // Reports the end if nothing is in progress
+    }
+
+    /**
+     * @param id       Device address
+     * @param bonded   Whether the device is bonded now
+     * @param rejected Whether bonding ended without a bond
+     */
+    void onBondStateChanged(String id, boolean bonded, boolean rejected) {
+        if ((!bonded && !rejected) || !pairingDone(id)) {
+            return;
+        }
+
+        if (bonded) {
+            connect(id);
+        } else {
+            finish(id, STAGE_PAIRING, new IOException("Pairing was rejected"));
+        }
+    }
+
+    /**
+     * @param id Device address that connected
+     */
+    void onConnected(String id) {
+        finish(id, STAGE_CONNECTING, null);
+    }
+
+    /**
+     * @param id    Device address that failed to connect
+     * @param error Cause
+     */
+    void onConnectFailed(String id, Exception error) {
+        finish(id, STAGE_CONNECTING, error);
+    }
+
+    /**
+     * Start devices until the concurrency limit is reached, or report the
+     * end of the job
+     */
+    private void advance() {
+        List<String> started = new ArrayList<>();
+        boolean finished = false;
+
+        synchronized (this) {
+            while (!mCancelled && mActive.size() < mConcurrency && mNext < mIds.size()) {
+                String id = mIds.get(mNext++);
+                mActive.put(id, STAGE_PAIRING);
+                started.add(id);
+            }
+
+            if (mActive.isEmpty() && (mCancelled || mNext >= mIds.size()) && !mFinished) {
+                mFinished = true;
+                finished = true;
+            }
+        }
+
+        for (String id : started) {
+            boolean bonded;
+
+            try {
+                bonded = mHost.isBonded(id);
+            } catch (Exception e) {
+                finish(id, STAGE_PAIRING, e);
+                continue;
+            }
+
+            if (bonded) {
+                connect(id);
+            } else {
+                queuePairing(id);
+            }
+        }
+
+        if (finished) {
+            mHost.onFinished(this);
+        }
+    }
+
+    private void queuePairing(String id) {
+        synchronized (this) {
+            mPairQueue.add(id);
+        }
+
+        pairNext();
+    }
+
+    private void pairNext() {
+        final String id;
+
+        synchronized (this) {
+            if (mPairing != null || mPairQueue.isEmpty()) {
+                return;
+            }
+
+            id = mPairQueue.poll();
+            mPairing = id;
+
+            try {
+                mPairTimeout = mExecutors.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pairingDone(id)) {
+                            finish(id, STAGE_PAIRING, new TimeoutException("Pairing timed out after " + mPairTimeoutMs + " ms"));
+                        }
+                    }
+                }, mPairTimeoutMs);
+            } catch (Exception e) {
+                mPairTimeout = null; // Pair without a deadline
+            }
+        }
+
+        mHost.onProgress(this, id, STAGE_PAIRING);
+
+        try {
+            mHost.createBond(id);
+        } catch (Exception e) {
+            if (pairingDone(id)) {
+                finish(id, STAGE_PAIRING, e);
+            }
+        }
+    }
+
+    /**
+     * Free the pairing slot for the next device
+     *
+     * @param id Device address whose pairing ended
+     * @return False if the pairing of the device had already ended
+     */
+    private boolean pairingDone(String id) {
+        synchronized (this) {
+            if (!id.equals(mPairing)) {
+                return false;
+            }
+
+            mPairing = null;
+
+            if (mPairTimeout != null) {
+                mPairTimeout.cancel(false);
+                mPairTimeout = null;
+            }
+        }
+
+        pairNext();
+        return true;
+    }
+
+    private void connect(String id) {
+        synchronized (this) {
+            if (!STAGE_PAIRING.equals(mActive.get(id))) {
+                return;
+            }
+
+            mActive.put(id, STAGE_CONNECTING);
+        }
+
+        if (mHost.isConnected(id)) {
+            finish(id, STAGE_CONNECTING, null); // e.g. a batch that is run again
+            return;
+        }
+
+        mHost.onProgress(this, id, STAGE_CONNECTING);
+        mHost.connect(id, mConnectTimeoutMs);
+    }
+
+    /**
+     * @param id    Device address
+     * @param stage Stage the device must be in, stale outcomes are ignored
+     * @param error Cause of the failure, or null on success
+     */
+    private void finish(String id, String stage, @Nullable Exception error) {
+        synchronized (this) {
+            if (!stage.equals(mActive.get(id))) {
+                return;
+            }
+
+            mActive.remove(id);
+            (error == null ? mSucceeded : mFailed).add(id);
+        }
+
+        mHost.onResult(this, id, error);
+        advance();
+    }
+}
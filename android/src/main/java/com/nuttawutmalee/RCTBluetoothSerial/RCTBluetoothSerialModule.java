@@ -4,13 +4,22 @@ import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays; // to compare arrays
 import java.util.ArrayList; // to use ArrayList
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -27,6 +36,8 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.Promise;
@@ -50,36 +61,55 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
     private static final String CONN_SUCCESS = "connectionSuccess";
     private static final String CONN_FAILED = "connectionFailed";
     private static final String CONN_LOST = "connectionLost";
+    private static final String RECONNECTING = "reconnecting";
+    private static final String PROVISIONING_PROGRESS = "provisioningProgress";
+    private static final String PROVISIONING_RESULT = "provisioningResult";
+    private static final String PROVISIONING_FINISHED = "provisioningFinished";
+    private static final String STATISTICS = "statistics";
     private static final String DEVICE_READ = "read";
     private static final String DATA_READ = "data";
     private static final String ERROR = "error";
     private static final String DEVICE_FOUND = "newDevice";
+    private static final String DATA_DROPPED = "dataDropped";
 
     // Other stuff
     private static final int REQUEST_ENABLE_BLUETOOTH = 1;
     private static final int REQUEST_PAIR_DEVICE = 2;
     private static final String FIRST_DEVICE = "firstDevice";
+    private static final long DROP_EVENT_INTERVAL_MS = 1000;
 
     // Members
     private BluetoothAdapter mBluetoothAdapter;
     private RCTBluetoothSerialService mBluetoothService;
     private ReactApplicationContext mReactContext;
+    private ErrorAggregator mErrors;
+    private volatile boolean mIncludeStackTraces = false;
 
     // Promises
     private Promise mEnabledPromise;
-    private Promise mDeviceDiscoveryPromise;
     private Promise mPairDevicePromise;
-    private HashMap<String, Promise> mConnectedPromises;
+    private HashMap<String, List<Promise>> mConnectedPromises; // guarded by itself
 
-    /**
-     *
-     */
-    private HashMap<String, byte[]> mBuffers;
-    /**
-     *
-     */
+    private final WriteBufferPool mWriteBufferPool = new WriteBufferPool();
+
+    private ScheduledExecutorService mFlushScheduler;
+    private ScheduledFuture<?> mStatisticsTask; // guarded by this
+
+    private final ConcurrentHashMap<Integer, ProvisioningJob> mProvisioningJobs = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextProvisioningJob = new AtomicInteger(1);
+    private BroadcastReceiver mProvisioningBondReceiver; // guarded by mProvisioningJobs
 
-    private HashMap<String, Byte> mDelimiters;
+    private final DeviceMetadataCache mMetadata = new DeviceMetadataCache();
+    private final DiscoveryCache mDiscoveryCache = new DiscoveryCache(DiscoveryCache.DEFAULT_TTL_MS);
+    private final List<Promise> mDiscoveryPromises = new ArrayList<>(); // guarded by itself
+    private BroadcastReceiver mDiscoveryReceiver; // guarded by mDiscoveryPromises, null while no scan runs
+
+    private final ReadEventBatcher.Listener mFlushListener = new ReadEventBatcher.Listener() {
+        @Override
+        public boolean onFlush(String id, boolean threshold) {
+            return flushRead(id, threshold);
+        }
+    };
 
     public RCTBluetoothSerialModule(ReactApplicationContext reactContext) {
         super(reactContext);
@@ -93,19 +123,27 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
         }
 
         if (mBluetoothService == null) {
-            mBluetoothService = new RCTBluetoothSerialService(this);
-        }
-
-        if (mConnectedPromises == null) {
-            mConnectedPromises = new HashMap<>();
+            mBluetoothService = new RCTBluetoothSerialService(this, reactContext);
+            mBluetoothService.getBufferLimits().setEvictionListener(new BufferLimits.EvictionListener() {
+                @Override
+                public void onEvicted(BufferLimits.Holder holder, int bytes) {
+                    onDropped((DeviceSession) holder, bytes); // Made room for another device
+                }
+            });
         }
 
-        if (mBuffers == null) {
-            mBuffers = new HashMap<>();
+        if (mErrors == null) {
+            mErrors = new ErrorAggregator(ErrorAggregator.DEFAULT_WINDOW_MS, mBluetoothService.getExecutors(),
+                    new ErrorAggregator.Listener() {
+                        @Override
+                        public void onReport(ErrorAggregator.Report report) {
+                            sendErrorReport(report);
+                        }
+                    });
         }
 
-        if (mDelimiters == null) {
-            mDelimiters = new HashMap<>();
+        if (mConnectedPromises == null) {
+            mConnectedPromises = new HashMap<>();
         }
 
         if (mBluetoothAdapter != null && mBluetoothAdapter.isEnabled()) {
@@ -117,6 +155,7 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
         mReactContext.addActivityEventListener(this);
         mReactContext.addLifecycleEventListener(this);
         registerBluetoothStateReceiver();
+        registerDeviceMetadataReceiver();
     }
 
     @Override
@@ -214,7 +253,22 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
     public void onCatalystInstanceDestroy() {
         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Catalyst instance destroyed");
         super.onCatalystInstanceDestroy();
-        mBluetoothService.stopAll();
+        mBluetoothService.stopAll(); // Also cancels push mode of every session
+
+        for (ProvisioningJob job : mProvisioningJobs.values()) {
+            job.cancel();
+        }
+
+        synchronized (this) {
+            mStatisticsTask = null; // Ends with the scheduler
+        }
+
+        finishDiscovery(new Exception("Bluetooth module was destroyed"));
+
+        if (mFlushScheduler != null) {
+            mFlushScheduler.shutdownNow();
+            mFlushScheduler = null;
+        }
     }
 
     @ReactMethod
@@ -302,11 +356,9 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
 
         if (mBluetoothAdapter != null) {
             WritableArray deviceList = Arguments.createArray();
-            Set<BluetoothDevice> bondedDevices = mBluetoothAdapter.getBondedDevices();
 
-            for (BluetoothDevice rawDevice : bondedDevices) {
-                WritableMap device = deviceToWritableMap(rawDevice);
-                deviceList.pushMap(device);
+            for (DeviceMetadataCache.Entry entry : mMetadata.getBonded(mBluetoothAdapter)) {
+                deviceList.pushMap(metadataToWritableMap(entry));
             }
 
             promise.resolve(deviceList);
@@ -315,17 +367,76 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
         }
     }
 
+    /**
+     * Discover devices. A call while a scan runs joins it instead of
+     * starting over. Devices seen within the cache TTL are emitted as
+     * "newDevice" events right away, then each device the scan finds,
+     * once per scan unless its name or class becomes known later.
+     *
+     * @param options Optional { maxAge }: resolve from the cache without
+     *                scanning if the last scan finished at most this many
+     *                milliseconds ago
+     * @param promise Resolved with the devices seen within the cache TTL
+     *                once the scan finished
+     */
     @ReactMethod
-    public void listUnpaired(Promise promise) {
+    public void listUnpaired(@Nullable ReadableMap options, Promise promise) {
         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Discover unpaired called");
 
-        if (mBluetoothAdapter != null) {
-            mDeviceDiscoveryPromise = promise;
-            registerBluetoothDeviceDiscoveryReceiver();
-            mBluetoothAdapter.startDiscovery();
-        } else {
+        if (mBluetoothAdapter == null) {
             rejectNullBluetoothAdapter(promise);
+            return;
         }
+
+        long maxAge = 0;
+        if (options != null && options.hasKey("maxAge") && !options.isNull("maxAge")) {
+            maxAge = (long) options.getDouble("maxAge");
+        }
+
+        if (maxAge > 0 && mDiscoveryCache.getLastScanAge() <= maxAge) {
+            promise.resolve(discoveredDevicesToWritableArray(mDiscoveryCache.getFresh()));
+            return;
+        }
+
+        synchronized (mDiscoveryPromises) {
+            mDiscoveryPromises.add(promise);
+
+            if (mDiscoveryReceiver != null) {
+                if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Join discovery in progress");
+                return;
+            }
+
+            mDiscoveryCache.startScan();
+            mDiscoveryReceiver = registerBluetoothDeviceDiscoveryReceiver();
+        }
+
+        // Known devices first, so they can be shown before the inquiry finds them
+        for (DiscoveryCache.Entry entry : mDiscoveryCache.getFresh()) {
+            sendEvent(DEVICE_FOUND, discoveredDeviceToWritableMap(entry, true));
+        }
+
+        if (!mBluetoothAdapter.startDiscovery()) {
+            finishDiscovery(new Exception("Unable to start discovery"));
+        }
+    }
+
+    /**
+     * @param promise Resolved with the devices seen within the cache TTL,
+     *                without scanning
+     */
+    @ReactMethod
+    public void getDiscoveredDevices(Promise promise) {
+        promise.resolve(discoveredDevicesToWritableArray(mDiscoveryCache.getFresh()));
+    }
+
+    /**
+     * @param ttlMs   How long a discovered device is kept after it was last seen
+     * @param promise Resolved with the TTL
+     */
+    @ReactMethod
+    public void setDiscoveryCacheTtl(double ttlMs, Promise promise) {
+        mDiscoveryCache.setTtl((long) ttlMs);
+        promise.resolve((double) mDiscoveryCache.getTtl());
     }
 
     @ReactMethod
@@ -378,18 +489,32 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
         }
     }
 
+    /**
+     * Connect to a device. A connect while another one to the same device is
+     * in progress waits for that attempt instead of starting a new one.
+     *
+     * @param id      Device address
+     * @param options Optional { timeout } in milliseconds, after which the
+     *                attempt is cancelled and the promise rejected
+     * @param promise Resolved with the device and its handle
+     */
     @ReactMethod
-    public void connect(String id, Promise promise) {
+    public void connect(String id, @Nullable ReadableMap options, Promise promise) {
         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "connect " + id);
 
+        long timeoutMs = 0;
+        if (options != null && options.hasKey("timeout") && !options.isNull("timeout")) {
+            timeoutMs = Math.max(0, (long) options.getDouble("timeout"));
+        }
+
         if (mBluetoothAdapter != null) {
             BluetoothDevice rawDevice = mBluetoothAdapter.getRemoteDevice(id);
 
             if (rawDevice != null) {
-                mConnectedPromises.put(id, promise);
-                mBluetoothService.connect(rawDevice);
+                addConnectPromise(id, promise);
+                mBluetoothService.connect(rawDevice, timeoutMs);
             } else {
-                mConnectedPromises.put(FIRST_DEVICE, promise);
+                addConnectPromise(FIRST_DEVICE, promise);
                 registerFirstAvailableBluetoothDeviceDiscoveryReceiver();
             }
         } else {
@@ -399,14 +524,19 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
 
     @ReactMethod
     public void disconnect(@Nullable String id, Promise promise) {
-        if (id == null) {
-            id = mBluetoothService.getFirstDeviceAddress();
-        }
-
         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Disconnect from device id " + id);
 
-        if (id != null) {
-            mBluetoothService.stop(id);
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getSession(id);
+        } catch (Exception e) {
+            promise.resolve(true); // A stale handle is disconnected already
+            return;
+        }
+
+        if (session != null) {
+            mBluetoothService.release(session);
         }
 
         promise.resolve(true);
@@ -421,270 +551,948 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
     @ReactMethod
     public void isConnected(@Nullable String id, Promise promise) {
 
-        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "*** isConnected ***");
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "*** isConnected *** " + id);
+
+        DeviceSession session;
 
-        if (id == null) {
-            id = mBluetoothService.getFirstDeviceAddress();
-            if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "*** isConnected *** id was null, now is: " + id);
+        try {
+            session = mBluetoothService.getSession(id);
+        } catch (Exception e) {
+            promise.resolve(false); // A stale handle is never connected
+            return;
         }
 
-        if (id == null) {
-            if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "*** isConnected *** id is again null, no connected device");
-            promise.resolve(false);
-        } else {
-            if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "*** isConnected *** resolving connection status for: " + id);
-            promise.resolve(mBluetoothService.isConnected(id));
+        promise.resolve(session != null && session.isConnected());
+    }
+
+    @ReactMethod
+    public void writeToDevice(String message, @Nullable String id, final Promise promise) {
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Write to device id " + id + " : " + message);
+
+        DeviceSession session = getWriteSession(id, promise);
+
+        if (session == null) {
+            return;
+        }
+
+        try {
+            byte[] data = message.getBytes(StandardCharsets.UTF_8);
+            mBluetoothService.write(session, data, 0, data.length, promiseWriteCallback(promise));
+        } catch (Exception e) {
+            Log.e(TAG, "Error on writeToDevice " + id, e);
+            promise.reject(e);
+            onError(e, id, "RCTBluetoothSerialModule.writeToDevice.catch");
         }
     }
 
     @ReactMethod
-    public void writeToDevice(String message, @Nullable String id, Promise promise) {
-        if (id == null) {
-            id = mBluetoothService.getFirstDeviceAddress();
+    public void writeBase64ToDevice(String data, @Nullable String id, Promise promise) {
+        DeviceSession session = getWriteSession(id, promise);
+
+        if (session == null) {
+            return;
         }
 
-        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Write to device id " + id + " : " + message);
+        byte[] buffer = mWriteBufferPool.acquire(ByteEncoding.maxBase64DecodedLength(data));
+        int length;
+
+        try {
+            length = ByteEncoding.decodeBase64(data, buffer, 0);
+        } catch (Exception e) {
+            mWriteBufferPool.release(buffer);
+            promise.reject(e);
+            return;
+        }
+
+        writePooledBuffer(session, buffer, length, promiseWriteCallback(promise));
+    }
+
+    @ReactMethod
+    public void writeBytesToDevice(ReadableArray data, @Nullable String id, Promise promise) {
+        DeviceSession session = getWriteSession(id, promise);
+
+        if (session == null) {
+            return;
+        }
+
+        byte[] buffer = mWriteBufferPool.acquire(data.size());
+        int length;
+
+        try {
+            length = readableArrayToBytes(data, buffer);
+        } catch (Exception e) {
+            mWriteBufferPool.release(buffer);
+            promise.reject(e);
+            return;
+        }
+
+        writePooledBuffer(session, buffer, length, promiseWriteCallback(promise));
+    }
+
+    @ReactMethod
+    public void writeBatchToDevice(ReadableArray frames, @Nullable String id, final Promise promise) {
+        DeviceSession session = getWriteSession(id, promise);
+
+        if (session == null) {
+            return;
+        }
+
+        final int count = frames.size();
+
+        if (count == 0) {
+            promise.resolve(0);
+            return;
+        }
+
+        // Resolve with the number of frames once all of them are flushed, reject on the first failure
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final AtomicBoolean settled = new AtomicBoolean(false);
+        ConnectionWriter.Callback callback = new ConnectionWriter.Callback() {
+            @Override
+            public void onWritten() {
+                if (remaining.decrementAndGet() == 0 && settled.compareAndSet(false, true)) {
+                    promise.resolve(count);
+                }
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                if (settled.compareAndSet(false, true)) {
+                    promise.reject(e);
+                }
+            }
+        };
+
+        // Decode the whole batch first, so an invalid frame sends nothing
+        byte[][] buffers = new byte[count][];
+        int[] lengths = new int[count];
 
-        if (id != null) {
+        for (int index = 0; index < count; index++) {
             try {
-                byte[] data = message.getBytes(); // Base64.decode(message, Base64.DEFAULT);
-                Log.i(TAG, Arrays.toString(data));
-                mBluetoothService.write(id, data);
+                if (frames.getType(index) == ReadableType.String) {
+                    String frame = frames.getString(index);
+                    buffers[index] = mWriteBufferPool.acquire(ByteEncoding.maxBase64DecodedLength(frame));
+                    lengths[index] = ByteEncoding.decodeBase64(frame, buffers[index], 0);
+                } else {
+                    ReadableArray frame = frames.getArray(index);
+                    buffers[index] = mWriteBufferPool.acquire(frame.size());
+                    lengths[index] = readableArrayToBytes(frame, buffers[index]);
+                }
             } catch (Exception e) {
-                Log.e(TAG, "Error on writeToDevice " + id, e);
-                onError(e, id, "RCTBluetoothSerialModule.writeToDevice.catch");
+                for (int i = 0; i <= index; i++) {
+                    if (buffers[i] != null) {
+                        mWriteBufferPool.release(buffers[i]);
+                    }
+                }
+
+                callback.onFailed(new IllegalArgumentException("Invalid frame at index " + index + ": " + e.getMessage()));
+                return;
             }
         }
 
-        promise.resolve(true);
+        for (int index = 0; index < count; index++) {
+            writePooledBuffer(session, buffers[index], lengths[index], callback);
+        }
     }
 
     @ReactMethod
-    public void readFromDevice(@Nullable String id, Promise promise) {
-        if (id == null) {
-            id = mBluetoothService.getFirstDeviceAddress();
-        }
+    public void readFromDevice(@Nullable String id, @Nullable String encoding, Promise promise) {
         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Read from device id " + id);
-            /**
-             *
-             */
+
+        DeviceSession session;
+        int resolvedEncoding;
+
+        try {
+            session = mBluetoothService.getSession(id);
+            resolvedEncoding = resolveEncoding(session, encoding);
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+        /**
+         *
+         */
         byte[] data = new byte[0];
         /**
          *
          */
-        if (mBuffers.containsKey(id)) {
-            byte[]  buffer = mBuffers.get(id);
-            data = buffer.clone();
-            mBuffers.put(id, new byte[0]);
-        }
-
-        WritableArray completeDataWritableArray = Arguments.createArray();
-        for (int index = 0; index < data.length; index++) {
-            completeDataWritableArray.pushInt(data[index]&0xFF);
+        if (session != null) {
+            data = session.getBuffer().readAll();
+            if (data.length > 0) {
+                session.getStats().onDelivered();
+            }
         }
 
-//        WritableMap readParams = Arguments.createMap();
-//        readParams.putString("id", id);
-//        readParams.putArray("data", completeDataWritableArray);
-
-        promise.resolve(completeDataWritableArray);
+        promise.resolve(encodeBytes(data, resolvedEncoding));
     }
 
     @ReactMethod
     public void readUntilDelimiter(String delimiter, @Nullable String id, Promise promise) {
-        if (id == null) {
-            id = mBluetoothService.getFirstDeviceAddress();
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getSession(id); // A device without a session has nothing to read
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+
+        if (delimiter != null && session != null) {
+            setDelimiter(session, delimiter);
         }
 
-        promise.resolve( new String(readUntil(id)) );
+        promise.resolve(new String(readUntil(session)));
     }
 
     @ReactMethod
     public void withDelimiter(String delimiter, @Nullable String id, Promise promise) {
-        if (id == null) {
-            id = mBluetoothService.getFirstDeviceAddress();
-        }
-
         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Set delimiter of device id " + id + " to " + delimiter);
 
-        if (id != null) {
-            mDelimiters.put(id, (byte) delimiter.charAt(0));
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getOrCreateSession(id);
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+
+        if (session != null) {
+            setDelimiter(session, delimiter);
         }
 
-        promise.resolve(id);
+        promise.resolve(session != null ? session.getId() : null);
     }
 
     @ReactMethod
-    public void clear(@Nullable String id, Promise promise) {
-        if (id == null) {
-            id = mBluetoothService.getFirstDeviceAddress();
+    public void readFrame(@Nullable String id, @Nullable String encoding, Promise promise) {
+        DeviceSession session;
+        int resolvedEncoding;
+
+        try {
+            session = mBluetoothService.getSession(id);
+            resolvedEncoding = resolveEncoding(session, encoding);
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
         }
 
-        if (mBuffers.containsKey(id)) {
-           byte[] buffer = new byte[0];
-            mBuffers.put(id, buffer);
+        byte[] frame = session != null ? session.getBuffer().readFrame() : null;
+
+        if (frame == null) {
+            promise.resolve(null);
+            return;
         }
 
-        promise.resolve(true);
+        session.getStats().onDelivered();
+        promise.resolve(encodeBytes(frame, resolvedEncoding));
     }
 
     @ReactMethod
-    public void available(@Nullable String id, Promise promise) {
-        if (id == null) {
-            id = mBluetoothService.getFirstDeviceAddress();
+    public void setFrameDecoder(@Nullable ReadableMap config, @Nullable String id, Promise promise) {
+        DeviceSession session = getSettingsSession(id, "No device to set frame decoder", promise);
+
+        if (session == null) {
+            return;
         }
 
-        int length = 0;
-        if (mBuffers.containsKey(id)) {
-          byte[] buffer = mBuffers.get(id);
-          length = buffer.length ; // ADD
+        FrameDecoder decoder;
+
+        try {
+            decoder = createFrameDecoder(config);
+        } catch (Exception e) {
+            Log.e(TAG, "Invalid frame decoder config for " + session.getId(), e);
+            promise.reject(e);
+            return;
         }
-        promise.resolve(length);
+
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Set frame decoder of device id " + session.getId() + " to " + decoder);
+
+        session.setDecoder(decoder);
+
+        // Bytes buffered under the previous framing cannot be split into the new frames
+        session.getBuffer().clear();
+
+        promise.resolve(session.getId());
     }
 
     @ReactMethod
-    public void setAdapterName(String newName, Promise promise) {
-        if (mBluetoothAdapter != null) {
-            mBluetoothAdapter.setName(newName);
-            promise.resolve(mBluetoothAdapter.getName());
-        } else {
-            rejectNullBluetoothAdapter(promise);
+    public void setReadEncoding(String encoding, @Nullable String id, Promise promise) {
+        DeviceSession session = getSettingsSession(id, "No device to set read encoding", promise);
+
+        if (session == null) {
+            return;
         }
-    }
 
-    @ReactMethod
-    public void setServices(ReadableArray services, Boolean includeDefaultServices, Promise promise) {
-        WritableArray updated = Arguments.createArray();
-        promise.resolve(updated);
-    }
+        try {
+            session.setEncoding(ByteEncoding.fromName(encoding));
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
 
-    @ReactMethod
-    public void getServices(Promise promise) {
-        WritableArray services = Arguments.createArray();
-        promise.resolve(services);
-    }
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Set read encoding of device id " + session.getId() + " to " + encoding);
 
-    @ReactMethod
-    public void restoreServices(Promise promise) {
-        WritableArray services = Arguments.createArray();
-        promise.resolve(services);
+        promise.resolve(session.getId());
     }
 
-    /**
-     * Handle connection success
-     *
-     * @param msg             Additional message
-     * @param connectedDevice Connected device
-     */
-    void onConnectionSuccess(String msg, BluetoothDevice connectedDevice) {
-        String id = connectedDevice.getAddress();
+    @ReactMethod
+    public void enablePushMode(@Nullable ReadableMap options, @Nullable String id, Promise promise) {
+        DeviceSession session = getSettingsSession(id, "No device to enable push mode", promise);
 
-        if (!mDelimiters.containsKey(id)) {
-            mDelimiters.put(id, (byte) 0);
+        if (session == null) {
+            return;
         }
 
-        if (!mBuffers.containsKey(id)) {
-          byte[] buffer = new byte[0]; // ADD
-            mBuffers.put(id, buffer );
+        int maxBytes = ReadEventBatcher.DEFAULT_MAX_BYTES;
+        int maxFrames = ReadEventBatcher.DEFAULT_MAX_FRAMES;
+        long maxLatency = ReadEventBatcher.DEFAULT_MAX_LATENCY_MS;
+
+        if (options != null) {
+            if (options.hasKey("maxBytes")) maxBytes = options.getInt("maxBytes");
+            if (options.hasKey("maxFrames")) maxFrames = options.getInt("maxFrames");
+            if (options.hasKey("maxLatency")) maxLatency = (long) options.getDouble("maxLatency");
         }
 
-        if (mConnectedPromises.containsKey(id)) {
-            Promise promise = mConnectedPromises.get(id);
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Enable push mode of device id " + session.getId() + ", maxBytes " + maxBytes + ", maxFrames " + maxFrames + ", maxLatency " + maxLatency);
 
-            if (promise != null) {
-                WritableMap deviceForPromise = deviceToWritableMap(connectedDevice);
-                promise.resolve(deviceForPromise);
-            }
+        ReadEventBatcher batcher = new ReadEventBatcher(session.getId(), maxBytes, maxFrames, maxLatency, getFlushScheduler(), mFlushListener);
+        ReadEventBatcher previous = session.swapBatcher(batcher);
+
+        if (previous != null) {
+            previous.cancel();
         }
 
-        WritableMap device = deviceToWritableMap(connectedDevice);
-        WritableMap params = Arguments.createMap();
-        params.putMap("device", device);
-        params.putString("message", msg);
-        sendEvent(CONN_SUCCESS, params);
+        // Anything already buffered is flushed under the new settings
+        DeviceBuffer buffer = session.getBuffer();
+        batcher.onData(buffer.available(), buffer.frameCount());
+
+        promise.resolve(session.getId());
     }
 
     /**
-     * handle connection failure
+     * Reconnect a device automatically after its connection was lost. The
+     * session, its handle, buffer and settings are kept while reconnecting.
      *
-     * @param msg             Additional message
-     * @param connectedDevice Connected device
+     * @param options Optional { initialDelay, maxDelay, multiplier, jitter,
+     *                maxAttempts, timeout }, null to stop reconnecting
+     * @param id      Device id or handle
+     * @param promise Resolved with the device id
      */
-    void onConnectionFailed(String msg, BluetoothDevice connectedDevice) {
-        WritableMap params = Arguments.createMap();
-        WritableMap device = deviceToWritableMap(connectedDevice);
+    @ReactMethod
+    public void setReconnectPolicy(@Nullable ReadableMap options, @Nullable String id, Promise promise) {
+        DeviceSession session = getSettingsSession(id, "No device to set reconnect policy", promise);
 
-        params.putMap("device", device);
-        params.putString("message", msg);
+        if (session == null) {
+            return;
+        }
 
-        String id = connectedDevice.getAddress();
+        ReconnectPolicy policy = null;
 
-        if (mConnectedPromises.containsKey(id)) {
-            try {
-                Promise promise = mConnectedPromises.get(id);
-                if (promise != null) {
-                    promise.reject(new Exception(msg));
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error on promise " + id, e);
-                onError(e, id, "RCTBluetoothSerialModule.onConnectionFailed.catch.01");
-            }
-        }
+        if (options != null) {
+            long initialDelay = ReconnectPolicy.DEFAULT_INITIAL_DELAY_MS;
+            long maxDelay = ReconnectPolicy.DEFAULT_MAX_DELAY_MS;
+            double multiplier = ReconnectPolicy.DEFAULT_MULTIPLIER;
+            double jitter = ReconnectPolicy.DEFAULT_JITTER;
+            int maxAttempts = ReconnectPolicy.DEFAULT_MAX_ATTEMPTS;
+            long timeout = 0;
 
-        try {
-            sendEvent(CONN_FAILED, params);
-        } catch (Exception e) {
-            Log.e(TAG, "Error on sendEvent(CONN_FAILED, params) " + id, e);
-            onError(e, id, "RCTBluetoothSerialModule.onConnectionFailed.catch.02");
+            if (options.hasKey("initialDelay")) initialDelay = (long) options.getDouble("initialDelay");
+            if (options.hasKey("maxDelay")) maxDelay = (long) options.getDouble("maxDelay");
+            if (options.hasKey("multiplier")) multiplier = options.getDouble("multiplier");
+            if (options.hasKey("jitter")) jitter = options.getDouble("jitter");
+            if (options.hasKey("maxAttempts")) maxAttempts = options.getInt("maxAttempts");
+            if (options.hasKey("timeout")) timeout = (long) options.getDouble("timeout");
+
+            policy = new ReconnectPolicy(initialDelay, maxDelay, multiplier, jitter, maxAttempts, timeout);
         }
 
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Set reconnect policy of device id " + session.getId() + (policy == null ? " off" : " on"));
+
+        mBluetoothService.setReconnectPolicy(session, policy);
+        promise.resolve(session.getId());
     }
 
     /**
-     * Handle lost connection
+     * Limit the data buffered for one device
      *
-     * @param msg             Message
-     * @param connectedDevice Connected device
+     * @param options { maxBytes, policy: "dropOldest" | "dropNewest" | "pause" },
+     *                null to remove the limit
+     * @param id      Device id or handle
+     * @param promise Resolved with the device id
      */
-    void onConnectionLost(String msg, BluetoothDevice connectedDevice) {
-        WritableMap params = Arguments.createMap();
-        WritableMap device = deviceToWritableMap(connectedDevice);
+    @ReactMethod
+    public void setBufferLimit(@Nullable ReadableMap options, @Nullable String id, Promise promise) {
+        BufferLimits.Limit limit;
 
-        params.putMap("device", device);
-        params.putString("message", msg);
-        mConnectedPromises.remove(connectedDevice.getAddress());
+        try {
+            limit = limitFromReadableMap(options);
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
 
-        sendEvent(CONN_LOST, params);
+        DeviceSession session = getSettingsSession(id, "No device to set buffer limit", promise);
+
+        if (session == null) {
+            return;
+        }
+
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Set buffer limit of device id " + session.getId() + " to " + limit.capacity);
+
+        session.setBufferLimit(limit);
+        promise.resolve(session.getId());
     }
 
     /**
-     * Handle error
+     * Limit the data buffered for all devices together
      *
-     * @param e Exception
+     * @param options { maxBytes, policy: "dropOldest" | "dropNewest" | "pause" },
+     *                null to remove the limit
+     * @param promise Resolved with { maxBytes, policy, buffered }
      */
-    void onError(Exception e, String id, String tag) {
-        WritableMap params = Arguments.createMap();
-        params.putString("message", e.getMessage());
-        /**
-         *
-         */
-        StackTraceElement[] errorStackTraceArray = e.getStackTrace();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < errorStackTraceArray.length; i++) {
-            sb.append(errorStackTraceArray[i]);
-            sb.append(" --- ");
-        }
-        String joined = sb.toString();
-        String stackTrace = joined.substring(0, joined.length()-5);
-        params.putString("stackTrace", stackTrace);
-        /**
-         *
-         */
-        params.putString("tag", tag);
-        /**
-         *
-         */
-        params.putString("deviceId", id);
+    @ReactMethod
+    public void setTotalBufferLimit(@Nullable ReadableMap options, Promise promise) {
+        BufferLimits limits = mBluetoothService.getBufferLimits();
+
+        try {
+            limits.setTotal(limitFromReadableMap(options));
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+
+        BufferLimits.Limit total = limits.getTotal();
+        WritableMap params = Arguments.createMap();
+        params.putDouble("maxBytes", total.capacity);
+        params.putString("policy", BufferLimits.policyName(total.policy));
+        params.putDouble("buffered", limits.getUsed());
+        promise.resolve(params);
+    }
+
+    @ReactMethod
+    public void disablePushMode(@Nullable String id, Promise promise) {
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getSession(id);
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+
+        ReadEventBatcher batcher = session != null ? session.swapBatcher(null) : null;
+
+        if (batcher != null) {
+            batcher.cancel();
+        }
+
+        promise.resolve(true);
+    }
+
+    @ReactMethod
+    public void clear(@Nullable String id, Promise promise) {
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getSession(id);
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+
+        if (session != null) {
+            session.getBuffer().clear();
+        }
+
+        promise.resolve(true);
+    }
+
+    @ReactMethod
+    public void available(@Nullable String id, Promise promise) {
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getSession(id);
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+
+        int length = 0;
+        if (session != null) {
+            length = session.getBuffer().available();
+        }
+        promise.resolve(length);
+    }
+
+    @ReactMethod
+    public void setMaxConcurrentConnects(int maxConcurrentConnects, Promise promise) {
+        try {
+            mBluetoothService.getExecutors().setMaxConcurrentConnects(maxConcurrentConnects);
+            promise.resolve(maxConcurrentConnects);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Pair and connect a batch of devices. Progress and the outcome of each
+     * device are sent as events.
+     *
+     * @param ids     Device addresses
+     * @param options Optional { concurrency, pairTimeout, connectTimeout }
+     * @param promise Resolved with { job, succeeded, failed, elapsed } once
+     *                every device is done
+     */
+    @ReactMethod
+    public void provisionDevices(ReadableArray ids, @Nullable ReadableMap options, Promise promise) {
+        if (mBluetoothAdapter == null) {
+            rejectNullBluetoothAdapter(promise);
+            return;
+        }
+
+        int concurrency = ProvisioningJob.DEFAULT_CONCURRENCY;
+        long pairTimeout = ProvisioningJob.DEFAULT_PAIR_TIMEOUT_MS;
+        long connectTimeout = ProvisioningJob.DEFAULT_CONNECT_TIMEOUT_MS;
+
+        if (options != null) {
+            if (options.hasKey("concurrency")) concurrency = options.getInt("concurrency");
+            if (options.hasKey("pairTimeout")) pairTimeout = (long) options.getDouble("pairTimeout");
+            if (options.hasKey("connectTimeout")) connectTimeout = (long) options.getDouble("connectTimeout");
+        }
+
+        List<String> addresses = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.getString(i);
+
+            if (!BluetoothAdapter.checkBluetoothAddress(id)) {
+                promise.reject(new IllegalArgumentException("Invalid device address " + id));
+                return;
+            }
+
+            addresses.add(id);
+        }
+
+        ProvisioningJob job = new ProvisioningJob(mNextProvisioningJob.getAndIncrement(), addresses, concurrency,
+                pairTimeout, connectTimeout, mBluetoothService.getExecutors(), createProvisioningHost(promise));
+
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Provision " + addresses.size() + " devices, job " + job.getId() + ", concurrency " + concurrency);
+
+        synchronized (mProvisioningJobs) {
+            mProvisioningJobs.put(job.getId(), job);
+            registerProvisioningBondReceiver();
+        }
+
+        job.start();
+    }
+
+    /**
+     * Start no further devices of any provisioning job. Devices in progress
+     * finish normally.
+     *
+     * @param promise Resolved with the number of jobs cancelled
+     */
+    @ReactMethod
+    public void cancelProvisioning(Promise promise) {
+        int count = 0;
+
+        for (ProvisioningJob job : mProvisioningJobs.values()) {
+            job.cancel();
+            count++;
+        }
+
+        promise.resolve(count);
+    }
+
+    @ReactMethod
+    public void setReaderMode(String mode, @Nullable String id, Promise promise) {
+        if (!"blocking".equals(mode) && !"polling".equals(mode)) {
+            promise.reject(new IllegalArgumentException("Unknown reader mode " + mode));
+            return;
+        }
+
+        DeviceSession session = getSettingsSession(id, "No device to set reader mode", promise);
+
+        if (session == null) {
+            return;
+        }
+
+        if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Set reader mode of device id " + session.getId() + " to " + mode);
+
+        session.setPolling("polling".equals(mode));
+        promise.resolve(session.getId());
+    }
+
+    @ReactMethod
+    public void setPollingThreads(int pollingThreads, Promise promise) {
+        try {
+            mBluetoothService.getExecutors().setPollingThreads(pollingThreads);
+            promise.resolve(pollingThreads);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    @ReactMethod
+    public void getExecutorStatistics(Promise promise) {
+        SerialExecutors executors = mBluetoothService.getExecutors();
+
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("maxConcurrentConnects", executors.getMaxConcurrentConnects());
+        stats.putInt("pollingThreads", executors.getPollingThreads());
+        stats.putMap("connect", poolStatsToWritableMap(executors.getConnectStats()));
+        stats.putMap("io", poolStatsToWritableMap(executors.getIoStats()));
+        stats.putMap("polling", poolStatsToWritableMap(executors.getPollingStats()));
+
+        promise.resolve(stats);
+    }
+
+    /**
+     * Traffic, latency and connect statistics of a device since its last
+     * explicit connect
+     *
+     * @param id      Device id or handle
+     * @param promise Resolved with the statistics, or null if there is no device
+     */
+    @ReactMethod
+    public void getStatistics(@Nullable String id, Promise promise) {
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getSession(id);
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+
+        promise.resolve(session != null ? statisticsToWritableMap(session) : null);
+    }
+
+    /**
+     * Emit the statistics of all devices as a periodic event
+     *
+     * @param intervalMs Interval in milliseconds, 0 to stop
+     * @param promise    Resolved with the interval
+     */
+    @ReactMethod
+    public void setStatisticsInterval(int intervalMs, Promise promise) {
+        ScheduledExecutorService scheduler = getFlushScheduler();
+
+        synchronized (this) {
+            if (mStatisticsTask != null) {
+                mStatisticsTask.cancel(false);
+                mStatisticsTask = null;
+            }
+
+            if (intervalMs > 0) {
+                mStatisticsTask = scheduler.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendStatistics();
+                    }
+                }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        promise.resolve(Math.max(0, intervalMs));
+    }
+
+    private void sendStatistics() {
+        WritableArray devices = Arguments.createArray();
+
+        for (DeviceSession session : mBluetoothService.getSessions()) {
+            devices.pushMap(statisticsToWritableMap(session));
+        }
+
+        WritableMap params = Arguments.createMap();
+        params.putArray("devices", devices);
+
+        try {
+            sendEvent(STATISTICS, params);
+        } catch (Exception e) {
+            Log.e(TAG, "Cannot sendEvent STATISTICS", e);
+        }
+    }
+
+    /**
+     * Change how errors are reported
+     *
+     * @param options { windowMs, includeStackTrace }, null leaves the
+     *                settings unchanged
+     * @param promise Resolved with the current settings
+     */
+    @ReactMethod
+    public void setErrorReporting(@Nullable ReadableMap options, Promise promise) {
+        if (options != null && options.hasKey("windowMs")) {
+            mErrors.setWindow((long) options.getDouble("windowMs"));
+        }
+
+        if (options != null && options.hasKey("includeStackTrace")) {
+            mIncludeStackTraces = options.getBoolean("includeStackTrace");
+        }
+
+        WritableMap settings = Arguments.createMap();
+        settings.putDouble("windowMs", mErrors.getWindow());
+        settings.putBoolean("includeStackTrace", mIncludeStackTraces);
+        promise.resolve(settings);
+    }
+
+    /**
+     * @param errorId Id from an error event
+     * @param promise Resolved with the stack trace of the event, or null if
+     *                it is no longer retained
+     */
+    @ReactMethod
+    public void getErrorStackTrace(int errorId, Promise promise) {
+        promise.resolve(mErrors.getStackTrace(errorId));
+    }
+
+    /**
+     * Change what the trace ring records
+     *
+     * @param options { level: "off" | "error" | "info" | "debug", sampleRate,
+     *                clear }, null leaves the settings unchanged
+     * @param promise Resolved with the current settings
+     */
+    @ReactMethod
+    public void setTracing(@Nullable ReadableMap options, Promise promise) {
+        Tracer tracer = mBluetoothService.getTracer();
+
+        try {
+            if (options != null && options.hasKey("level")) {
+                tracer.setLevel(Tracer.parseLevel(options.getString("level")));
+            }
+
+            if (options != null && options.hasKey("sampleRate")) {
+                tracer.setSampleRate(options.getInt("sampleRate"));
+            }
+
+            if (options != null && options.hasKey("clear") && options.getBoolean("clear")) {
+                tracer.clear();
+            }
+        } catch (Exception e) {
+            promise.reject(e);
+            return;
+        }
+
+        WritableMap settings = Arguments.createMap();
+        settings.putString("level", Tracer.levelName(tracer.getLevel()));
+        settings.putInt("sampleRate", tracer.getSampleRate());
+        settings.putInt("capacity", tracer.getCapacity());
+        promise.resolve(settings);
+    }
+
+    /**
+     * @param promise Resolved with the records in the trace ring, oldest first
+     */
+    @ReactMethod
+    public void dumpTrace(Promise promise) {
+        WritableArray records = Arguments.createArray();
+
+        for (Tracer.Record record : mBluetoothService.getTracer().dump()) {
+            WritableMap map = Arguments.createMap();
+            map.putDouble("time", record.time);
+            map.putString("id", record.device);
+            map.putString("kind", record.kind.name().toLowerCase());
+            map.putDouble("size", record.size);
+            map.putDouble("value", record.value);
+            records.pushMap(map);
+        }
+
+        promise.resolve(records);
+    }
+
+    @ReactMethod
+    public void setAdapterName(String newName, Promise promise) {
+        if (mBluetoothAdapter != null) {
+            mBluetoothAdapter.setName(newName);
+            promise.resolve(mBluetoothAdapter.getName());
+        } else {
+            rejectNullBluetoothAdapter(promise);
+        }
+    }
+
+    @ReactMethod
+    public void setServices(ReadableArray services, Boolean includeDefaultServices, Promise promise) {
+        WritableArray updated = Arguments.createArray();
+        promise.resolve(updated);
+    }
+
+    @ReactMethod
+    public void getServices(Promise promise) {
+        WritableArray services = Arguments.createArray();
+        promise.resolve(services);
+    }
+
+    @ReactMethod
+    public void restoreServices(Promise promise) {
+        WritableArray services = Arguments.createArray();
+        promise.resolve(services);
+    }
+
+    /**
+     * Handle connection success
+     *
+     * @param msg             Additional message
+     * @param connectedDevice Connected device
+     * @param session         Session of the device
+     */
+    void onConnectionSuccess(String msg, BluetoothDevice connectedDevice, DeviceSession session) {
+        String id = connectedDevice.getAddress();
+
+        for (Promise promise : takeConnectPromises(id)) {
+            WritableMap deviceForPromise = deviceToWritableMap(connectedDevice);
+            deviceForPromise.putInt("handle", session.getHandle());
+            promise.resolve(deviceForPromise);
+        }
+
+        for (ProvisioningJob job : mProvisioningJobs.values()) {
+            job.onConnected(id);
+        }
+
+        WritableMap device = deviceToWritableMap(connectedDevice);
+        device.putInt("handle", session.getHandle());
+        WritableMap params = Arguments.createMap();
+        params.putMap("device", device);
+        params.putString("message", msg);
+        sendEvent(CONN_SUCCESS, params);
+    }
+
+    /**
+     * handle connection failure
+     *
+     * @param error           Cause, a TimeoutException if the deadline expired
+     * @param connectedDevice Connected device
+     */
+    void onConnectionFailed(Exception error, BluetoothDevice connectedDevice) {
+        WritableMap params = Arguments.createMap();
+        WritableMap device = deviceToWritableMap(connectedDevice);
+
+        params.putMap("device", device);
+        params.putString("message", error.getMessage());
+
+        String id = connectedDevice.getAddress();
+
+        for (Promise promise : takeConnectPromises(id)) {
+            try {
+                promise.reject(error);
+            } catch (Exception e) {
+                Log.e(TAG, "Error on promise " + id, e);
+                onError(e, id, "RCTBluetoothSerialModule.onConnectionFailed.catch.01");
+            }
+        }
+
+        for (ProvisioningJob job : mProvisioningJobs.values()) {
+            job.onConnectFailed(id, error);
+        }
+
+        try {
+            sendEvent(CONN_FAILED, params);
+        } catch (Exception e) {
+            Log.e(TAG, "Error on sendEvent(CONN_FAILED, params) " + id, e);
+            onError(e, id, "RCTBluetoothSerialModule.onConnectionFailed.catch.02");
+        }
+
+    }
+
+    /**
+     * Handle lost connection
+     *
+     * @param msg             Message
+     * @param connectedDevice Connected device
+     */
+    void onConnectionLost(String msg, BluetoothDevice connectedDevice) {
+        WritableMap params = Arguments.createMap();
+        WritableMap device = deviceToWritableMap(connectedDevice);
+
+        params.putMap("device", device);
+        params.putString("message", msg);
+
+        sendEvent(CONN_LOST, params);
+    }
+
+    /**
+     * Handle a scheduled reconnect attempt
+     *
+     * @param lostDevice Device being reconnected
+     * @param session    Session of the device
+     * @param attempt    Attempt number within the outage, starting at 1
+     * @param delayMs    Milliseconds until the attempt starts
+     */
+    void onReconnecting(BluetoothDevice lostDevice, DeviceSession session, int attempt, long delayMs) {
+        WritableMap params = Arguments.createMap();
+        WritableMap device = deviceToWritableMap(lostDevice);
+        device.putInt("handle", session.getHandle());
+
+        params.putMap("device", device);
+        params.putInt("attempt", attempt);
+        params.putDouble("delay", delayMs);
+
+        sendEvent(RECONNECTING, params);
+    }
+
+    /**
+     * @param id      Device address, or FIRST_DEVICE
+     * @param promise Promise settled by the next outcome of connecting to the device
+     */
+    private void addConnectPromise(String id, Promise promise) {
+        synchronized (mConnectedPromises) {
+            List<Promise> promises = mConnectedPromises.get(id);
+
+            if (promises == null) {
+                promises = new ArrayList<>(1);
+                mConnectedPromises.put(id, promises);
+            }
+
+            promises.add(promise);
+        }
+    }
+
+    /**
+     * @param id Device address, or FIRST_DEVICE
+     * @return All promises waiting for the device, removed from the map
+     */
+    private List<Promise> takeConnectPromises(String id) {
+        synchronized (mConnectedPromises) {
+            List<Promise> promises = mConnectedPromises.remove(id);
+            return promises != null ? promises : Collections.<Promise>emptyList();
+        }
+    }
+
+    /**
+     * Handle error. Repeats of the same error are folded into one event by
+     * the {@link ErrorAggregator}.
+     *
+     * @param e   Exception
+     * @param id  Device id, may be empty
+     * @param tag Where the error was caught
+     */
+    void onError(Exception e, String id, String tag) {
+        if (mBluetoothService != null) {
+            mBluetoothService.getTracer().record(Tracer.Kind.ERROR, id);
+        }
+
+        if (mErrors != null) {
+            mErrors.report(e, id != null ? id : "", tag);
+        }
+    }
+
+    private void sendErrorReport(ErrorAggregator.Report report) {
+        WritableMap params = Arguments.createMap();
+        params.putString("message", report.message);
+        params.putString("tag", report.tag);
+        params.putString("deviceId", report.device);
+        params.putString("exception", report.exception);
+        params.putInt("count", report.count);
+        params.putDouble("firstTime", report.firstTime);
+        params.putDouble("lastTime", report.lastTime);
+        params.putInt("errorId", report.id);
+
+        if (mIncludeStackTraces) {
+            params.putString("stackTrace", mErrors.getStackTrace(report.id));
+        }
+
         sendEvent(ERROR, params);
     }
 
@@ -693,89 +1501,418 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
         onError(e, "", "");
     }
 
+    /**
+     * Handle read. The bytes are copied into the device buffer's lock-free
+     * handoff queue, through the device's frame decoder when one is set, so
+     * the caller may reuse data as soon as this returns and never waits for
+     * a JS read in progress.
+     *
+     * @param session Device session
+     * @param data    Receive buffer
+     * @param offset  Offset of the first received byte in data
+     * @param length  Number of received bytes
+     */
+    void onData(DeviceSession session, byte[] data, int offset, int length) {
+        DeviceBuffer buffer = session.getBuffer();
+        FrameDecoder decoder = session.getDecoder();
+        ConnectionStats stats = session.getStats();
+        long dropped = stats.droppedBytes.get();
+        int skip = mBluetoothService.getBufferLimits().admit(buffer, session.getBufferLimit(), length, stats);
+
+        if (skip > 0 && decoder != null) {
+            // The frame in progress lost bytes, decoding starts over with the next read
+            decoder.reset();
+            stats.onDropped(length - skip);
+            skip = length;
+        }
+
+        if (stats.droppedBytes.get() != dropped) {
+            onDropped(session, stats.droppedBytes.get() - dropped);
+        }
+
+        offset += skip;
+        length -= skip;
+
+        if (decoder == null) {
+            buffer.receive(data, offset, length);
+        } else if (length > 0) {
+            try {
+                decoder.decode(data, offset, length, buffer);
+            } catch (Exception e) {
+                Log.e(TAG, "Unable to decode frame from device " + session.getId(), e);
+                decoder.reset();
+                onError(e, session.getId(), "RCTBluetoothSerialModule.onData.catch.01");
+            }
+        }
+
+        ReadEventBatcher batcher = session.getBatcher();
+
+        if (batcher != null) {
+            batcher.onData(buffer.approximateAvailable(), buffer.approximateFrameCount());
+        }
+    }
+/**
+ *
+ */
+
+    /**
+     * Handle read until find a certain delimiter
+     *
+     * @param session Device session, may be null
+     * @return buffer data from device
+     */
+    private byte[] readUntil(@Nullable DeviceSession session) {
+        if (session != null) {
+            byte[] data = session.getBuffer().readUntilDelimiter();
+            if (data.length > 0) {
+                session.getStats().onDelivered();
+            }
+            return data;
+        }
+
+        return new byte[0];
+    }
+
+    /**
+     * Set the delimiter of a device. An empty delimiter makes
+     * readUntilDelimiter return the whole buffer.
+     *
+     * @param session   Device session
+     * @param delimiter Delimiter, may be more than one character
+     */
+    private void setDelimiter(DeviceSession session, String delimiter) {
+        session.getBuffer().setDelimiter(delimiter.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Resolve the session of a write, rejecting the promise if there is none
+     *
+     * @param id      Id passed from JS
+     * @param promise Promise of the write
+     * @return The session, or null if the promise was rejected
+     */
+    @Nullable
+    private DeviceSession getWriteSession(@Nullable String id, Promise promise) {
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getSession(id);
+        } catch (Exception e) {
+            promise.reject(e);
+            return null;
+        }
+
+        if (session == null) {
+            promise.reject(new Exception("No connected device to write to"));
+        }
+
+        return session;
+    }
+
+    /**
+     * Resolve or create the session a setting applies to, rejecting the
+     * promise if there is none
+     *
+     * @param id      Id passed from JS
+     * @param message Rejection message when no device is known
+     * @param promise Promise of the call
+     * @return The session, or null if the promise was rejected
+     */
+    @Nullable
+    private DeviceSession getSettingsSession(@Nullable String id, String message, Promise promise) {
+        DeviceSession session;
+
+        try {
+            session = mBluetoothService.getOrCreateSession(id);
+        } catch (Exception e) {
+            promise.reject(e);
+            return null;
+        }
+
+        if (session == null) {
+            promise.reject(new Exception(message));
+        }
+
+        return session;
+    }
+
+    /**
+     * @param options { maxBytes, policy }, or null
+     * @return The limit, {@link BufferLimits#NONE} for null options or no maxBytes
+     * @throws IllegalArgumentException for an unknown policy
+     */
+    private static BufferLimits.Limit limitFromReadableMap(@Nullable ReadableMap options) {
+        if (options == null || !options.hasKey("maxBytes")) {
+            return BufferLimits.NONE;
+        }
+
+        BufferLimits.Policy policy = BufferLimits.Policy.DROP_OLDEST;
+
+        if (options.hasKey("policy")) policy = BufferLimits.parsePolicy(options.getString("policy"));
+
+        return new BufferLimits.Limit((long) options.getDouble("maxBytes"), policy);
+    }
+
+    /**
+     * Emit the complete data of a device in push mode as one read event:
+     * all whole frames when a frame decoder is set, otherwise everything up
+     * to the last delimiter. Without a decoder, a flush on the byte threshold
+     * emits all buffered data when there is no delimiter in it.
+     *
+     * @param id        Device address
+     * @param threshold Whether the flush was triggered by a threshold
+     * @return Whether data was emitted and more is still buffered
+     */
+    private boolean flushRead(String id, boolean threshold) {
+        DeviceSession session = mBluetoothService.getSession(id);
+
+        if (session == null) {
+            return false;
+        }
+
+        DeviceBuffer buffer = session.getBuffer();
+
+        byte[] data;
+        int[] frameLengths = null;
+
+        if (session.getDecoder() != null) {
+            synchronized (buffer) {
+                frameLengths = buffer.frameLengths();
+                int total = 0;
+                for (int length : frameLengths) {
+                    total += length;
+                }
+                data = buffer.read(total);
+            }
+        } else {
+            data = buffer.readCompleteMessages();
+
+            if (data.length == 0 && threshold) {
+                data = buffer.readAll(); // No delimiter within the threshold, do not hold the data back
+            }
+        }
+
+        if (data.length == 0) {
+            return false;
+        }
+
+        WritableMap params = Arguments.createMap();
+        params.putString("id", id);
+
+        int encoding = session.getEncoding();
+        if (encoding == ByteEncoding.ARRAY) {
+            params.putArray("data", bytesToWritableArray(data));
+        } else {
+            params.putString("data", ByteEncoding.toString(data, encoding));
+        }
+
+        if (frameLengths != null) {
+            WritableArray lengths = Arguments.createArray();
+            for (int length : frameLengths) {
+                lengths.pushInt(length);
+            }
+            params.putArray("frameLengths", lengths);
+        }
+
+        sendEvent(DEVICE_READ, params);
+        session.getStats().onDelivered();
+
+        return buffer.approximateAvailable() > 0;
+    }
+
+    /**
+     * Count data dropped at a buffer limit. Drops are reported by at most one
+     * event per device and interval, carrying the bytes dropped since the
+     * previous event.
+     *
+     * @param session Device session
+     * @param bytes   Bytes just dropped
+     */
+    private void onDropped(final DeviceSession session, long bytes) {
+        mBluetoothService.getTracer().record(Tracer.Kind.DATA_DROPPED, session.getId(), (int) bytes,
+                session.getBuffer().approximateAvailable());
+
+        if (!session.markDropEventPending()) {
+            return;
+        }
+
+        try {
+            getFlushScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendDataDropped(session);
+                }
+            }, DROP_EVENT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            sendDataDropped(session);
+        }
+    }
+
+    private void sendDataDropped(DeviceSession session) {
+        long bytes = session.takeDroppedSinceEvent();
+
+        if (bytes == 0) {
+            return;
+        }
+
+        WritableMap params = Arguments.createMap();
+        params.putString("id", session.getId());
+        params.putInt("handle", session.getHandle());
+        params.putDouble("bytes", bytes);
+        params.putDouble("droppedBytes", session.getStats().droppedBytes.get());
+        params.putDouble("buffered", session.getBuffer().approximateAvailable());
+
+        try {
+            sendEvent(DATA_DROPPED, params);
+        } catch (Exception e) {
+            Log.e(TAG, "Cannot sendEvent DATA_DROPPED", e);
+        }
+    }
+
+    private synchronized ScheduledExecutorService getFlushScheduler() {
+        if (mFlushScheduler == null) {
+            mFlushScheduler = Executors.newSingleThreadScheduledExecutor();
+        }
 
-    byte[] concatArray(byte[] a, byte[] b){
-        byte[] total = new byte[a.length + b.length];
-        System.arraycopy(a, 0, total, 0, a.length);
-        System.arraycopy(b, 0, total, a.length, b.length);
-        return total;
+        return mFlushScheduler;
     }
+
     /**
-     * Handle read
+     * Write a buffer from the write pool and give it back once it is flushed
      *
-     * @param id   Device address
-     * @param data Message
+     * @param session  Device session
+     * @param buffer   Pooled buffer
+     * @param length   Number of bytes to write
+     * @param callback Write completion
      */
-    void onData(String id, byte[] data) { // fingerprint changed
-        if (mBuffers.containsKey(id)) {
-            byte[] buffer = mBuffers.get(id);
-            byte[] completeBuffer = concatArray(buffer, data);
-            mBuffers.put(id, completeBuffer );
-        }
-
-//        byte[] completeData = readUntil(id);
-////        Log.i(TAG, "completeData: "+ new String(completeData));
-//
-//        if (completeData.length > 0) {
-//
-//            WritableArray completeDataWritableArray = Arguments.createArray();
-//            for (int index = 0; index < completeData.length; index++) {
-//              completeDataWritableArray.pushInt(completeData[index]&0xFF);
-//            }
-//
-////            Log.i(TAG, "completeDataWritableArray: "+ completeDataWritableArray.toString());
-//
-//            WritableMap readParams = Arguments.createMap();
-//            readParams.putString("id", id);
-//            readParams.putArray("data", completeDataWritableArray);
-//            sendEvent(DEVICE_READ, readParams);
-//        }
+    private void writePooledBuffer(DeviceSession session, final byte[] buffer, int length, final ConnectionWriter.Callback callback) {
+        mBluetoothService.write(session, buffer, 0, length, new ConnectionWriter.Callback() {
+            @Override
+            public void onWritten() {
+                mWriteBufferPool.release(buffer);
+                callback.onWritten();
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                mWriteBufferPool.release(buffer);
+                callback.onFailed(e);
+            }
+        });
     }
-/**
- *
- */
 
     /**
-     * Handle read until find a certain delimiter
+     * Write callback settling a promise
      *
-     * @param id        Device address
-     * @return buffer data from device
+     * @param promise Promise resolved with true once the write is flushed
      */
-    private byte[] readUntil(String id) {
-        byte delimiter = 0;
-        if (mDelimiters.containsKey(id)) {
-            delimiter = mDelimiters.get(id);
-        }
-//        Log.i(TAG, "delimiter: "+delimiter);
-        if (mBuffers.containsKey(id)) {
-        // byte[] buffer = new byte[length];
-          byte[] buffer = mBuffers.get(id);
-
-            int index=-1;
-//            Log.i(TAG, new String(buffer));
-            for (int i = 0; i < buffer.length; i++) {
-                if(buffer[i]==delimiter){
-                    index=i;
-                    break;
-                }
+    private ConnectionWriter.Callback promiseWriteCallback(final Promise promise) {
+        return new ConnectionWriter.Callback() {
+            @Override
+            public void onWritten() {
+                promise.resolve(true);
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                promise.reject(e);
             }
-//            Log.i(TAG, "index: "+index);
-            if(index>=0){
-                byte[] data = Arrays.copyOfRange(buffer, 0, index+1);
-                byte[] leftBuffer = Arrays.copyOfRange(buffer, index+1,buffer.length);
-//                Log.i(TAG, new String(leftBuffer));
-                mBuffers.put(id, leftBuffer);
-
-                return data;
-            }else{
-                byte[] emptyBuffer = new byte[0];
-                return emptyBuffer;
+        };
+    }
+
+    /**
+     * Copy an array of numbers into a byte array
+     *
+     * @param data   Numbers, each one byte
+     * @param buffer Destination, at least data.size() long
+     * @return Number of bytes copied
+     * @throws IllegalArgumentException if an element is not an integer from 0 to 255
+     */
+    private int readableArrayToBytes(ReadableArray data, byte[] buffer) {
+        int length = data.size();
+
+        for (int index = 0; index < length; index++) {
+            double value = data.getType(index) == ReadableType.Number ? data.getDouble(index) : Double.NaN;
+
+            if (!(value >= 0 && value <= 255 && value == Math.floor(value))) {
+                throw new IllegalArgumentException("Element at index " + index + " is not a byte value from 0 to 255");
             }
+
+            buffer[index] = (byte) value;
+        }
+
+        return length;
+    }
+
+    /**
+     * Pick the encoding of a read: the one asked for, else the device default
+     *
+     * @param session  Device session, may be null
+     * @param encoding Encoding name or null
+     * @return Encoding constant from ByteEncoding
+     */
+    private int resolveEncoding(@Nullable DeviceSession session, @Nullable String encoding) {
+        if (encoding != null) {
+            return ByteEncoding.fromName(encoding);
+        }
+
+        return session != null ? session.getEncoding() : ByteEncoding.ARRAY;
+    }
+
+    /**
+     * Encode bytes for the bridge
+     *
+     * @param data     Bytes
+     * @param encoding Encoding constant from ByteEncoding
+     * @return WritableArray for ARRAY, String otherwise
+     */
+    private Object encodeBytes(byte[] data, int encoding) {
+        if (encoding == ByteEncoding.ARRAY) {
+            return bytesToWritableArray(data);
+        }
+
+        return ByteEncoding.toString(data, encoding);
+    }
+
+    /**
+     * Convert bytes into an array of unsigned numbers
+     *
+     * @param data Bytes
+     */
+    private WritableArray bytesToWritableArray(byte[] data) {
+        WritableArray array = Arguments.createArray();
+
+        for (int index = 0; index < data.length; index++) {
+            array.pushInt(data[index] & 0xFF);
+        }
+
+        return array;
+    }
+
+    /**
+     * Build a frame decoder from its JS config
+     *
+     * @param config Decoder config, null for no decoder
+     * @return Frame decoder or null
+     */
+    private FrameDecoder createFrameDecoder(@Nullable ReadableMap config) {
+        if (config == null) {
+            return null;
         }
-        else {
-          byte[] emptyBuffer = new byte[0];
-          return emptyBuffer;
+
+        String type = config.hasKey("type") ? config.getString("type") : "lengthField";
+
+        if ("lengthField".equals(type)) {
+            return new LengthFieldFrameDecoder(
+                    config.hasKey("lengthFieldOffset") ? config.getInt("lengthFieldOffset") : 0,
+                    config.hasKey("lengthFieldLength") ? config.getInt("lengthFieldLength") : 2,
+                    !config.hasKey("bigEndian") || config.getBoolean("bigEndian"),
+                    config.hasKey("lengthAdjustment") ? config.getInt("lengthAdjustment") : 0,
+                    config.hasKey("maxFrameLength") ? config.getInt("maxFrameLength")
+                            : LengthFieldFrameDecoder.DEFAULT_MAX_FRAME_LENGTH);
         }
+
+        throw new IllegalArgumentException("Unknown frame decoder type " + type);
     }
 
     /**
@@ -811,6 +1948,109 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
         }
     }
 
+    /**
+     * Convert the statistics of a device into WritableMap
+     *
+     * @param session Device session
+     */
+    private WritableMap statisticsToWritableMap(DeviceSession session) {
+        ConnectionStats stats = session.getStats();
+        WritableMap params = Arguments.createMap();
+
+        params.putString("id", session.getId());
+        params.putInt("handle", session.getHandle());
+        params.putBoolean("connected", session.isConnected());
+        params.putDouble("connectedFor", stats.getConnectedFor());
+        params.putDouble("bytesIn", stats.bytesIn.get());
+        params.putDouble("chunksIn", stats.chunksIn.get());
+        params.putDouble("bytesOut", stats.bytesOut.get());
+        params.putDouble("writesOut", stats.writesOut.get());
+        params.putDouble("writeFailures", stats.writeFailures.get());
+        params.putDouble("buffered", session.getBuffer().approximateAvailable());
+        params.putDouble("bufferHighWater", stats.getBufferHighWater());
+        params.putDouble("droppedBytes", stats.droppedBytes.get());
+        params.putDouble("readPauses", stats.pauses.get());
+        params.putDouble("connects", stats.connects.get());
+        params.putDouble("reconnects", stats.reconnects.get());
+        params.putDouble("connectionsLost", stats.connectionsLost.get());
+        params.putMap("readSize", histogramToWritableMap(stats.readSizes));
+        params.putMap("writeLatency", histogramToWritableMap(stats.writeLatency));
+        params.putMap("deliveryLatency", histogramToWritableMap(stats.deliveryLatency));
+        params.putMap("connectTime", histogramToWritableMap(stats.connectTime));
+
+        ConnectStrategyCache.Strategy lastStrategy = stats.getLastStrategy();
+        if (lastStrategy != null) {
+            params.putString("lastConnectStrategy", lastStrategy.name());
+        }
+
+        WritableMap strategies = Arguments.createMap();
+        for (ConnectStrategyCache.Strategy strategy : ConnectStrategyCache.Strategy.values()) {
+            int i = strategy.ordinal();
+            long attempts = stats.strategyAttempts.get(i);
+
+            if (attempts == 0) {
+                continue;
+            }
+
+            WritableMap strategyStats = Arguments.createMap();
+            strategyStats.putDouble("attempts", attempts);
+            strategyStats.putDouble("failures", stats.strategyFailures.get(i));
+            strategyStats.putDouble("averageTime", (double) stats.strategyTimeMs.get(i) / attempts);
+            strategies.putMap(strategy.name(), strategyStats);
+        }
+        params.putMap("strategies", strategies);
+
+        return params;
+    }
+
+    /**
+     * Convert a histogram into WritableMap. Percentiles are upper bounds of
+     * power of two buckets.
+     *
+     * @param histogram Histogram
+     */
+    private WritableMap histogramToWritableMap(ConnectionStats.Histogram histogram) {
+        long[] counts = histogram.snapshot();
+        WritableArray buckets = Arguments.createArray();
+        long count = 0;
+        int highest = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            buckets.pushDouble(counts[i]);
+            count += counts[i];
+            if (counts[i] > 0) {
+                highest = i;
+            }
+        }
+
+        WritableMap params = Arguments.createMap();
+        params.putDouble("count", count);
+        params.putDouble("p50", ConnectionStats.Histogram.percentile(counts, 50));
+        params.putDouble("p90", ConnectionStats.Histogram.percentile(counts, 90));
+        params.putDouble("p99", ConnectionStats.Histogram.percentile(counts, 99));
+        params.putDouble("max", ConnectionStats.Histogram.upperBound(highest));
+        params.putArray("buckets", buckets);
+
+        return params;
+    }
+
+    /**
+     * Convert thread pool numbers into WritableMap
+     *
+     * @param poolStats Pool snapshot, null if the pool is not running
+     */
+    private WritableMap poolStatsToWritableMap(@Nullable SerialExecutors.PoolStats poolStats) {
+        WritableMap params = Arguments.createMap();
+
+        params.putInt("poolSize", poolStats != null ? poolStats.poolSize : 0);
+        params.putInt("active", poolStats != null ? poolStats.activeCount : 0);
+        params.putInt("largestPoolSize", poolStats != null ? poolStats.largestPoolSize : 0);
+        params.putInt("queued", poolStats != null ? poolStats.queued : 0);
+        params.putDouble("completed", poolStats != null ? poolStats.completedTasks : 0);
+
+        return params;
+    }
+
     /**
      * Convert BluetoothDevice into WritableMap
      *
@@ -819,21 +2059,68 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
     private WritableMap deviceToWritableMap(BluetoothDevice device) {
         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "device " + device.toString());
 
+        if (device == null) {
+            return Arguments.createMap();
+        }
+
+        return metadataToWritableMap(mMetadata.get(device));
+    }
+
+    /**
+     * Convert cached device metadata into WritableMap
+     *
+     * @param entry Device metadata
+     */
+    private WritableMap metadataToWritableMap(DeviceMetadataCache.Entry entry) {
         WritableMap params = Arguments.createMap();
+        params.putString("name", entry.name);
+        params.putString("address", entry.address);
+        params.putString("id", entry.address);
 
-        if (device != null) {
-            params.putString("name", device.getName());
-            params.putString("address", device.getAddress());
-            params.putString("id", device.getAddress());
+        if (entry.deviceClass != DeviceMetadataCache.NO_CLASS) {
+            params.putInt("class", entry.deviceClass);
+        }
 
-            if (device.getBluetoothClass() != null) {
-                params.putInt("class", device.getBluetoothClass().getDeviceClass());
-            }
+        return params;
+    }
+
+    /**
+     * Convert a discovered device into WritableMap
+     *
+     * @param entry  Cached device
+     * @param cached Whether it comes from an earlier scan
+     */
+    private WritableMap discoveredDeviceToWritableMap(DiscoveryCache.Entry entry, boolean cached) {
+        WritableMap params = Arguments.createMap();
+        params.putString("name", entry.name);
+        params.putString("address", entry.address);
+        params.putString("id", entry.address);
+
+        if (entry.deviceClass != DiscoveryCache.NO_CLASS) {
+            params.putInt("class", entry.deviceClass);
+        }
+
+        if (entry.rssi != DiscoveryCache.NO_RSSI) {
+            params.putInt("rssi", entry.rssi);
         }
 
+        params.putDouble("lastSeen", entry.lastSeen);
+        params.putBoolean("cached", cached);
+
         return params;
     }
 
+    private WritableArray discoveredDevicesToWritableArray(List<DiscoveryCache.Entry> entries) {
+        WritableArray devices = Arguments.createArray();
+        int scan = mDiscoveryCache.getScan();
+
+        for (DiscoveryCache.Entry entry : entries) {
+            devices.pushMap(discoveredDeviceToWritableMap(entry, entry.scan != scan));
+        }
+
+        return devices;
+    }
+
     /**
      * Pair device before kitkat
      *
@@ -949,9 +2236,12 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
     }
 
     /**
-     * Register receiver for bluetooth device discovery
+     * Register receiver for bluetooth device discovery. Caller holds the
+     * mDiscoveryPromises lock.
+     *
+     * @return The receiver
      */
-    private void registerBluetoothDeviceDiscoveryReceiver() {
+    private BroadcastReceiver registerBluetoothDeviceDiscoveryReceiver() {
         IntentFilter intentFilter = new IntentFilter();
 
         intentFilter.addAction(BluetoothDevice.ACTION_FOUND);
@@ -959,8 +2249,6 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
         intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
 
         final BroadcastReceiver deviceDiscoveryReceiver = new BroadcastReceiver() {
-            private WritableArray unpairedDevices = Arguments.createArray();
-
             @Override
             public void onReceive(Context context, Intent intent) {
                 String action = intent.getAction();
@@ -974,47 +2262,82 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
 
                     if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Discovery extra device (device id: " + rawDevice.getAddress() + ")");
 
-                    WritableMap device = deviceToWritableMap(rawDevice);
-
-                    /**
-                     *
-                     */
-                    WritableMap params = Arguments.createMap();
-                    params.putString("address", rawDevice.getAddress());
-                    params.putString("name", rawDevice.getName());
-                    /**
-                     *
-                     */
-                    try {
-                        sendEvent(DEVICE_FOUND, params);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Cannot sendEvent DEVICE_FOUND for " + rawDevice.getAddress() , e);
-                        onError(e, rawDevice.getAddress(), "RCTBluetoothSerialModule.registerBluetoothDeviceDiscoveryReceiver.BroadcastReceiver.catch.01");
+                    String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+                    BluetoothClass bluetoothClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                    int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DiscoveryCache.NO_RSSI);
+
+                    if (name != null) {
+                        mMetadata.onNameChanged(rawDevice, name);
                     }
-                    /**
-                     *
-                     */
 
-                    unpairedDevices.pushMap(device);
-                } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
-                    if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Discovery finished");
+                    DiscoveryCache.Entry entry = mDiscoveryCache.onFound(rawDevice.getAddress(),
+                            name != null ? name : mMetadata.get(rawDevice).name,
+                            bluetoothClass != null ? bluetoothClass.getDeviceClass() : DiscoveryCache.NO_CLASS,
+                            rssi);
 
-                    if (mDeviceDiscoveryPromise != null) {
-                        mDeviceDiscoveryPromise.resolve(unpairedDevices);
-                        mDeviceDiscoveryPromise = null;
+                    if (entry == null) {
+                        return; // Seen in this scan already
                     }
 
                     try {
-                        mReactContext.unregisterReceiver(this);
+                        sendEvent(DEVICE_FOUND, discoveredDeviceToWritableMap(entry, false));
                     } catch (Exception e) {
-                        Log.e(TAG, "Unable to unregister receiver", e);
-                        onError(e, "", "RCTBluetoothSerialModule.registerBluetoothDeviceDiscoveryReceiver.BroadcastReceiver.catch.02");
+                        Log.e(TAG, "Cannot sendEvent DEVICE_FOUND for " + rawDevice.getAddress() , e);
+                        onError(e, rawDevice.getAddress(), "RCTBluetoothSerialModule.registerBluetoothDeviceDiscoveryReceiver.BroadcastReceiver.catch.01");
                     }
+                } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+                    if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Discovery finished");
+
+                    finishDiscovery(null);
                 }
             }
         };
 
         mReactContext.registerReceiver(deviceDiscoveryReceiver, intentFilter);
+        return deviceDiscoveryReceiver;
+    }
+
+    /**
+     * End the running scan: unregister its receiver and settle the promises
+     * of every listUnpaired call that joined it
+     *
+     * @param error Cause if the scan failed, or null
+     */
+    private void finishDiscovery(@Nullable Exception error) {
+        BroadcastReceiver receiver;
+        List<Promise> promises;
+
+        synchronized (mDiscoveryPromises) {
+            receiver = mDiscoveryReceiver;
+            mDiscoveryReceiver = null;
+            promises = new ArrayList<>(mDiscoveryPromises);
+            mDiscoveryPromises.clear();
+        }
+
+        if (receiver == null) {
+            return;
+        }
+
+        try {
+            mReactContext.unregisterReceiver(receiver);
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to unregister receiver", e);
+            onError(e, "", "RCTBluetoothSerialModule.registerBluetoothDeviceDiscoveryReceiver.BroadcastReceiver.catch.02");
+        }
+
+        if (error == null) {
+            mDiscoveryCache.finishScan();
+        }
+
+        List<DiscoveryCache.Entry> devices = mDiscoveryCache.getFresh();
+
+        for (Promise promise : promises) {
+            if (error != null) {
+                promise.reject(error);
+            } else {
+                promise.resolve(discoveredDevicesToWritableArray(devices)); // A WritableArray is consumed by the bridge
+            }
+        }
     }
 
     /**
@@ -1042,17 +2365,11 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
 
                     if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Discovery first available device (device id: " + id + ")");
 
-                    mBluetoothService.connect(rawDevice);
+                    mBluetoothService.connect(rawDevice, 0);
 
-                    if (mConnectedPromises.containsKey(FIRST_DEVICE)) {
-                        Promise promise = mConnectedPromises.get(FIRST_DEVICE);
-                        mConnectedPromises.remove(FIRST_DEVICE);
-                        mConnectedPromises.put(id, promise);
-
-                        if (promise != null) {
-                            WritableMap device = deviceToWritableMap(rawDevice);
-                            promise.resolve(device);
-                        }
+                    for (Promise promise : takeConnectPromises(FIRST_DEVICE)) {
+                        WritableMap device = deviceToWritableMap(rawDevice);
+                        promise.resolve(device);
                     }
 
                     try {
@@ -1068,6 +2385,167 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
         mReactContext.registerReceiver(deviceDiscoveryReceiver, intentFilter);
     }
 
+    /**
+     * @param promise Promise of the provisionDevices call
+     * @return Host doing the work of one provisioning job
+     */
+    private ProvisioningJob.Host createProvisioningHost(final Promise promise) {
+        return new ProvisioningJob.Host() {
+            @Override
+            public boolean isBonded(String id) {
+                return mMetadata.get(mBluetoothAdapter.getRemoteDevice(id)).isBonded();
+            }
+
+            @Override
+            public boolean isConnected(String id) {
+                DeviceSession session = mBluetoothService.getSession(id);
+                return session != null && session.isConnected();
+            }
+
+            @Override
+            public void createBond(String id) throws Exception {
+                BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(id);
+                Method m = device.getClass().getMethod("createBond", (Class[]) null);
+
+                if (!Boolean.TRUE.equals(m.invoke(device, (Object[]) null))) {
+                    throw new Exception("Could not pair device " + id);
+                }
+            }
+
+            @Override
+            public void connect(String id, long timeoutMs) {
+                mBluetoothService.connect(mBluetoothAdapter.getRemoteDevice(id), timeoutMs);
+            }
+
+            @Override
+            public void onProgress(ProvisioningJob job, String id, String stage) {
+                WritableMap params = Arguments.createMap();
+                params.putInt("job", job.getId());
+                params.putString("id", id);
+                params.putString("stage", stage);
+                sendEvent(PROVISIONING_PROGRESS, params);
+            }
+
+            @Override
+            public void onResult(ProvisioningJob job, String id, @Nullable Exception error) {
+                WritableMap params = Arguments.createMap();
+                params.putInt("job", job.getId());
+                params.putString("id", id);
+                params.putBoolean("success", error == null);
+
+                if (error == null) {
+                    DeviceSession session = mBluetoothService.getSession(id);
+                    if (session != null) {
+                        params.putInt("handle", session.getHandle());
+                    }
+                } else {
+                    params.putString("message", error.getMessage());
+                }
+
+                sendEvent(PROVISIONING_RESULT, params);
+            }
+
+            @Override
+            public void onFinished(ProvisioningJob job) {
+                synchronized (mProvisioningJobs) {
+                    mProvisioningJobs.remove(job.getId());
+
+                    if (mProvisioningJobs.isEmpty()) {
+                        unregisterProvisioningBondReceiver();
+                    }
+                }
+
+                if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Provisioning job " + job.getId() + " finished in " + job.getElapsed() + " ms");
+
+                sendEvent(PROVISIONING_FINISHED, provisioningResultToWritableMap(job));
+                promise.resolve(provisioningResultToWritableMap(job));
+            }
+        };
+    }
+
+    /**
+     * @param job Finished provisioning job
+     * @return { job, succeeded, failed, elapsed }
+     */
+    private WritableMap provisioningResultToWritableMap(ProvisioningJob job) {
+        WritableArray succeeded = Arguments.createArray();
+        for (String id : job.getSucceeded()) {
+            succeeded.pushString(id);
+        }
+
+        WritableArray failed = Arguments.createArray();
+        for (String id : job.getFailed()) {
+            failed.pushString(id);
+        }
+
+        WritableMap result = Arguments.createMap();
+        result.putInt("job", job.getId());
+        result.putArray("succeeded", succeeded);
+        result.putArray("failed", failed);
+        result.putDouble("elapsed", job.getElapsed());
+
+        return result;
+    }
+
+    /**
+     * Register receiver routing bond state changes to the provisioning jobs.
+     * Caller holds the mProvisioningJobs lock.
+     */
+    private void registerProvisioningBondReceiver() {
+        if (mProvisioningBondReceiver != null) {
+            return;
+        }
+
+        mProvisioningBondReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (!BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(intent.getAction())) {
+                    return;
+                }
+
+                BluetoothDevice rawDevice = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                final int state = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR);
+                final int prevState = intent.getIntExtra(BluetoothDevice.EXTRA_PREVIOUS_BOND_STATE,
+                        BluetoothDevice.ERROR);
+
+                if (rawDevice == null) {
+                    return;
+                }
+
+                boolean bonded = state == BluetoothDevice.BOND_BONDED;
+                boolean rejected = state == BluetoothDevice.BOND_NONE && prevState == BluetoothDevice.BOND_BONDING;
+
+                for (ProvisioningJob job : mProvisioningJobs.values()) {
+                    job.onBondStateChanged(rawDevice.getAddress(), bonded, rejected);
+                }
+            }
+        };
+
+        IntentFilter intentFilter = new IntentFilter();
+
+        intentFilter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+
+        mReactContext.registerReceiver(mProvisioningBondReceiver, intentFilter);
+    }
+
+    /**
+     * Caller holds the mProvisioningJobs lock.
+     */
+    private void unregisterProvisioningBondReceiver() {
+        if (mProvisioningBondReceiver == null) {
+            return;
+        }
+
+        try {
+            mReactContext.unregisterReceiver(mProvisioningBondReceiver);
+        } catch (Exception e) {
+            Log.e(TAG, "Cannot unregister receiver", e);
+            onError(e, "", "RCTBluetoothSerialModule.unregisterProvisioningBondReceiver.catch.01");
+        }
+
+        mProvisioningBondReceiver = null;
+    }
+
     /**
      * Register receiver for bluetooth state change
      */
@@ -1086,10 +2564,14 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
                     switch (state) {
                     case BluetoothAdapter.STATE_OFF:
                         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Bluetooth was disabled");
+                        mMetadata.clear(); // No bonded devices are reported while off
+                        mBluetoothService.onAdapterStateChanged(false);
                         sendEvent(BT_DISABLED, null);
                         break;
                     case BluetoothAdapter.STATE_ON:
                         if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Bluetooth was enabled");
+                        mMetadata.clear();
+                        mBluetoothService.onAdapterStateChanged(true);
                         sendEvent(BT_ENABLED, null);
                         break;
                     default:
@@ -1101,4 +2583,38 @@ public class RCTBluetoothSerialModule extends ReactContextBaseJavaModule
 
         mReactContext.registerReceiver(bluetoothStateReceiver, intentFilter);
     }
+
+    /**
+     * Register receiver keeping the device metadata cache current
+     */
+    private void registerDeviceMetadataReceiver() {
+        IntentFilter intentFilter = new IntentFilter();
+
+        intentFilter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        intentFilter.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
+        intentFilter.addAction(BluetoothDevice.ACTION_CLASS_CHANGED);
+
+        final BroadcastReceiver deviceMetadataReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                final String action = intent.getAction();
+                final BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+
+                if (device == null) {
+                    return;
+                }
+
+                if (BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action)) {
+                    mMetadata.onBondStateChanged(device,
+                            intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_NONE));
+                } else if (BluetoothDevice.ACTION_NAME_CHANGED.equals(action)) {
+                    mMetadata.onNameChanged(device, intent.getStringExtra(BluetoothDevice.EXTRA_NAME));
+                } else if (BluetoothDevice.ACTION_CLASS_CHANGED.equals(action)) {
+                    mMetadata.onClassChanged(device);
+                }
+            }
+        };
+
+        mReactContext.registerReceiver(deviceMetadataReceiver, intentFilter);
+    }
 }
@@ -1,29 +1,22 @@
 package com.nuttawutmalee.RCTBluetoothSerial;
 
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer; // add
-import java.nio.ByteOrder; // add
-import java.util.Arrays; // to print arrays
-import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.Collection;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
-import android.os.Build;
+import android.content.Context;
 import android.util.Log;
 
+import javax.annotation.Nullable;
+
 import static com.nuttawutmalee.RCTBluetoothSerial.RCTBluetoothSerialPackage.TAG;
 
 /**
  * This class does all the work for setting up and managing Bluetooth
- * connections with other devices. It has a thread that listens for incoming
- * connections, a thread for connecting with a device, and a thread for
- * performing data transmissions when connected.
+ * connections with other devices. The connection lifecycle of each device
+ * is run by a {@link DeviceConnector}, which knows devices by address only;
+ * this class gives it RFCOMM sockets, watches the adapter, and reports its
+ * events to the module with the BluetoothDevice they belong to.
  *
  * This code was based on the Android SDK BluetoothChat Sample
  * $ANDROID_SDK/samples/android-17/BluetoothChat
@@ -33,635 +26,242 @@ class RCTBluetoothSerialService {
     private static final boolean D = true;
     public static boolean debugMode = false;
 
-    // UUIDs
-    private static final UUID UUID_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-
     // Member fields
     private BluetoothAdapter mAdapter;
     private RCTBluetoothSerialModule mModule;
 
-    private String mFirstDeviceAddress = null;
-    private HashMap<String, ConnectThread> mConnectThreads;
-    private HashMap<String, ConnectedThread> mConnectedThreads;
-    private HashMap<String, String> mStates;
-
-    // Constants that indicate the current connection state
-    private static final String STATE_NONE = "none"; // we're doing nothing
-    private static final String STATE_CONNECTING = "connecting"; // now initiating an outgoing connection
-    private static final String STATE_CONNECTED = "connected"; // now connected to a remote device
+    private final SerialTransport.Factory mTransports;
+    private final DeviceConnector mConnector;
 
     /**
      * Constructor. Prepares a new RCTBluetoothSerialModule session.
      *
-     * @param module Module which handles service events
+     * @param module  Module which handles service events
+     * @param context Context used to persist connect strategies
+     */
+    RCTBluetoothSerialService(RCTBluetoothSerialModule module, Context context) {
+        this(module, context, null);
+    }
+
+    /**
+     * @param module     Module which handles service events
+     * @param context    Context used to persist connect strategies, may be null
+     * @param transports Opens the links to devices, or null for RFCOMM sockets
      */
-    RCTBluetoothSerialService(RCTBluetoothSerialModule module) {
+    RCTBluetoothSerialService(RCTBluetoothSerialModule module, Context context,
+                              @Nullable SerialTransport.Factory transports) {
         mAdapter = BluetoothAdapter.getDefaultAdapter();
         mModule = module;
+        mTransports = transports != null ? transports : new RfcommTransport.Factory(mAdapter);
+        mConnector = new DeviceConnector(mTransports, new ConnectStrategyCache(context != null
+                ? new PreferencesStore(context, PreferencesStore.CONNECT_STRATEGIES) : null), new ConnectorListener());
 
         debugMode = BuildConfig.BUILD_TYPE.equals("debug");
-
-        if (mConnectThreads == null) {
-            mConnectThreads = new HashMap<>();
+        if (debugMode) {
+            mConnector.getTracer().setLevel(Tracer.DEBUG);
         }
+    }
 
-        if (mConnectedThreads == null) {
-            mConnectedThreads = new HashMap<>();
-        }
+    /**
+     * @return Trace of connection and I/O events
+     */
+    Tracer getTracer() {
+        return mConnector.getTracer();
+    }
 
-        if (mStates == null) {
-            mStates = new HashMap<>();
-        }
+    /**
+     * @return Limits on the data buffered for JS
+     */
+    BufferLimits getBufferLimits() {
+        return mConnector.getBufferLimits();
     }
 
     public String getFirstDeviceAddress() {
-        return mFirstDeviceAddress;
+        return mConnector.getFirstDeviceAddress();
     }
 
     /**
-     * Start the ConnectThread to initiate a connection to a remote device.
+     * Resolve an id passed from JS to its session without locking
      *
-     * @param device The BluetoothDevice to connect
+     * @param id Session handle, device address, or null for the first device
+     * @return The session, or null if the device has none
+     * @throws IllegalArgumentException if id is a stale session handle
      */
-    synchronized void connect(BluetoothDevice device) {
-
-        if (debugMode) Log.d(TAG, "connect to: " + device);
-
-        String id = device.getAddress();
+    @Nullable
+    DeviceSession getSession(@Nullable String id) {
+        return mConnector.getSession(id);
+    }
 
-        try {
-            cancelConnectThread(id); // Cancel any thread attempting to make a connection
-        } catch (Exception e1) {
-            Log.e(TAG, "Error on cancelConnectThread " + id, e1);
-            mModule.onError(e1, id, "RCTBluetoothSerialService.connect.catch.01");
-        }
+    /**
+     * Like {@link #getSession(String)}, but creates the session of a device
+     * address that has none yet, so settings can be made before connecting.
+     * Sessions are kept until released, so only well-formed addresses get one.
+     *
+     * @param id Session handle, device address, or null for the first device
+     * @return The session, null only if id is null and no device is connected
+     * @throws IllegalArgumentException if id is a stale session handle or not
+     * a device address
+     */
+    @Nullable
+    DeviceSession getOrCreateSession(@Nullable String id) {
+        DeviceSession session = mConnector.getSession(id);
 
-        try {
-        cancelConnectedThread(id); // Cancel any thread currently running a connection
-        } catch (Exception e2) {
-            Log.e(TAG, "Error on cancelConnectedThread " + id, e2);
-            mModule.onError(e2, id, "RCTBluetoothSerialService.connect.catch.02");
+        if (session != null || id == null || SessionRegistry.isHandle(id)) {
+            return session;
         }
 
-        try {
-        // Start the thread to connect with the given device
-        ConnectThread thread = new ConnectThread(device);
-        thread.start();
-        if (mConnectedThreads.isEmpty()) {
-            mFirstDeviceAddress = id;
-        }
-        mConnectThreads.put(id, thread);
-        } catch (Exception e3) {
-            Log.e(TAG, "Error on Start thread to connect with the given device " + id, e3);
-            mModule.onError(e3, id, "RCTBluetoothSerialService.connect.catch.03");
+        if (!BluetoothAdapter.checkBluetoothAddress(id)) {
+            throw new IllegalArgumentException(id + " is not a valid device address");
         }
 
-try {
-        mStates.put(id, STATE_CONNECTING);
- } catch (Exception e7) {
-            Log.e(TAG, "Error on mStates.put(id, STATE_CONNECTING) " + id, e7);
-            mModule.onError(e7, id, "RCTBluetoothSerialService.connect.catch.04");
-        }
+        return mConnector.getOrCreateSession(id);
     }
 
     /**
-     * Check whether service is connected to device
+     * Connect to a remote device.
      *
-     * @param id Device address
-     * @return Is connected to device
+     * @param device    The BluetoothDevice to connect
+     * @param timeoutMs Cancel the attempt after this many milliseconds, 0 for no deadline
+     * @return Session of the device
+     * @see DeviceConnector#connect(String, long)
      */
-    boolean isConnected(String id) {
-        if (debugMode) Log.d(TAG, "*** Service.isConnected *** " + id);
+    DeviceSession connect(BluetoothDevice device, long timeoutMs) {
 
-        return mStates.containsKey(id) && getState(id).equals(STATE_CONNECTED);
+        if (debugMode) Log.d(TAG, "connect to: " + device);
 
+        return mConnector.connect(device.getAddress(), timeoutMs);
     }
 
     /**
-     * Write to the ConnectedThread in an unsynchronized manner
+     * Set how a device is reconnected after its connection was lost
      *
-     * @param id  Device address
-     * @param out The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * @param session Device session
+     * @param policy  Reconnect policy, or null to stop reconnecting
      */
-    void write(String id, byte[] out) {
-        if (debugMode)
-            Log.d(TAG, "Write in service of device id " + id + ", state is " + STATE_CONNECTED);
-        ConnectedThread r = null; // Create temporary object
-
-        // Synchronize a copy of the ConnectedThread
-        synchronized (this) {
-            if (!isConnected(id)) {
-                return;
-            }
-
-            if (mConnectedThreads.containsKey(id)) {
-                r = mConnectedThreads.get(id);
-            }
-        }
-
-        if (r != null) {
-            r.write(out); // Perform the write unsynchronized
-        } else {
-            Log.e(TAG, "Unable to write, connected thread is null");
-            mModule.onError(new Exception(("Unable to write, connected thread is null")), id, "RCTBluetoothSerialService.write.catch.01");
-        }
+    void setReconnectPolicy(DeviceSession session, @Nullable ReconnectPolicy policy) {
+        mConnector.setReconnectPolicy(session, policy);
     }
 
     /**
-     * Stop threads of a specific device
+     * Pause reconnecting while the adapter is off, resume once it is on.
      *
-     * @param id Device address
+     * @param enabled Whether the adapter is on
      */
-    synchronized void stop(String id) {
-        if (debugMode) Log.d(TAG, "Stop device id " + id);
-
-        cancelConnectThread(id);
-        cancelConnectedThread(id);
+    void onAdapterStateChanged(boolean enabled) {
+        if (debugMode) Log.d(TAG, "Bluetooth is " + (enabled ? "on" : "off") + ", update reconnecting devices");
 
-        mStates.put(id, STATE_NONE);
-
-        if (id == mFirstDeviceAddress) {
-            mFirstDeviceAddress = null;
-        }
+        mConnector.onAdapterStateChanged(enabled);
     }
 
-    /**
-     * Stop all threads of all devices
-     */
-    synchronized void stopAll() {
-        if (debugMode) Log.d(TAG, "Stop all devices");
-
-        for (Map.Entry<String, ConnectThread> item : mConnectThreads.entrySet()) {
-            ConnectThread thread = mConnectThreads.get(item.getKey());
-
-            if (thread != null) {
-                thread.cancel();
-            }
-        }
-
-        mConnectThreads.clear();
-
-        for (Map.Entry<String, ConnectedThread> item : mConnectedThreads.entrySet()) {
-            ConnectedThread thread = mConnectedThreads.get(item.getKey());
-
-            if (thread != null) {
-                thread.cancel();
-            }
-        }
-
-        mConnectedThreads.clear();
-
-        for (Map.Entry<String, String> item : mStates.entrySet()) {
-            mStates.put(item.getKey(), STATE_NONE);
-        }
-
-        mFirstDeviceAddress = null;
-    }
 
     /**
-     * Return the current connection state.
+     * Queue bytes on the writer of the connection. Does not lock.
      *
-     * @param id Device address
+     * @param session  Device session
+     * @param out      The bytes to write, must not be modified until the callback
+     * @param offset   Offset of the first byte in out
+     * @param length   Number of bytes to write
+     * @param callback Write completion
+     * @see DeviceConnector#write(DeviceSession, byte[], int, int, ConnectionWriter.Callback)
      */
-    private synchronized String getState(String id) {
-        return mStates.get(id);
+    void write(DeviceSession session, byte[] out, int offset, int length, ConnectionWriter.Callback callback) {
+        if (debugMode)
+            Log.d(TAG, "Write in service of device id " + session.getId() + ", " + length + " bytes");
+
+        mConnector.write(session, out, offset, length, callback);
     }
 
     /**
-     * Start the ConnectedThread to begin managing a Bluetooth connection
+     * Stop threads of a specific device and forget its session. Handles of
+     * the session go stale.
      *
-     * @param socket The BluetoothSocket on which the connection was made
-     * @param device The BluetoothDevice that has been connected
+     * @param session Device session
      */
-    private synchronized void connectionSuccess(BluetoothSocket socket, BluetoothDevice device) {
-        String id = device.getAddress();
-
-        if (debugMode) Log.d(TAG, "Connected to device id " + id);
+    void release(DeviceSession session) {
+        if (debugMode) Log.d(TAG, "Stop device id " + session.getId());
 
-        cancelConnectThread(id); // Cancel any thread attempting to make a connection
-        cancelConnectedThread(id); // Cancel any thread currently running a connection
-
-        // Start the thread to manage the connection and perform transmissions
-        ConnectedThread thread = new ConnectedThread(socket, device);
-        thread.start();
-
-        mConnectedThreads.put(id, thread);
-        mModule.onConnectionSuccess("Connected to " + device.getName(), device);
-
-        if (mStates.containsKey(id)) {
-            String oldState = mStates.get(id);
-            if (debugMode) Log.d(TAG, "Device id " + id + " setState() " + oldState + " -> " + STATE_CONNECTED);
-            mStates.put(id, STATE_CONNECTED);
-        }
+        mConnector.release(session);
     }
 
     /**
-     * Indicate that the connection attempt failed and notify the UI Activity.
-     *
-     * @param device The BluetoothDevice that has been failed to connect
+     * Stop all threads of all devices and forget their sessions
      */
-    private void connectionFailed(BluetoothDevice device) {
-        /**
-         *
-         */
-        String deviceId = "";
-        try {
-            deviceId = device.getAddress();
-        } catch (Exception e) {
-            mModule.onError(e, "", "RCTBluetoothSerialService.connectionFailed.catch.01");
-            Log.e(TAG, "*** connectionFailed - Unable to get deviceId", e);
-        }
-        /**
-         *
-         */
-        try {
-            mModule.onConnectionFailed("Unable to connect to device", device); // Send a failure message with device
-            RCTBluetoothSerialService.this.stop(deviceId); // Start the service over to restart listening mode
-        } catch (Exception e) {
-            mModule.onError(e, deviceId, "RCTBluetoothSerialService.connectionFailed.catch.02");
-            Log.e(TAG, "*** connectionFailed - Unable to connect to device", e);
-        }
+    void stopAll() {
+        if (debugMode) Log.d(TAG, "Stop all devices");
+
+        mConnector.stopAll();
     }
 
     /**
-     * Indicate that the connection was lost and notify the UI Activity.
-     *
-     * @param device The BluetoothDevice that has been lost
+     * @return Live view of all device sessions
      */
-    private void connectionLost(BluetoothDevice device) {
-        /**
-         *
-         */
-        String deviceId = "";
-        try {
-            deviceId = device.getAddress();
-        } catch (Exception e) {
-            mModule.onError(e, "", "RCTBluetoothSerialService.connectionLost.catch.01");
-            Log.e(TAG, "*** connectionLost - Unable to get deviceId", e);
-        }
-        /**
-         *
-         */
-        try {
-            mModule.onConnectionLost("Device connection was lost", device); // Send a failure message
-            RCTBluetoothSerialService.this.stop(deviceId); // Start the service over to restart listening mode
-        } catch (Exception e) {
-            mModule.onError(e, deviceId, "RCTBluetoothSerialService.connectionLost.catch.02");
-            Log.e(TAG, "*** connectionLost - Device connection was lost", e);
-        }
+    Collection<DeviceSession> getSessions() {
+        return mConnector.getSessions();
     }
 
     /**
-     * Cancel connect thread
-     *
-     * @param id Device address
+     * @return Thread pools used for connecting and I/O
      */
-    private void cancelConnectThread(String id) {
-        if (mConnectThreads.containsKey(id)) {
-            ConnectThread thread = mConnectThreads.get(id);
-
-            if (thread != null) {
-                thread.cancel();
-                mConnectThreads.remove(id);
-            }
-        }
+    SerialExecutors getExecutors() {
+        return mConnector.getExecutors();
     }
 
     /**
-     * Cancel connected thread
-     *
-     * @param id Device address
+     * @param address Device address
+     * @return The device, as the module resolves it
      */
-    private void cancelConnectedThread(String id) {
-        if (mConnectedThreads.containsKey(id)) {
-            ConnectedThread thread = mConnectedThreads.get(id);
-
-            if (thread != null) {
-                thread.cancel();
-                mConnectedThreads.remove(id);
-            }
-        }
+    private BluetoothDevice getDevice(String address) {
+        return mAdapter.getRemoteDevice(address);
     }
 
     /**
-     * This thread runs while attempting to make an outgoing connection with a
-     * device. It runs straight through; the connection either succeeds or fails.
+     * Reports the events of the connector to the module
      */
-    private class ConnectThread extends Thread {
-        private BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
-        /**
-         *
-         */
-        private String deviceId;
-        /**
-         *
-         */
+    private class ConnectorListener implements DeviceConnector.Listener {
+        @Override
+        public void onConnected(DeviceSession session) {
+            if (debugMode) Log.d(TAG, "Connected to device id " + session.getId());
 
-        ConnectThread(BluetoothDevice device) {
-            if (debugMode) Log.d(TAG, "Create ConnectThread");
-
-            mmDevice = device;
-            /**
-             * @todo add try catch
-             */
-            deviceId = mmDevice.getAddress();
-            /**
-             *
-             */
-            BluetoothSocket tmp = null;
-
-            // Get a BluetoothSocket for a connection with the given BluetoothDevice
-            try {
-                tmp = device.createRfcommSocketToServiceRecord(UUID_SPP);
-            } catch (Exception e) {
-                mModule.onError(e, deviceId, "ConnectThread.constructor.catch.01");
-                Log.e(TAG, "Socket create() failed", e);
-            }
-            mmSocket = tmp;
+            BluetoothDevice device = getDevice(session.getId());
+            mModule.onConnectionSuccess("Connected to " + device.getName(), device, session);
         }
 
-        public void run() {
-            if (debugMode) Log.d(TAG, "Begin mConnectThread");
-            setName("ConnectThread");
-
-            // Always cancel discovery because it will slow down a connection
-            mAdapter.cancelDiscovery();
-
-            // Make a connection to the BluetoothSocket
-            try {
-                // This is a blocking call and will only return on a successful connection
-                // or an exception
-                if (debugMode) Log.d(TAG, "Connecting to socket...");
-                mmSocket.connect();
-                if (debugMode) Log.d(TAG, "Connected");
-            } catch (Exception e) {
-                Log.e(TAG, e.toString());
-                mModule.onError(e, deviceId, "ConnectThread.run.catch.01");
-
-                // Some 4.1 devices have problems, try an alternative way to connect
-                // See https://github.com/don/RCTBluetoothSerialModule/issues/89
-                try {
-                    Log.i(TAG, "Trying fallback...");
-                    mmSocket = (BluetoothSocket) mmDevice.getClass()
-                            .getMethod("createRfcommSocket", new Class[] { int.class }).invoke(mmDevice, 1);
-                    mmSocket.connect();
-                    Log.i(TAG, "Connected");
-                } catch (Exception e2) {
-                    Log.e(TAG, e.toString());
-                    mModule.onError(e, deviceId, "ConnectThread.run.catch.02");
-
-                    // Fallback to insecure socket
-                    try {
-                        Log.i(TAG, "Trying fallback to insecure socket...");
-                        mmSocket = createInsecureBluetoothSocket(mmDevice);
-                        mmSocket.connect();
-                    } catch (Exception e3) {
-                        Log.e(TAG, "Couldn't establish a Bluetooth connection.");
-                        mModule.onError(e3, deviceId, "ConnectThread.run.catch.03");
-                        try {
-                            mmSocket.close();
-                        } catch (Exception e4) {
-                            Log.e(TAG, "unable to close() socket during connection failure", e4);
-                            mModule.onError(e4, deviceId, "ConnectThread.run.catch.04");
-                        }
-                        try {
-                            connectionFailed(mmDevice);
-                        } catch (Exception e5) {
-                            Log.e(TAG, "connectionFailed failed", e5);
-                            mModule.onError(e5, deviceId, "ConnectThread.run.catch.05");
-                        }
-                        return;
-                    }
-                }
-            }
-
-            // Reset the ConnectThread because we're done
-            synchronized (RCTBluetoothSerialService.this) {
-                mConnectThreads.remove(mmDevice.getAddress());
-            }
-
-            connectionSuccess(mmSocket, mmDevice); // Start the connected thread
+        @Override
+        public void onConnectFailed(DeviceSession session, Exception error) {
+            Log.e(TAG, "Connect to device id " + session.getId() + " failed: " + error.getMessage());
+            mModule.onConnectionFailed(error, getDevice(session.getId()));
         }
 
-        void cancel() {
-            try {
-                mmSocket.close();
-            } catch (Exception e) {
-                Log.e(TAG, "close() of connect socket failed", e);
-                mModule.onError(e, deviceId, "ConnectThread.cancel.catch.01");
-            }
+        @Override
+        public void onConnectionLost(DeviceSession session) {
+            if (debugMode) Log.d(TAG, "Connection to device id " + session.getId() + " was lost");
+            mModule.onConnectionLost("Device connection was lost", getDevice(session.getId()));
         }
 
-        private BluetoothSocket createInsecureBluetoothSocket(BluetoothDevice device) throws IOException {
-            if (Build.VERSION.SDK_INT >= 10) {
-                try {
-                    final Method m = device.getClass().getMethod("createInsecureRfcommSocketToServiceRecord",
-                            new Class[] { UUID.class });
-                    return (BluetoothSocket) m.invoke(device, UUID_SPP);
-                } catch (Exception e) {
-                    Log.e(TAG, "Could not create Insecure RFComm Connection", e);
-                }
-            }
-            return device.createRfcommSocketToServiceRecord(UUID_SPP);
+        @Override
+        public void onReconnecting(DeviceSession session, int attempt, long delayMs) {
+            if (debugMode) Log.d(TAG, "Reconnect device id " + session.getId() + " in " + delayMs + " ms, attempt " + attempt);
+            mModule.onReconnecting(getDevice(session.getId()), session, attempt, delayMs);
         }
-    }
 
-    /**
-     * This thread runs during a connection with a remote device. It handles all
-     * incoming and outgoing transmissions.
-     */
-    private class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
-        private final InputStream mmInStream;
-        private final OutputStream mmOutStream;
-        /**
-         *
-         */
-        private String deviceId;
-        /**
-         *
-         */
-
-        ConnectedThread(BluetoothSocket socket, BluetoothDevice device) {
-            if (debugMode) Log.d(TAG, "Create ConnectedThread");
-            mmSocket = socket;
-            mmDevice = device;
-            /**
-             *
-             */
-            deviceId = mmDevice.getAddress();
-            /**
-             *
-             */
-            InputStream tmpIn = null;
-            OutputStream tmpOut = null;
-
-            // Get the BluetoothSocket input and output streams
-            try {
-                tmpIn = socket.getInputStream();
-                tmpOut = socket.getOutputStream();
-            } catch (Exception e) {
-                Log.e(TAG, "temp sockets not created", e);
-                mModule.onError(e, deviceId, "ConnectedThread.constructor.catch.01");
-            }
-
-            mmInStream = tmpIn;
-            mmOutStream = tmpOut;
+        @Override
+        public void onData(DeviceSession session, byte[] data, int offset, int length) {
+            mModule.onData(session, data, offset, length);
         }
 
-        public void run() {
-            Log.i(TAG, "Begin mConnectedThread");
-            byte[] buffer = new byte[1024];
-            int bytes;
-            String id = mmDevice.getAddress();
-            // Keep listening to the InputStream while connected
-            while (true) {
-                buffer = new byte[1024]; // free and reset
-                try {
-                    bytes = mmInStream.read(buffer); // Read from the InputStream
-                    /*
-                     *
-                     */
-                    byte[] receiverData =  Arrays.copyOfRange(buffer, 0, bytes);
-                    Log.i(TAG, "*** Mac " + id + " *** Bytes " + bytes + " *** " + new String(receiverData, "ISO-8859-1") );
-//                    Log.i(TAG, Arrays.toString(receiverData));
-
-                    mModule.onData(id,  receiverData);
-
-                    // int[] intArray = { 7, 9, 5, 1, 3 };
-// System.out.println();
-                     //Infobiotech Bluetooth protocol by GIOVANNI
-//             int packLength = -1;
-//             try{
-//                 byte[] packLengthBytes = {buffer[0], buffer[1]};
-//                 packLength = (int) ByteBuffer.wrap(packLengthBytes).order(ByteOrder.BIG_ENDIAN).getShort();
-//             }catch(Exception e){
-//                   Log.e(TAG, "Error parsing packet length in header: " + e.getMessage(), e);
-//                   mModule.onError(new Exception("Device "+id+". Error parsing packet length in header: " + e.getMessage()), deviceId, "ConnectedThread.run.catch.01");
-//             }
-             /**
-              *
-              */
-//             if(bytes < packLength){
-//                 Log.e(TAG, "data length mismatch bytes = " + bytes + " less than packLength = " + packLength);
-//                 mModule.onError(new Exception("Device "+id+". Data length mismatch bytes = " + bytes + " less than packLength = " + packLength), deviceId, "ConnectedThread.run.packLengthCheck");
-//                 // byte[] realBuffer1 = new byte[1];
-//                 // mModule.onData(id, realBuffer1);
-//             }
-             /*
-             else if(bytes > packLength){
-                 Log.e(TAG, "data length mismatch bytes = " + bytes + "  packLength = " + packLength);
-                 mModule.onError(new Exception("Device "+id+". Data length mismatch bytes = " + bytes + " >  packLength = " + packLength), id);
-                 // byte[] realBuffer1 = new byte[1];
-                 // mModule.onData(id, realBuffer1);
-             }
-             */
-//             else { // >= case
-//                 /*
-//
-//                  */
-//                  int shift = 0;
-//                    do {
-//
-//                        byte[] realBuffer = new byte[packLength];
-//                        for (int index = 0; index < packLength; index++) {
-//                        realBuffer[index] = buffer[index+shift];
-//                        }
-//                        /*
-//
-//                            */
-//                            //ArrayList<byte[]> messageArrayListItem = new ArrayList<>();
-//                            //messageArrayListItem.add(realBuffer);
-//                        // String data = new String(buffer, 0, bytes, "ISO-8859-1");
-//                        mModule.onData(id, realBuffer/* ALE data */); // Send the new data String to the UI Activity
-//
-//            shift += packLength;
-//            packLength = 0;
-//
-//             try{
-//
-//                 byte[] packLengthBytes = {buffer[shift], buffer[shift+1]};
-//                 packLength = (int) ByteBuffer.wrap(packLengthBytes).order(ByteOrder.BIG_ENDIAN).getShort();
-//
-//             }catch(Exception e){
-//
-//                   Log.e(TAG, "Error parsing leftover packet length in header: " + e.getMessage(), e);
-//                   mModule.onError(new Exception("Device "+id+". Error parsing leftover packet length in header: " + e.getMessage()), deviceId, "ConnectedThread.run.catch.02");
-//
-//             }
-//
-//
-//
-//                    }while(packLength > 0);
-//                 /*
-//
-//                  */
-//
-//                  /*
-//
-//                  */
-//             }
-/*
-             int cmd=-1;
-             try{
-                 byte[] cmdBytes = {buffer[3], buffer[4]};
-                 cmd = (int) ByteBuffer.wrap(cmdBytes).order(ByteOrder.BIG_ENDIAN).getShort();
-             }catch(Exception e){
-                 GR_system.globalLogger.exception(231, "BluetoothConnectThread", "Exception parsing command code: "+e.getMessage(), e);
-             }
-*/
-
-
-
-
-
-                    /*
-
-                     *
-                    if (bytes != messageLength) {
-                      Log.e(TAG, "data length mismatch");
-                      mModule.onError(new Exception("data length mismatch bytes = " + bytes + "  messageLength = " + messageLength));
-                    }
-                    else {
-                    }
-/*
- *
- */
-                } catch (Exception e) {
-                    Log.e(TAG, "disconnected", e);
-                    mModule.onError(e, deviceId, "ConnectedThread.run.catch.03");
-                    connectionLost(mmDevice);
-                    break;
-                }
-            }
+        @Override
+        public void onError(Exception e, String id, String tag) {
+            Log.e(TAG, "Error of device id " + id + " at " + tag, e);
+            mModule.onError(e, id, tag);
         }
 
         /**
-         * Write to the connected OutStream.
-         *
-         * @param buffer The bytes to write
+         * @return Whether links are RFCOMM sockets and the adapter is off.
+         * Other transports never wait for the adapter.
          */
-        void write(byte[] buffer) {
-            try {
-                String str = new String(buffer, "UTF-8");
-                if (debugMode) Log.d(TAG, "Write in thread " + str);
-                mmOutStream.write(buffer);
-            } catch (Exception e) {
-                Log.e(TAG, "Exception during write", e);
-                mModule.onError(e, deviceId, "ConnectedThread.write.catch.01");
-            }
-        }
-
-        void cancel() {
-            try {
-                mmSocket.close();
-            } catch (Exception e) {
-                Log.e(TAG, "close() of connect socket failed", e);
-                mModule.onError(e, deviceId, "ConnectedThread.cancel.catch.01");
-            }
+        @Override
+        public boolean isRadioOff() {
+            return mTransports instanceof RfcommTransport.Factory && (mAdapter == null || !mAdapter.isEnabled());
         }
     }
 }
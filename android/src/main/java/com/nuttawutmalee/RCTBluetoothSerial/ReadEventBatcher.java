@@ -0,0 +1,146 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides when buffered data of a device in push mode is flushed to JS.
+ *
+ * A flush happens as soon as the buffer holds {@code maxBytes} bytes or
+ * {@code maxFrames} frames, and at the latest {@code maxLatencyMs} after the
+ * first byte that has not been flushed yet. A flush on a threshold delivers
+ * the buffered data even when it holds no complete message, so data that
+ * never completes one is not held back. When a flush leaves data behind,
+ * the timer starts again for what is left. Flushes always run on the
+ * scheduler, never on the reader thread that reports the data, so reading is
+ * not held up by building the event. A threshold flush and the timer may
+ * race; the listener must treat an empty buffer as a no-op.
+ */
+class ReadEventBatcher {
+    static final int DEFAULT_MAX_BYTES = 4096;
+    static final int DEFAULT_MAX_FRAMES = 0;
+    static final long DEFAULT_MAX_LATENCY_MS = 50;
+
+    /**
+     * Receiver of flush requests
+     */
+    interface Listener {
+        /**
+         * @param id        Device address whose buffer should be flushed
+         * @param threshold Whether a threshold was reached. Buffered data
+         *                  that forms no complete message is flushed then too.
+         * @return Whether data was flushed and more is still buffered
+         */
+        boolean onFlush(String id, boolean threshold);
+    }
+
+    private final String mId;
+    private final int mMaxBytes;
+    private final int mMaxFrames;
+    private final long mMaxLatencyMs;
+    private final ScheduledExecutorService mScheduler;
+    private final Listener mListener;
+
+    private final AtomicBoolean mTimerPending = new AtomicBoolean(false);
+    private final AtomicBoolean mFlushPending = new AtomicBoolean(false);
+    private volatile ScheduledFuture<?> mTimer;
+    private volatile boolean mCancelled = false;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            mTimerPending.set(false);
+            if (!mCancelled && mListener.onFlush(mId, false)) {
+                startTimer();
+            }
+        }
+    };
+
+    private final Runnable mImmediateFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            mFlushPending.set(false);
+            if (!mCancelled && mListener.onFlush(mId, true)) {
+                startTimer();
+            }
+        }
+    };
+
+    /**
+     * @param id           Device address
+     * @param maxBytes     Flush once this many bytes are buffered, 0 to disable
+     * @param maxFrames    Flush once this many frames are buffered, 0 to disable
+     * @param maxLatencyMs Longest time data may wait before it is flushed
+     * @param scheduler    Scheduler running the latency timer
+     * @param listener     Performs the flush
+     */
+    ReadEventBatcher(String id, int maxBytes, int maxFrames, long maxLatencyMs,
+                     ScheduledExecutorService scheduler, Listener listener) {
+        mId = id;
+        mMaxBytes = maxBytes;
+        mMaxFrames = maxFrames;
+        mMaxLatencyMs = Math.max(0, maxLatencyMs);
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    /**
+     * Called after new data was buffered. Never blocks.
+     *
+     * @param available Bytes currently buffered, may be an estimate
+     * @param frames    Complete frames currently buffered, may be an estimate
+     */
+    void onData(int available, int frames) {
+        if (mCancelled || available <= 0) {
+            return;
+        }
+
+        if ((mMaxBytes > 0 && available >= mMaxBytes) || (mMaxFrames > 0 && frames >= mMaxFrames)) {
+            ScheduledFuture<?> timer = mTimer;
+            if (timer != null && mTimerPending.compareAndSet(true, false)) {
+                timer.cancel(false);
+            }
+            if (mFlushPending.compareAndSet(false, true)) {
+                try {
+                    mScheduler.execute(mImmediateFlushTask);
+                } catch (Exception e) {
+                    mFlushPending.set(false);
+                    mListener.onFlush(mId, true);
+                }
+            }
+            return;
+        }
+
+        startTimer();
+    }
+
+    /**
+     * Flush after the latency unless a flush is already scheduled
+     */
+    private void startTimer() {
+        if (mCancelled || !mTimerPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            mTimer = mScheduler.schedule(mFlushTask, mMaxLatencyMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            mTimerPending.set(false);
+            mListener.onFlush(mId, false);
+        }
+    }
+
+    /**
+     * Stop flushing, e.g. when push mode is turned off
+     */
+    void cancel() {
+        mCancelled = true;
+
+        ScheduledFuture<?> timer = mTimer;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+}
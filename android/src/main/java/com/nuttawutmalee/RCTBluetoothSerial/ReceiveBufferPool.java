@@ -0,0 +1,94 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+/**
+ * Per-connection pool of receive buffers whose read size adapts to the
+ * observed throughput.
+ *
+ * Buffers come in power-of-two size classes from {@link #MIN_READ_SIZE} to
+ * {@link #MAX_READ_SIZE}. A read that fills its buffer completely bumps the
+ * read size to the next class, so a busy link needs fewer read() calls; a run
+ * of mostly empty reads steps it back down. Released buffers are kept per size
+ * class and handed out again, so the steady state allocates nothing.
+ */
+class ReceiveBufferPool {
+    static final int MIN_READ_SIZE = 1024;
+    static final int MAX_READ_SIZE = 64 * 1024;
+
+    private static final int MIN_SHIFT = 10; // log2(MIN_READ_SIZE)
+    private static final int CLASS_COUNT = 7; // 1 KB .. 64 KB
+    private static final int BUFFERS_PER_CLASS = 4;
+    private static final int SHRINK_AFTER = 32; // consecutive small reads before shrinking
+
+    private final byte[][][] mFree = new byte[CLASS_COUNT][BUFFERS_PER_CLASS][];
+    private final int[] mFreeCount = new int[CLASS_COUNT];
+
+    private int mSizeClass = 0;
+    private int mSmallReads = 0;
+
+    /**
+     * @return Current adaptive read size in bytes
+     */
+    int getReadSize() {
+        return MIN_READ_SIZE << mSizeClass;
+    }
+
+    /**
+     * Take a buffer of the current read size, reusing a released one if possible
+     *
+     * @return Receive buffer
+     */
+    byte[] acquire() {
+        int sizeClass = mSizeClass;
+        int count = mFreeCount[sizeClass];
+
+        if (count > 0) {
+            byte[] buffer = mFree[sizeClass][--count];
+            mFree[sizeClass][count] = null;
+            mFreeCount[sizeClass] = count;
+            return buffer;
+        }
+
+        return new byte[MIN_READ_SIZE << sizeClass];
+    }
+
+    /**
+     * Give a buffer back to the pool and feed the read size heuristic
+     *
+     * @param buffer    Buffer previously returned by {@link #acquire()}
+     * @param bytesRead Number of bytes the last read put into it
+     */
+    void release(byte[] buffer, int bytesRead) {
+        adapt(buffer.length, bytesRead);
+
+        int sizeClass = sizeClassOf(buffer.length);
+
+        if (sizeClass >= 0 && mFreeCount[sizeClass] < BUFFERS_PER_CLASS) {
+            mFree[sizeClass][mFreeCount[sizeClass]++] = buffer;
+        }
+    }
+
+    private void adapt(int capacity, int bytesRead) {
+        if (bytesRead >= capacity) {
+            mSmallReads = 0;
+            if (mSizeClass < CLASS_COUNT - 1) {
+                mSizeClass++;
+            }
+        } else if (bytesRead < (capacity >> 2)) {
+            if (++mSmallReads >= SHRINK_AFTER && mSizeClass > 0) {
+                mSizeClass--;
+                mSmallReads = 0;
+            }
+        } else {
+            mSmallReads = 0;
+        }
+    }
+
+    private static int sizeClassOf(int length) {
+        if (Integer.bitCount(length) != 1) {
+            return -1;
+        }
+
+        int sizeClass = Integer.numberOfTrailingZeros(length) - MIN_SHIFT;
+        return sizeClass >= 0 && sizeClass < CLASS_COUNT ? sizeClass : -1;
+    }
+}
@@ -0,0 +1,72 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.Random;
+
+/**
+ * How a device is reconnected after its connection was lost.
+ *
+ * The n-th attempt of an outage waits
+ * {@code min(maxDelay, initialDelay * multiplier^(n - 1))}, shortened by a
+ * random share of up to {@code jitter} of that delay, so devices that dropped
+ * together do not all reconnect at the same moment.
+ */
+class ReconnectPolicy {
+    static final long DEFAULT_INITIAL_DELAY_MS = 500;
+    static final long DEFAULT_MAX_DELAY_MS = 30000;
+    static final double DEFAULT_MULTIPLIER = 2;
+    static final double DEFAULT_JITTER = 0.5;
+    static final int DEFAULT_MAX_ATTEMPTS = 0;
+
+    private final long mInitialDelayMs;
+    private final long mMaxDelayMs;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final int mMaxAttempts;
+    private final long mTimeoutMs;
+
+    /**
+     * @param initialDelayMs Delay before the first attempt
+     * @param maxDelayMs     Longest delay between attempts
+     * @param multiplier     Growth of the delay per attempt, at least 1
+     * @param jitter         Share of the delay that is randomized, 0 to 1
+     * @param maxAttempts    Attempts per outage, 0 for no limit
+     * @param timeoutMs      Deadline of each attempt, 0 for none
+     */
+    ReconnectPolicy(long initialDelayMs, long maxDelayMs, double multiplier, double jitter,
+                    int maxAttempts, long timeoutMs) {
+        mInitialDelayMs = Math.max(0, initialDelayMs);
+        mMaxDelayMs = Math.max(mInitialDelayMs, maxDelayMs);
+        mMultiplier = Math.max(1, multiplier);
+        mJitter = Math.min(1, Math.max(0, jitter));
+        mMaxAttempts = Math.max(0, maxAttempts);
+        mTimeoutMs = Math.max(0, timeoutMs);
+    }
+
+    /**
+     * @param attempt Attempt number within the outage, starting at 1
+     * @return Whether the attempt is beyond the limit
+     */
+    boolean isExhausted(int attempt) {
+        return mMaxAttempts > 0 && attempt > mMaxAttempts;
+    }
+
+    /**
+     * @param attempt Attempt number within the outage, starting at 1
+     * @param random  Source of the jitter
+     * @return Milliseconds to wait before the attempt
+     */
+    long getDelay(int attempt, Random random) {
+        double delay = mInitialDelayMs * Math.pow(mMultiplier, Math.max(0, attempt - 1));
+        delay = Math.min(delay, mMaxDelayMs);
+
+        return (long) (delay - delay * mJitter * random.nextDouble());
+    }
+
+    int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    long getTimeout() {
+        return mTimeoutMs;
+    }
+}
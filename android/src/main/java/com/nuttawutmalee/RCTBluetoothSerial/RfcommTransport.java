@@ -0,0 +1,129 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+import static com.nuttawutmalee.RCTBluetoothSerial.RCTBluetoothSerialPackage.TAG;
+
+/**
+ * Transport over an RFCOMM {@link BluetoothSocket} to the serial port
+ * profile of a device
+ */
+class RfcommTransport implements SerialTransport {
+    // UUIDs
+    private static final UUID UUID_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    /**
+     * Creates the socket of each connect strategy
+     */
+    static class Factory implements SerialTransport.Factory {
+        private final BluetoothAdapter mAdapter;
+
+        Factory(BluetoothAdapter adapter) {
+            mAdapter = adapter;
+        }
+
+        @Override
+        public SerialTransport create(String address, ConnectStrategyCache.Entry attempt) throws Exception {
+            BluetoothDevice device = mAdapter.getRemoteDevice(address);
+            return new RfcommTransport(mAdapter, createSocket(device, attempt), address);
+        }
+
+        private BluetoothSocket createSocket(BluetoothDevice device, ConnectStrategyCache.Entry attempt) throws Exception {
+            switch (attempt.strategy) {
+                case SECURE_CHANNEL:
+                    return (BluetoothSocket) device.getClass()
+                            .getMethod("createRfcommSocket", new Class[] { int.class }).invoke(device, attempt.channel);
+                case INSECURE_SERVICE:
+                    return createInsecureBluetoothSocket(device);
+                case INSECURE_CHANNEL:
+                    return (BluetoothSocket) device.getClass()
+                            .getMethod("createInsecureRfcommSocket", new Class[] { int.class }).invoke(device, attempt.channel);
+                case SECURE_SERVICE:
+                default:
+                    return device.createRfcommSocketToServiceRecord(UUID_SPP);
+            }
+        }
+
+        private BluetoothSocket createInsecureBluetoothSocket(BluetoothDevice device) throws IOException {
+            if (Build.VERSION.SDK_INT >= 10) {
+                try {
+                    final Method m = device.getClass().getMethod("createInsecureRfcommSocketToServiceRecord",
+                            new Class[] { UUID.class });
+                    return (BluetoothSocket) m.invoke(device, UUID_SPP);
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not create Insecure RFComm Connection", e);
+                }
+            }
+            return device.createRfcommSocketToServiceRecord(UUID_SPP);
+        }
+    }
+
+    private final BluetoothAdapter mAdapter;
+    private final BluetoothSocket mSocket;
+    private final String mAddress;
+
+    /**
+     * @param adapter Adapter whose discovery is cancelled before connecting
+     * @param socket  Unconnected socket
+     * @param address Device address
+     */
+    RfcommTransport(BluetoothAdapter adapter, BluetoothSocket socket, String address) {
+        mAdapter = adapter;
+        mSocket = socket;
+        mAddress = address;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        // Always cancel discovery because it will slow down a connection
+        mAdapter.cancelDiscovery();
+
+        // This is a blocking call and will only return on a successful connection
+        // or an exception
+        mSocket.connect();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    /**
+     * Read the RFCOMM channel SDP resolved for the connected socket
+     *
+     * @return Channel, or -1 if the platform does not expose it
+     */
+    @Override
+    public int getChannel() {
+        try {
+            Field port = BluetoothSocket.class.getDeclaredField("mPort");
+            port.setAccessible(true);
+            int channel = port.getInt(mSocket);
+            return channel > 0 && channel <= 30 ? channel : -1; // RFCOMM channels are 1 - 30
+        } catch (Exception e) {
+            if (RCTBluetoothSerialService.debugMode) Log.d(TAG, "Unable to read RFCOMM channel of " + mAddress + ": " + e);
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
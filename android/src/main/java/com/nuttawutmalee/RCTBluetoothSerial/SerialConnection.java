@@ -0,0 +1,271 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * The I/O of one connected link: reads all incoming data into the device's
+ * buffer and owns the writer that handles outgoing transmissions.
+ *
+ * The link is read either by {@link #run()} on a thread of its own, or by
+ * {@link #poll()} from the shared polling pool. Nothing here depends on
+ * Android, so the read and write path can run on a plain JVM over a
+ * {@link LoopbackTransport}; the service handles everything that does
+ * through the {@link Listener}.
+ */
+class SerialConnection implements Runnable, PollingReader.Source {
+
+    /**
+     * The owner of the connection
+     */
+    interface Listener {
+        /**
+         * @param connection A connection of the device
+         * @return Whether it is the current connection of the device. A reader
+         * that outlived its connection must not touch a newer one, so what it
+         * reads is dropped.
+         */
+        boolean isCurrent(SerialConnection connection);
+
+        /**
+         * @return Limit of the receive buffer of the device
+         */
+        BufferLimits.Limit getBufferLimit();
+
+        /**
+         * Bytes were read. Reader thread only.
+         *
+         * @param connection The connection
+         * @param data       Read buffer, only valid during the call
+         * @param offset     Offset of the first byte
+         * @param length     Number of bytes
+         */
+        void onData(SerialConnection connection, byte[] data, int offset, int length);
+
+        /**
+         * Reading the link failed. A blocking reader also reports the failed
+         * read of a link closed by {@link #cancel()}; the polling reader does
+         * not.
+         *
+         * @param connection The connection
+         */
+        void onLost(SerialConnection connection);
+
+        /**
+         * @param e   The error
+         * @param tag Where the error was caught
+         */
+        void onError(Exception e, String tag);
+    }
+
+    private final SerialTransport mSocket;
+    private final String mAddress;
+    private final DeviceBuffer mBuffer;
+    private final ConnectionStats mStats;
+    private final BufferLimits mLimits;
+    private final Tracer mTracer;
+    private final Listener mListener;
+    private final InputStream mInStream;
+    private final ConnectionWriter mWriter;
+    private final ReceiveBufferPool mPool = new ReceiveBufferPool();
+    private final Object mDeliveryLock = new Object(); // held while read data is handed to the listener
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param socket   Connected transport
+     * @param address  Device address
+     * @param buffer   Receive buffer of the device
+     * @param stats    Statistics of the device
+     * @param limits   Limits the receive buffer counts towards
+     * @param tracer   Records reads, writes and pauses
+     * @param executor Runs the writer
+     * @param listener Owner of the connection
+     */
+    SerialConnection(SerialTransport socket, String address, DeviceBuffer buffer, ConnectionStats stats,
+                     BufferLimits limits, Tracer tracer, Executor executor, Listener listener) {
+        mSocket = socket;
+        mAddress = address;
+        mBuffer = buffer;
+        mStats = stats;
+        mLimits = limits;
+        mTracer = tracer;
+        mListener = listener;
+
+        InputStream tmpIn = null;
+        OutputStream tmpOut = null;
+
+        // Get the transport input and output streams
+        try {
+            tmpIn = socket.getInputStream();
+            tmpOut = socket.getOutputStream();
+        } catch (Exception e) {
+            listener.onError(e, "ConnectedThread.constructor.catch.01");
+        }
+
+        mInStream = tmpIn;
+        mWriter = new ConnectionWriter(tmpOut, ConnectionWriter.DEFAULT_QUEUE_CAPACITY, executor);
+    }
+
+    String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * Blocking reader mode: keep reading until the connection drops
+     */
+    @Override
+    public void run() {
+        // Keep listening to the InputStream while connected
+        while (true) {
+            try {
+                awaitBufferRoom();
+                readChunk(Integer.MAX_VALUE);
+            } catch (Exception e) {
+                mListener.onError(e, "ConnectedThread.run.catch.03");
+                mListener.onLost(this);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Polling reader mode: read what is available without blocking
+     */
+    @Override
+    public int poll() {
+        if (mClosed) {
+            return -1;
+        }
+
+        if (mLimits.isFull(mBuffer, mListener.getBufferLimit())) {
+            return 0; // Leave the data in the socket until JS caught up
+        }
+
+        try {
+            int available = mInStream.available();
+            return available > 0 ? readChunk(available) : 0;
+        } catch (Exception e) {
+            if (mClosed) {
+                return -1; // Closed locally, not a lost connection
+            }
+            mListener.onError(e, "ConnectedThread.poll.catch.01");
+            mListener.onLost(this);
+            return -1;
+        }
+    }
+
+    /**
+     * Stop reading while the receive buffer is at a limit with the PAUSE
+     * policy. Unread data then backs up in the socket and RFCOMM flow
+     * control stops the remote device from sending more.
+     */
+    private void awaitBufferRoom() throws InterruptedException {
+        if (!mLimits.isFull(mBuffer, mListener.getBufferLimit())) {
+            return;
+        }
+
+        long pausedAt = System.nanoTime();
+        mStats.onPaused();
+
+        while (!mClosed && !mLimits.hasRoom(mBuffer, mListener.getBufferLimit())) {
+            Thread.sleep(BufferLimits.PAUSE_CHECK_MS);
+        }
+
+        mTracer.record(Tracer.Kind.READ_PAUSED, mAddress, mBuffer.approximateAvailable(),
+                (System.nanoTime() - pausedAt) / 1000000);
+    }
+
+    /**
+     * Read once into a pooled buffer and hand the bytes to the listener
+     *
+     * @param limit Most bytes to read
+     * @return Number of bytes read
+     */
+    private int readChunk(int limit) throws IOException {
+        byte[] buffer = mPool.acquire(); // reused, sized from recent throughput
+        int bytes = 0;
+
+        try {
+            bytes = mInStream.read(buffer, 0, Math.min(limit, buffer.length)); // Read from the InputStream
+            if (bytes < 0) {
+                throw new IOException("End of input stream");
+            }
+
+            // Checked under the lock, so once cancel() returned nothing of this
+            // connection reaches the buffer and decoder its successor feeds
+            synchronized (mDeliveryLock) {
+                if (!mClosed && mListener.isCurrent(this)) {
+                    int buffered = mBuffer.approximateAvailable() + bytes;
+                    mTracer.record(Tracer.Kind.READ, mAddress, bytes, buffered);
+
+                    // Recorded first, so a flush that follows at once counts this read as pending
+                    mStats.onRead(bytes, buffered);
+                    mListener.onData(this, buffer, 0, bytes);
+                }
+            }
+            return bytes;
+        } finally {
+            mPool.release(buffer, bytes);
+        }
+    }
+
+    /**
+     * Queue bytes for the connected OutStream.
+     *
+     * @param buffer   The bytes to write
+     * @param offset   Offset of the first byte
+     * @param length   Number of bytes
+     * @param callback Write completion
+     */
+    void write(byte[] buffer, int offset, final int length, final ConnectionWriter.Callback callback) {
+        final long queuedAt = System.nanoTime();
+        mTracer.record(Tracer.Kind.WRITE, mAddress, length, 0);
+
+        boolean queued = mWriter.enqueue(buffer, offset, length, new ConnectionWriter.Callback() {
+            @Override
+            public void onWritten() {
+                long latencyNanos = System.nanoTime() - queuedAt;
+                mStats.onWritten(length, latencyNanos);
+                mTracer.record(Tracer.Kind.WRITTEN, mAddress, length, latencyNanos / 1000);
+                callback.onWritten();
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                mStats.onWriteFailed();
+                mTracer.record(Tracer.Kind.WRITE_FAILED, mAddress, length, 0);
+                mListener.onError(e, "ConnectedThread.write.catch.01");
+                callback.onFailed(e);
+            }
+        });
+
+        if (!queued) {
+            mStats.onWriteFailed();
+            mTracer.record(Tracer.Kind.WRITE_FAILED, mAddress, length, 0);
+            callback.onFailed(new IOException("Unable to queue write, write queue is full or connection is closed"));
+        }
+    }
+
+    /**
+     * Close the link and the writer. Returns once a delivery in progress is
+     * done; the reader hands no more data to the listener afterwards, so the
+     * device buffer and decoder can go to a new connection. Must not be
+     * called while holding a lock that {@link Listener#onData} takes.
+     */
+    void cancel() {
+        mClosed = true;
+        mWriter.close();
+
+        try {
+            mSocket.close();
+        } catch (Exception e) {
+            mListener.onError(e, "ConnectedThread.cancel.catch.01");
+        }
+
+        synchronized (mDeliveryLock) {
+            // Only waits for the reader to leave the lock
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools running the connect attempts and the per-connection I/O loops.
+ *
+ * Connect attempts run on a pool with bounded concurrency, extra attempts wait
+ * in its queue. Blocking readers and writer drains run on a cached pool whose
+ * named threads are reused across reconnects. Polled readers share a small
+ * scheduled pool, and deadlines run on a single timer thread. All pools are
+ * created on first use and recreated after {@link #shutdown()}.
+ */
+class SerialExecutors {
+    static final int DEFAULT_MAX_CONCURRENT_CONNECTS = 2;
+    static final int DEFAULT_POLLING_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private ThreadPoolExecutor mConnectExecutor;
+    private ThreadPoolExecutor mIoExecutor;
+    private ScheduledThreadPoolExecutor mPollingExecutor;
+    private ScheduledThreadPoolExecutor mTimer;
+    private int mMaxConcurrentConnects = DEFAULT_MAX_CONCURRENT_CONNECTS;
+    private int mPollingThreads = DEFAULT_POLLING_THREADS;
+
+    private final Executor mIoExecutorView = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            executeIo(task);
+        }
+    };
+
+    /**
+     * Run a connect attempt
+     *
+     * @param task Connect task
+     */
+    void executeConnect(Runnable task) {
+        getConnectExecutor().execute(task);
+    }
+
+    /**
+     * Run a reader or writer loop
+     *
+     * @param task I/O task
+     */
+    void executeIo(Runnable task) {
+        getIoPool().execute(task);
+    }
+
+    /**
+     * @return Executor submitting to the I/O pool, valid across shutdowns
+     */
+    Executor getIoExecutor() {
+        return mIoExecutorView;
+    }
+
+    /**
+     * Run a short task after a delay, e.g. when a deadline expires
+     *
+     * @param task    Task, must not block
+     * @param delayMs Delay in milliseconds
+     * @return Handle to cancel the task
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return getTimer().schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Scheduler shared by all polled readers
+     */
+    synchronized ScheduledExecutorService getPollingScheduler() {
+        if (mPollingExecutor == null) {
+            mPollingExecutor = new ScheduledThreadPoolExecutor(mPollingThreads,
+                    new NamedThreadFactory("BluetoothSerial-poll-"));
+        }
+
+        return mPollingExecutor;
+    }
+
+    /**
+     * Change how many threads service the polled readers
+     *
+     * @param pollingThreads At least 1
+     */
+    synchronized void setPollingThreads(int pollingThreads) {
+        if (pollingThreads < 1) {
+            throw new IllegalArgumentException("pollingThreads must be at least 1: " + pollingThreads);
+        }
+
+        mPollingThreads = pollingThreads;
+
+        if (mPollingExecutor != null) {
+            mPollingExecutor.setCorePoolSize(pollingThreads);
+        }
+    }
+
+    synchronized int getPollingThreads() {
+        return mPollingThreads;
+    }
+
+    /**
+     * Change how many connect attempts may run at the same time
+     *
+     * @param maxConcurrentConnects At least 1
+     */
+    synchronized void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        if (maxConcurrentConnects < 1) {
+            throw new IllegalArgumentException("maxConcurrentConnects must be at least 1: " + maxConcurrentConnects);
+        }
+
+        mMaxConcurrentConnects = maxConcurrentConnects;
+
+        if (mConnectExecutor != null) {
+            // Keep core <= max at every step
+            if (maxConcurrentConnects > mConnectExecutor.getMaximumPoolSize()) {
+                mConnectExecutor.setMaximumPoolSize(maxConcurrentConnects);
+                mConnectExecutor.setCorePoolSize(maxConcurrentConnects);
+            } else {
+                mConnectExecutor.setCorePoolSize(maxConcurrentConnects);
+                mConnectExecutor.setMaximumPoolSize(maxConcurrentConnects);
+            }
+        }
+    }
+
+    synchronized int getMaxConcurrentConnects() {
+        return mMaxConcurrentConnects;
+    }
+
+    /**
+     * @return Snapshot of the connect pool, null if it is not running
+     */
+    synchronized PoolStats getConnectStats() {
+        return mConnectExecutor != null ? new PoolStats(mConnectExecutor) : null;
+    }
+
+    /**
+     * @return Snapshot of the I/O pool, null if it is not running
+     */
+    synchronized PoolStats getIoStats() {
+        return mIoExecutor != null ? new PoolStats(mIoExecutor) : null;
+    }
+
+    /**
+     * @return Snapshot of the polling pool, null if it is not running
+     */
+    synchronized PoolStats getPollingStats() {
+        return mPollingExecutor != null ? new PoolStats(mPollingExecutor) : null;
+    }
+
+    /**
+     * Stop accepting work and interrupt running tasks. Tasks blocked on a
+     * socket only return once their socket is closed.
+     */
+    synchronized void shutdown() {
+        if (mConnectExecutor != null) {
+            mConnectExecutor.shutdownNow();
+            mConnectExecutor = null;
+        }
+
+        if (mIoExecutor != null) {
+            mIoExecutor.shutdownNow();
+            mIoExecutor = null;
+        }
+
+        if (mPollingExecutor != null) {
+            mPollingExecutor.shutdownNow();
+            mPollingExecutor = null;
+        }
+
+        if (mTimer != null) {
+            mTimer.shutdownNow();
+            mTimer = null;
+        }
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (mTimer == null) {
+            mTimer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("BluetoothSerial-timer-"));
+        }
+
+        return mTimer;
+    }
+
+    private synchronized ThreadPoolExecutor getConnectExecutor() {
+        if (mConnectExecutor == null) {
+            mConnectExecutor = new ThreadPoolExecutor(mMaxConcurrentConnects, mMaxConcurrentConnects,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new NamedThreadFactory("BluetoothSerial-connect-"));
+            mConnectExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        return mConnectExecutor;
+    }
+
+    private synchronized ThreadPoolExecutor getIoPool() {
+        if (mIoExecutor == null) {
+            mIoExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new NamedThreadFactory("BluetoothSerial-io-"));
+        }
+
+        return mIoExecutor;
+    }
+
+    /**
+     * Point-in-time numbers of one pool
+     */
+    static class PoolStats {
+        final int poolSize;
+        final int activeCount;
+        final int largestPoolSize;
+        final int queued;
+        final long completedTasks;
+
+        PoolStats(ThreadPoolExecutor executor) {
+            poolSize = executor.getPoolSize();
+            activeCount = executor.getActiveCount();
+            largestPoolSize = executor.getLargestPoolSize();
+            queued = executor.getQueue().size();
+            completedTasks = executor.getCompletedTaskCount();
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        NamedThreadFactory(String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mPrefix + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
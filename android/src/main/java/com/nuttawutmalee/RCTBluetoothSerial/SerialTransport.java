@@ -0,0 +1,49 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A byte stream link to one device, as the service sees it. The service only
+ * opens, reads, writes and closes transports, so the connect, read and write
+ * pipeline runs the same on RFCOMM sockets ({@link RfcommTransport}) and on
+ * in-memory pipes ({@link LoopbackTransport}).
+ *
+ * Like a socket, {@link #close()} may be called from any thread and makes a
+ * blocked {@link #connect()} or read fail.
+ */
+interface SerialTransport {
+
+    /**
+     * Opens transports to devices, one per connect attempt
+     */
+    interface Factory {
+        /**
+         * @param address Device address
+         * @param attempt Socket strategy and RFCOMM channel to try; backends
+         *                without strategies may ignore it
+         * @return An unconnected transport
+         * @throws Exception if the transport could not be created
+         */
+        SerialTransport create(String address, ConnectStrategyCache.Entry attempt) throws Exception;
+    }
+
+    /**
+     * Block until the link is up
+     *
+     * @throws IOException if the link could not be made or was closed meanwhile
+     */
+    void connect() throws IOException;
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return RFCOMM channel of the connected link, or -1 if unknown
+     */
+    int getChannel();
+
+    void close() throws IOException;
+}
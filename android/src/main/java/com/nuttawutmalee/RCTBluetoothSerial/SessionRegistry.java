@@ -0,0 +1,154 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of device sessions, addressed by device address or by an integer
+ * handle.
+ *
+ * A handle packs the session's slot in the table with a generation number:
+ * {@code handle = generation << SLOT_BITS | slot}. Resolving a handle is an
+ * array read and one comparison, and a handle from an earlier connection or
+ * from a removed session no longer matches, so it is rejected. Lookups never
+ * lock; only creating and removing sessions does.
+ */
+class SessionRegistry {
+    static final int SLOT_BITS = 12;
+    static final int MAX_SESSIONS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = MAX_SESSIONS - 1;
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1; // keeps handles positive
+
+    private final AtomicReferenceArray<DeviceSession> mSlots = new AtomicReferenceArray<>(MAX_SESSIONS);
+    private final int[] mGenerations = new int[MAX_SESSIONS]; // last generation handed out per slot
+    private final ConcurrentHashMap<String, DeviceSession> mByAddress = new ConcurrentHashMap<>();
+    private int mNextSlot = 0;
+    private final BufferLimits mLimits;
+
+    /**
+     * @param limits Limits the receive buffers of the sessions count towards
+     */
+    SessionRegistry(BufferLimits limits) {
+        mLimits = limits;
+    }
+
+    /**
+     * @param address Device address
+     * @return Session of the device, or null
+     */
+    DeviceSession get(String address) {
+        return mByAddress.get(address);
+    }
+
+    /**
+     * @param handle Session handle
+     * @return Session the handle belongs to, or null if the handle is stale
+     */
+    DeviceSession get(int handle) {
+        if (handle < 0) {
+            return null;
+        }
+
+        DeviceSession session = mSlots.get(handle & SLOT_MASK);
+        return session != null && session.getHandle() == handle ? session : null;
+    }
+
+    /**
+     * @param address Device address
+     * @return Existing session of the device, or a new one
+     * @throws IllegalStateException if all slots are taken
+     */
+    DeviceSession getOrCreate(String address) {
+        DeviceSession session = mByAddress.get(address);
+
+        if (session != null) {
+            return session;
+        }
+
+        synchronized (this) {
+            session = mByAddress.get(address);
+
+            if (session == null) {
+                session = new DeviceSession(address, takeSlot(), mLimits);
+                renew(session);
+                mSlots.set(session.getSlot(), session);
+                mByAddress.put(address, session);
+                mLimits.register(session);
+            }
+        }
+
+        return session;
+    }
+
+    /**
+     * Give a session a new handle, invalidating the previous one
+     *
+     * @param session Registered session
+     * @return New handle
+     */
+    synchronized int renew(DeviceSession session) {
+        int slot = session.getSlot();
+        int generation = (mGenerations[slot] + 1) & GENERATION_MASK;
+
+        mGenerations[slot] = generation;
+        session.setHandle(generation << SLOT_BITS | slot);
+
+        return session.getHandle();
+    }
+
+    /**
+     * Remove a session, its handles stop resolving and its slot is reused
+     *
+     * @param session Session to remove
+     */
+    synchronized void remove(DeviceSession session) {
+        if (mByAddress.remove(session.getId(), session)) {
+            mSlots.compareAndSet(session.getSlot(), session, null);
+            session.setHandle(-1);
+            mLimits.unregister(session);
+        }
+    }
+
+    /**
+     * @return Live view of all sessions
+     */
+    Collection<DeviceSession> sessions() {
+        return mByAddress.values();
+    }
+
+    private int takeSlot() {
+        for (int i = 0; i < MAX_SESSIONS; i++) {
+            int slot = (mNextSlot + i) & SLOT_MASK;
+
+            if (mSlots.get(slot) == null) {
+                mNextSlot = (slot + 1) & SLOT_MASK;
+                return slot;
+            }
+        }
+
+        throw new IllegalStateException("Too many device sessions");
+    }
+
+    /**
+     * @param id Id passed from JS
+     * @return Whether the id is a session handle rather than a device address
+     */
+    static boolean isHandle(String id) {
+        int length = id.length();
+
+        if (length == 0 || length > 10) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,257 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory ring of fixed-size trace records, cheap enough to leave on in
+ * production where logging every packet to logcat is not.
+ *
+ * A record is a timestamp, the device, an event kind and two numbers, kept in
+ * preallocated arrays: recording stores a few primitives and a reference to
+ * the device address, and never formats or allocates. Records are only
+ * turned into text or maps when the ring is dumped.
+ *
+ * Each kind has a level; events above the current level are skipped with a
+ * single volatile read. Per-packet events can additionally be sampled, one
+ * in N. Level and sampling can be changed at any time.
+ *
+ * Any thread may record. A record being overwritten while the ring is dumped
+ * is left out of the dump rather than returned torn.
+ */
+class Tracer {
+    static final int OFF = 0;
+    static final int ERROR = 1;
+    static final int INFO = 2;
+    static final int DEBUG = 3;
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Traced events. The meaning of the two numbers depends on the kind.
+     */
+    enum Kind {
+        CONNECT(Tracer.INFO), // size: 1 for an automatic reconnect
+        CONNECTED(Tracer.INFO), // size: RFCOMM channel, value: ms since the connect started
+        CONNECT_FAILED(Tracer.ERROR), // value: ms since the connect started
+        CONNECTION_LOST(Tracer.ERROR), // value: ms the connection lasted
+        RECONNECT_SCHEDULED(Tracer.INFO), // size: attempt, value: delay in ms
+        DISCONNECT(Tracer.INFO),
+        READ(Tracer.DEBUG), // size: bytes read, value: bytes buffered after the read
+        READ_PAUSED(Tracer.INFO), // size: bytes buffered on resume, value: ms paused
+        DATA_DROPPED(Tracer.ERROR), // size: bytes dropped, value: bytes buffered
+        WRITE(Tracer.DEBUG), // size: bytes queued
+        WRITTEN(Tracer.DEBUG), // size: bytes flushed, value: microseconds from queueing to flush
+        WRITE_FAILED(Tracer.ERROR), // size: bytes
+        ERROR(Tracer.ERROR);
+
+        final int level;
+
+        Kind(int level) {
+            this.level = level;
+        }
+    }
+
+    /**
+     * A record copied out of the ring
+     */
+    static class Record {
+        final long time; // ms since epoch
+        final String device;
+        final Kind kind;
+        final long size;
+        final long value;
+
+        Record(long time, String device, Kind kind, long size, long value) {
+            this.time = time;
+            this.device = device;
+            this.kind = kind;
+            this.size = size;
+            this.value = value;
+        }
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // Wall clock at a known nanoTime, to turn record timestamps into dates on dump
+    private final long mEpochMs = System.currentTimeMillis();
+    private final long mEpochNanos = System.nanoTime();
+
+    private final int mMask;
+    private final AtomicLongArray mSequences; // sequence of the record in each slot, -1 while written
+    private final long[] mTimes;
+    private final String[] mDevices;
+    private final byte[] mKinds;
+    private final long[] mSizes;
+    private final long[] mValues;
+    private final AtomicLong mNext = new AtomicLong();
+    private final AtomicLong mSampled = new AtomicLong();
+
+    private volatile int mLevel = INFO;
+    private volatile int mSampleRate = 1;
+
+    /**
+     * @param capacity Records kept, rounded up to a power of two
+     */
+    Tracer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        mTimes = new long[size];
+        mDevices = new String[size];
+        mKinds = new byte[size];
+        mSizes = new long[size];
+        mValues = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, -1);
+        }
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @param level OFF, ERROR, INFO or DEBUG
+     */
+    void setLevel(int level) {
+        mLevel = Math.min(DEBUG, Math.max(OFF, level));
+    }
+
+    int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @param sampleRate Record one in this many DEBUG events, at least 1
+     */
+    void setSampleRate(int sampleRate) {
+        mSampleRate = Math.max(1, sampleRate);
+    }
+
+    int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @param kind   Event kind
+     * @param device Device address, or null
+     */
+    void record(Kind kind, String device) {
+        record(kind, device, 0, 0);
+    }
+
+    /**
+     * @param kind   Event kind
+     * @param device Device address, or null
+     * @param size   First number, see {@link Kind}
+     * @param value  Second number, see {@link Kind}
+     */
+    void record(Kind kind, String device, long size, long value) {
+        if (kind.level > mLevel) {
+            return;
+        }
+
+        int sampleRate = mSampleRate;
+        if (kind.level == DEBUG && sampleRate > 1 && mSampled.getAndIncrement() % sampleRate != 0) {
+            return;
+        }
+
+        long sequence = mNext.getAndIncrement();
+        int slot = (int) (sequence & mMask);
+
+        mSequences.set(slot, -1);
+        mTimes[slot] = System.nanoTime();
+        mDevices[slot] = device;
+        mKinds[slot] = (byte) kind.ordinal();
+        mSizes[slot] = size;
+        mValues[slot] = value;
+        mSequences.set(slot, sequence); // Publishes the record
+    }
+
+    /**
+     * @return Records still in the ring, oldest first
+     */
+    List<Record> dump() {
+        long next = mNext.get();
+        long first = Math.max(0, next - getCapacity());
+        List<Record> records = new ArrayList<>((int) (next - first));
+
+        for (long sequence = first; sequence < next; sequence++) {
+            int slot = (int) (sequence & mMask);
+
+            if (mSequences.get(slot) != sequence) {
+                continue; // Being written, or overwritten already
+            }
+
+            long time = mTimes[slot];
+            String device = mDevices[slot];
+            Kind kind = KINDS[mKinds[slot]];
+            long size = mSizes[slot];
+            long value = mValues[slot];
+
+            if (mSequences.get(slot) != sequence) {
+                continue; // Overwritten while copying
+            }
+
+            records.add(new Record(mEpochMs + (time - mEpochNanos) / 1000000, device, kind, size, value));
+        }
+
+        return records;
+    }
+
+    /**
+     * Drop all records
+     */
+    void clear() {
+        long next = mNext.get();
+
+        for (int i = 0; i <= mMask; i++) {
+            long sequence = mSequences.get(i);
+            if (sequence >= 0 && sequence < next) {
+                mSequences.compareAndSet(i, sequence, -1);
+            }
+        }
+    }
+
+    /**
+     * @param level Level name: "off", "error", "info" or "debug"
+     * @return The level
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static int parseLevel(String level) {
+        switch (level) {
+            case "off":
+                return OFF;
+            case "error":
+                return ERROR;
+            case "info":
+                return INFO;
+            case "debug":
+                return DEBUG;
+            default:
+                throw new IllegalArgumentException("Unknown trace level " + level);
+        }
+    }
+
+    /**
+     * @param level A level
+     * @return Its name
+     */
+    static String levelName(int level) {
+        switch (level) {
+            case OFF:
+                return "off";
+            case ERROR:
+                return "error";
+            case INFO:
+                return "info";
+            default:
+                return "debug";
+        }
+    }
+}
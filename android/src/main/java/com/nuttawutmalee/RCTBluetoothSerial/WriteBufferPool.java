@@ -0,0 +1,75 @@
+package com.nuttawutmalee.RCTBluetoothSerial;
+
+/**
+ * Pool of outbound write buffers shared by all connections.
+ *
+ * Buffers are filled on the React thread and released by the connection
+ * writer threads once flushed, so the pool is synchronized; both sides hold
+ * the lock only for a push or a pop. Buffers come in power-of-two size classes
+ * from 64 bytes to 64 KB; larger writes get an unpooled array.
+ */
+class WriteBufferPool {
+    private static final int MIN_SHIFT = 6; // 64 bytes
+    private static final int MAX_SHIFT = 16; // 64 KB
+    private static final int BUFFERS_PER_CLASS = 16;
+
+    private final byte[][][] mFree = new byte[MAX_SHIFT - MIN_SHIFT + 1][BUFFERS_PER_CLASS][];
+    private final int[] mFreeCount = new int[MAX_SHIFT - MIN_SHIFT + 1];
+
+    /**
+     * @param minLength Required capacity
+     * @return A buffer of at least minLength bytes
+     */
+    byte[] acquire(int minLength) {
+        int sizeClass = sizeClassFor(minLength);
+
+        if (sizeClass < 0) {
+            return new byte[minLength];
+        }
+
+        synchronized (this) {
+            int count = mFreeCount[sizeClass];
+
+            if (count > 0) {
+                byte[] buffer = mFree[sizeClass][--count];
+                mFree[sizeClass][count] = null;
+                mFreeCount[sizeClass] = count;
+                return buffer;
+            }
+        }
+
+        return new byte[1 << (sizeClass + MIN_SHIFT)];
+    }
+
+    /**
+     * @param buffer Buffer obtained from {@link #acquire(int)}
+     */
+    void release(byte[] buffer) {
+        int length = buffer.length;
+
+        if (Integer.bitCount(length) != 1) {
+            return;
+        }
+
+        int sizeClass = Integer.numberOfTrailingZeros(length) - MIN_SHIFT;
+
+        if (sizeClass < 0 || sizeClass > MAX_SHIFT - MIN_SHIFT) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mFreeCount[sizeClass] < BUFFERS_PER_CLASS) {
+                mFree[sizeClass][mFreeCount[sizeClass]++] = buffer;
+            }
+        }
+    }
+
+    private static int sizeClassFor(int length) {
+        if (length > (1 << MAX_SHIFT)) {
+            return -1;
+        }
+
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+}
@@ -33,8 +33,20 @@ declare namespace BluetoothSerial {
   interface AndroidBluetoothDevice extends CommonDevice {
     address: string;
     class: string | undefined;
+    /**
+     * Session handle, set when the device was connected. Pass it as id
+     * for the fastest lookup; it goes stale on the next connect or
+     * disconnect of the device.
+     */
+    handle?: number;
   }
 
+  /**
+   * Device id, uuid, or [Android] the session handle a connect
+   * resolved with.
+   */
+  type DeviceId = string | number;
+
   interface iOSBluetoothDevice extends CommonDevice {
     uuid: string;
     rssi: string | undefined;
@@ -47,6 +59,44 @@ declare namespace BluetoothSerial {
     write: string;
   }
 
+  interface LengthFieldFrameDecoderConfig extends Object {
+    type?: "lengthField";
+    /** Offset of the length field in the frame, defaults to 0. */
+    lengthFieldOffset?: number;
+    /** Width of the length field in bytes (1 - 4), defaults to 2. */
+    lengthFieldLength?: number;
+    /** Byte order of the length field, defaults to true. */
+    bigEndian?: boolean;
+    /**
+     * Added to the length field value to get the number of bytes
+     * following the field, defaults to 0. Use -(offset + length)
+     * when the field counts the whole frame.
+     */
+    lengthAdjustment?: number;
+    /** Largest accepted frame, defaults to 65536. */
+    maxFrameLength?: number;
+  }
+
+  type FrameDecoderConfig = LengthFieldFrameDecoderConfig;
+
+  /**
+   * Bridge encoding of data read from a device. "array" gives one
+   * number per byte, the others a compact string.
+   */
+  type ReadEncoding = "array" | "base64" | "hex" | "latin1";
+
+  interface PushModeOptions extends Object {
+    /**
+     * Flush once this many bytes are buffered, defaults to 4096. Without a
+     * frame decoder, this flushes the data even when it holds no delimiter.
+     */
+    maxBytes?: number;
+    /** Flush once this many frames are buffered, defaults to 0 (off). */
+    maxFrames?: number;
+    /** Longest time in ms data waits before it is flushed, defaults to 50. */
+    maxLatency?: number;
+  }
+
   export const DEFAULT_SERVICES: Array<Service>;
 
   /**
@@ -81,27 +131,43 @@ declare namespace BluetoothSerial {
    */
   export function isEnabled(): Promise<boolean>;
 
+  /**
+   * [Android] Options of a connect.
+   */
+  interface ConnectOptions extends Object {
+    /**
+     * Milliseconds after which the attempt is cancelled and the promise
+     * rejected with a timeout error. Default is no deadline.
+     */
+    timeout?: number;
+  }
+
   /**
    * Connect to certain bluetooth device / peripheral.
+   * [Android] A connect while another one to the same device is in progress
+   * waits for that attempt; the earliest deadline applies.
    *
    * @param id Device id or uuid
+   * @param options [Android] Connect options
    *
    * @throws this will throws an error if Android bluetooth adapter
    *         is missing.
    */
   export function connect(
-    id: string
+    id: string,
+    options?: ConnectOptions
   ): Promise<AndroidBluetoothDevice | iOSBluetoothDevice>;
 
   /**
    * Disconnect from connected bluetooth device / peripheral.
+   * [Android] Also drops the buffer and settings of the device.
    *
    * @param id Device id or uuid
    *
    * @throws this will throws an error if Android bluetooth adapter
    *         is missing.
    */
-  export function disconnect(id?: string): Promise<boolean>;
+  export function disconnect(id?: DeviceId): Promise<boolean>;
 
   /**
    * Disconnect all connected bluetooth devices.
@@ -116,7 +182,7 @@ declare namespace BluetoothSerial {
    *
    * @param id Device id or uuid
    */
-  export function isConnected(id?: string): Promise<boolean>;
+  export function isConnected(id?: DeviceId): Promise<boolean>;
 
   /**
    * List all paired (Android) / connected (iOS) bluetooth devices.
@@ -125,16 +191,42 @@ declare namespace BluetoothSerial {
     Array<AndroidBluetoothDevice> | Array<iOSBluetoothDevice>
   >;
 
+  interface DiscoveredDevice extends AndroidBluetoothDevice {
+    /**
+     * Signal strength in dBm, if reported
+     */
+    rssi?: number;
+    /**
+     * Milliseconds since epoch
+     */
+    lastSeen: number;
+    /**
+     * Whether the device was not seen by the latest scan
+     */
+    cached: boolean;
+  }
+
+  interface DiscoveryOptions extends Object {
+    /**
+     * [Android] Resolve from the discovery cache without scanning if the
+     * last scan finished at most this many milliseconds ago.
+     */
+    maxAge?: number;
+  }
+
   /**
    * List all unpaired bluetooth devices.
+   * [Android] A call while a scan runs joins it. Devices from the
+   * discovery cache are emitted as "newDevice" events first, then each
+   * device the scan finds.
    *
    * @alias discoverUnpairedDevices
    *
    * @throws this will always throws an error in iOS.
    */
-  export function listUnpaired(): Promise<
-    Array<AndroidBluetoothDevice> | Array<iOSBluetoothDevice>
-  >;
+  export function listUnpaired(
+    options?: DiscoveryOptions | null
+  ): Promise<Array<DiscoveredDevice> | Array<iOSBluetoothDevice>>;
 
   /**
    * List all unpaired bluetooth devices.
@@ -143,9 +235,22 @@ declare namespace BluetoothSerial {
    *
    * @throws this will always throws an error in iOS.
    */
-  export function discoverUnpairedDevices(): Promise<
-    Array<AndroidBluetoothDevice> | Array<iOSBluetoothDevice>
-  >;
+  export function discoverUnpairedDevices(
+    options?: DiscoveryOptions | null
+  ): Promise<Array<DiscoveredDevice> | Array<iOSBluetoothDevice>>;
+
+  /**
+   * [Android] Devices discovered within the cache TTL, without scanning.
+   */
+  export function getDiscoveredDevices(): Promise<Array<DiscoveredDevice>>;
+
+  /**
+   * [Android] How long a discovered device is kept after it was last
+   * seen. Defaults to 300000.
+   *
+   * @param ttlMs
+   */
+  export function setDiscoveryCacheTtl(ttlMs: number): Promise<number>;
 
   /**
    * Cancel bluetooth device discovery.
@@ -199,6 +304,7 @@ declare namespace BluetoothSerial {
    * @param callback
    * @param delimiter
    * @param id
+   * @param options
    */
   export function read(
     callback: (
@@ -206,16 +312,135 @@ declare namespace BluetoothSerial {
       subscription: ReactNative.EmitterSubscription
     ) => {},
     delimiter?: "",
-    id?: string
+    id?: DeviceId,
+    options?: PushModeOptions
   ): void;
 
+  /**
+   * [Android] Push buffered data to JS as "read" events. Data is batched
+   * per device and flushed when maxBytes or maxFrames is reached, or
+   * maxLatency ms after it arrived, whichever comes first.
+   *
+   * @param options
+   * @param id Device id
+   */
+  export function enablePushMode(
+    options?: PushModeOptions | null,
+    id?: DeviceId
+  ): Promise<string>;
+
+  /**
+   * [Android] Stop pushing "read" events for a device.
+   *
+   * @param id Device id
+   */
+  export function disablePushMode(id?: DeviceId): Promise<boolean>;
+
+  type ReaderMode = "blocking" | "polling";
+
+  /**
+   * [Android] Choose how a device is read from, starting with its next
+   * connection. "blocking" (default) keeps a dedicated reader thread per
+   * device, "polling" shares a small pool of threads between devices and
+   * suits devices that send little data.
+   *
+   * @param mode
+   * @param id Device id
+   */
+  export function setReaderMode(mode: ReaderMode, id?: DeviceId): Promise<string>;
+
+  interface ReconnectPolicyOptions extends Object {
+    /** Delay in ms before the first attempt, defaults to 500. */
+    initialDelay?: number;
+    /** Longest delay in ms between attempts, defaults to 30000. */
+    maxDelay?: number;
+    /** Growth of the delay per attempt, defaults to 2. */
+    multiplier?: number;
+    /** Share of each delay that is randomized, 0 to 1, defaults to 0.5. */
+    jitter?: number;
+    /** Attempts per outage, defaults to 0 (no limit). */
+    maxAttempts?: number;
+    /** Deadline in ms of each attempt, defaults to 0 (none). */
+    timeout?: number;
+  }
+
+  /**
+   * [Android] Reconnect a device automatically after its connection was
+   * lost, with exponential backoff and jitter. Reconnecting pauses while
+   * bluetooth is off and resumes when it is turned on. The handle, buffer
+   * and settings of the device are kept. Each scheduled attempt emits a
+   * "reconnecting" event; giving up emits "connectionFailed". An explicit
+   * connect or disconnect ends reconnecting.
+   *
+   * @param options Policy, or null to stop reconnecting
+   * @param id Device id
+   */
+  export function setReconnectPolicy(
+    options?: ReconnectPolicyOptions | null,
+    id?: DeviceId
+  ): Promise<string>;
+
+  /**
+   * What happens to received data that does not fit a buffer limit:
+   * "dropOldest" drops buffered data to keep the latest, "dropNewest"
+   * drops the received data, "pause" stops reading the device until the
+   * buffer drained to 75% of the limit, which holds off the sender.
+   */
+  type OverflowPolicy = "dropOldest" | "dropNewest" | "pause";
+
+  interface BufferLimitOptions extends Object {
+    /** Most bytes buffered. */
+    maxBytes: number;
+    /** Defaults to "dropOldest". */
+    policy?: OverflowPolicy;
+  }
+
+  /**
+   * [Android] Limit the data buffered for a device that is not read.
+   * Dropped data is counted in the statistics and reported by
+   * "dataDropped" events. Devices have no limit of their own by default.
+   *
+   * @param options Limit, or null to remove it
+   * @param id Device id
+   */
+  export function setBufferLimit(
+    options?: BufferLimitOptions | null,
+    id?: DeviceId
+  ): Promise<string>;
+
+  /**
+   * [Android] Limit the data buffered for all devices together. With
+   * "dropOldest", the oldest data of the devices with the largest
+   * backlog is dropped first, whichever device received. Defaults to
+   * 32 MiB with "dropOldest".
+   *
+   * @param options Limit, or null to remove it
+   */
+  export function setTotalBufferLimit(
+    options?: BufferLimitOptions | null
+  ): Promise<{ maxBytes: number; policy: OverflowPolicy; buffered: number }>;
+
+  /**
+   * [Android] Payload of "dataDropped", emitted at most once a second per
+   * device while data is dropped at a buffer limit.
+   */
+  interface DataDroppedEvent extends Object {
+    id: string;
+    handle: number;
+    /** Bytes dropped since the previous event. */
+    bytes: number;
+    /** Bytes dropped since the statistics were reset. */
+    droppedBytes: number;
+    buffered: number;
+  }
+
   /**
    * Read data from connected device once.
    *
    * @param delimiter
    * @param id
    */
-  export function readOnce(delimiter?: "", id?: string): Promise<string>;
+  export function readOnce(delimiter?: "", id?: DeviceId): Promise<string>;
 
   /**
    * Read data from connected device every n ms.
@@ -229,15 +454,31 @@ declare namespace BluetoothSerial {
     callback: (data: string, intervalId: number) => {},
     ms?: 1000,
     delimiter?: "",
-    id?: string
+    id?: DeviceId
   ): void;
 
   /**
    * Read all buffer data from connected device.
    *
    * @param id Device id or uuid
+   * @param encoding [Android] Overrides the device read encoding
+   */
+  export function readFromDevice(
+    id?: DeviceId,
+    encoding?: ReadEncoding
+  ): Promise<string>;
+
+  /**
+   * [Android] Set the default encoding of readFromDevice, readFrame
+   * and "read" events for a device.
+   *
+   * @param encoding
+   * @param id Device id
    */
-  export function readFromDevice(id?: string): Promise<string>;
+  export function setReadEncoding(
+    encoding: ReadEncoding,
+    id?: DeviceId
+  ): Promise<string>;
 
   /**
    * Read all buffer data up to particular delimiter
@@ -248,7 +489,7 @@ declare namespace BluetoothSerial {
    */
   export function readUntilDelimiter(
     delimiter: string,
-    id?: string
+    id?: DeviceId
   ): Promise<string>;
 
   /**
@@ -257,29 +498,334 @@ declare namespace BluetoothSerial {
    * @param data
    * @param id Device id or uuid
    */
-  export function write(data: Buffer | string, id?: string): Promise<boolean>;
+  export function write(data: Buffer | string, id?: DeviceId): Promise<boolean>;
 
   /**
-   * Write string to device.
+   * Write string to device. On Android the promise resolves once the
+   * bytes have been flushed to the socket and rejects if the write fails.
    *
    * @param data
    * @param id Device id or uuid
    */
-  export function writeToDevice(data: string, id?: string): Promise<boolean>;
+  export function writeToDevice(data: string, id?: DeviceId): Promise<boolean>;
+
+  /**
+   * [Android] Write base64 encoded bytes to device, without any
+   * charset conversion.
+   *
+   * @param data Base64
+   * @param id Device id
+   */
+  export function writeBase64ToDevice(
+    data: string,
+    id?: DeviceId
+  ): Promise<boolean>;
+
+  /**
+   * [Android] Write an array of byte values to device.
+   *
+   * @param data Numbers from 0 to 255
+   * @param id Device id
+   */
+  export function writeBytesToDevice(
+    data: Array<number>,
+    id?: DeviceId
+  ): Promise<boolean>;
+
+  /**
+   * [Android] Write many binary frames in one bridge call. Resolves
+   * with the number of frames once all are flushed, rejects on the
+   * first failed write.
+   *
+   * @param frames Base64 strings, arrays of byte values or buffers
+   * @param id Device id
+   */
+  export function writeBatchToDevice(
+    frames: Array<string | Array<number> | Uint8Array>,
+    id?: DeviceId
+  ): Promise<number>;
 
   /**
    * Clear all buffer data.
    *
    * @param id Device id or uuid
    */
-  export function clear(id?: string): Promise<boolean>;
+  export function clear(id?: DeviceId): Promise<boolean>;
 
   /**
    * Get length of buffer data.
    *
    * @param id Device id or uuid
    */
-  export function available(id?: string): Promise<number>;
+  export function available(id?: DeviceId): Promise<number>;
+
+  /**
+   * [Android] Limit how many connection attempts run at the same time,
+   * further attempts wait for a free slot. Defaults to 2.
+   *
+   * @param maxConcurrentConnects
+   */
+  export function setMaxConcurrentConnects(
+    maxConcurrentConnects: number
+  ): Promise<number>;
+
+  interface ProvisioningOptions extends Object {
+    /** Devices paired or connected at the same time, defaults to 4. */
+    concurrency?: number;
+    /** Deadline in ms of each pairing, defaults to 30000. */
+    pairTimeout?: number;
+    /** Deadline in ms of each connect, defaults to 15000. */
+    connectTimeout?: number;
+  }
+
+  interface ProvisioningResult extends Object {
+    job: number;
+    succeeded: Array<string>;
+    failed: Array<string>;
+    /** Duration of the job in ms. */
+    elapsed: number;
+  }
+
+  /**
+   * [Android] Pair every device that is not bonded yet, then connect it,
+   * for a batch of devices. Pairings run one at a time, connects in
+   * parallel up to the concurrency; setMaxConcurrentConnects bounds how
+   * many sockets are opened at once. Emits "provisioningProgress"
+   * { job, id, stage } when a device starts pairing or connecting,
+   * "provisioningResult" { job, id, success, handle?, message? } per
+   * device and "provisioningFinished" at the end.
+   *
+   * @param ids Device ids
+   * @param options
+   */
+  export function provisionDevices(
+    ids: Array<string>,
+    options?: ProvisioningOptions | null
+  ): Promise<ProvisioningResult>;
+
+  /**
+   * [Android] Start no further devices of running provisioning jobs.
+   * Devices in progress finish normally. Resolves with the number of jobs.
+   */
+  export function cancelProvisioning(): Promise<number>;
+
+  interface HistogramStatistics extends Object {
+    count: number;
+    /** Percentiles are upper bounds of power of two buckets. */
+    p50: number;
+    p90: number;
+    p99: number;
+    max: number;
+    /** Bucket 0 counts zeros, bucket i values from 2^(i-1) to 2^i - 1. */
+    buckets: Array<number>;
+  }
+
+  interface ConnectStrategyStatistics extends Object {
+    attempts: number;
+    failures: number;
+    /** Average time of an attempt in ms. */
+    averageTime: number;
+  }
+
+  interface DeviceStatistics extends Object {
+    id: string;
+    handle: number;
+    connected: boolean;
+    /** Time since the current connection was made in ms, 0 if not connected. */
+    connectedFor: number;
+    bytesIn: number;
+    chunksIn: number;
+    bytesOut: number;
+    writesOut: number;
+    writeFailures: number;
+    buffered: number;
+    bufferHighWater: number;
+    /** Received bytes dropped at a buffer limit. */
+    droppedBytes: number;
+    /** Times reading stopped at a buffer limit with the "pause" policy. */
+    readPauses: number;
+    connects: number;
+    reconnects: number;
+    connectionsLost: number;
+    /** Bytes per socket read. */
+    readSize: HistogramStatistics;
+    /** Time in µs from queueing a write to flushing it. */
+    writeLatency: HistogramStatistics;
+    /** Time in µs from a socket read to its delivery to JS. */
+    deliveryLatency: HistogramStatistics;
+    /** Time in ms from the start of a connect to the open socket. */
+    connectTime: HistogramStatistics;
+    lastConnectStrategy?: string;
+    strategies: { [strategy: string]: ConnectStrategyStatistics };
+  }
+
+  /**
+   * [Android] Traffic, latency and connect statistics of a device since
+   * its last explicit connect. Automatic reconnects keep the statistics.
+   *
+   * @param id Device id
+   */
+  export function getStatistics(id?: DeviceId): Promise<DeviceStatistics | null>;
+
+  /**
+   * [Android] Emit a "statistics" event { devices: Array<DeviceStatistics> }
+   * every intervalMs, 0 to stop.
+   *
+   * @param intervalMs
+   */
+  export function setStatisticsInterval(intervalMs: number): Promise<number>;
+
+  /**
+   * Payload of the "error" event. Repeats of an error within the
+   * reporting window are folded into one event.
+   */
+  interface ErrorReport extends Object {
+    message: string | null;
+    tag: string;
+    deviceId: string;
+    /**
+     * [Android] Exception class name
+     */
+    exception: string;
+    /**
+     * [Android] Errors the event stands for
+     */
+    count: number;
+    /**
+     * [Android] Milliseconds since epoch of the first and last error
+     */
+    firstTime: number;
+    lastTime: number;
+    /**
+     * [Android] Pass to getErrorStackTrace
+     */
+    errorId: number;
+    /**
+     * Only with includeStackTrace
+     */
+    stackTrace?: string;
+  }
+
+  interface ErrorReportingOptions extends Object {
+    /**
+     * Repeats of an error (same device, tag and exception class) within
+     * this window are reported together. 0 reports every error.
+     * Defaults to 1000.
+     */
+    windowMs?: number;
+    /**
+     * Format the stack trace into every error event. Defaults to false.
+     */
+    includeStackTrace?: boolean;
+  }
+
+  /**
+   * [Android] Change how "error" events are aggregated.
+   *
+   * @param options
+   */
+  export function setErrorReporting(
+    options?: ErrorReportingOptions | null
+  ): Promise<{ windowMs: number; includeStackTrace: boolean }>;
+
+  /**
+   * [Android] Stack trace of a recent error event, or null if it is no
+   * longer retained.
+   *
+   * @param errorId
+   */
+  export function getErrorStackTrace(errorId: number): Promise<string | null>;
+
+  type TraceLevel = "off" | "error" | "info" | "debug";
+
+  interface TracingOptions extends Object {
+    /**
+     * Most detailed events recorded: "error" records failures, "info" adds
+     * connects and disconnects, "debug" adds every read and write.
+     * Defaults to "info", "debug" in debug builds.
+     */
+    level?: TraceLevel;
+    /**
+     * Record one in this many "debug" events. Defaults to 1.
+     */
+    sampleRate?: number;
+    /**
+     * Drop the records in the ring.
+     */
+    clear?: boolean;
+  }
+
+  interface TraceRecord extends Object {
+    /**
+     * Milliseconds since epoch
+     */
+    time: number;
+    id: string | null;
+    kind:
+      | "connect"
+      | "connected"
+      | "connect_failed"
+      | "connection_lost"
+      | "reconnect_scheduled"
+      | "disconnect"
+      | "read"
+      | "write"
+      | "written"
+      | "write_failed"
+      | "error";
+    /**
+     * Bytes for reads and writes, RFCOMM channel for "connected",
+     * attempt for "reconnect_scheduled"
+     */
+    size: number;
+    /**
+     * Bytes buffered for "read", microseconds from queueing for "written",
+     * milliseconds for connects, lost connections and reconnect delays
+     */
+    value: number;
+  }
+
+  /**
+   * [Android] Change what the in-memory trace ring records.
+   *
+   * @param options
+   */
+  export function setTracing(
+    options?: TracingOptions | null
+  ): Promise<{ level: TraceLevel; sampleRate: number; capacity: number }>;
+
+  /**
+   * [Android] Records in the trace ring, oldest first.
+   */
+  export function dumpTrace(): Promise<TraceRecord[]>;
+
+  /**
+   * [Android] Number of threads shared by devices in "polling" reader mode.
+   * Defaults to 2.
+   *
+   * @param pollingThreads
+   */
+  export function setPollingThreads(pollingThreads: number): Promise<number>;
+
+  interface ExecutorPoolStatistics extends Object {
+    poolSize: number;
+    active: number;
+    largestPoolSize: number;
+    queued: number;
+    completed: number;
+  }
+
+  /**
+   * [Android] Thread pool usage of connection attempts, device I/O and
+   * polling readers.
+   */
+  export function getExecutorStatistics(): Promise<{
+    maxConcurrentConnects: number;
+    pollingThreads: number;
+    connect: ExecutorPoolStatistics;
+    io: ExecutorPoolStatistics;
+    polling: ExecutorPoolStatistics;
+  }>;
 
   /**
    * Set bluetooth adapter a new name.
@@ -301,9 +847,33 @@ declare namespace BluetoothSerial {
    */
   export function withDelimiter(
     delimiter: string,
-    id?: string
+    id?: DeviceId
   ): Promise<string>;
 
+  /**
+   * [Android] Decode the incoming stream into frames before it reaches
+   * the buffer, so only whole frames are ever read. Pass null to
+   * receive raw bytes again. Changing the decoder clears the buffer.
+   *
+   * @param config
+   * @param id Device id
+   */
+  export function setFrameDecoder(
+    config: FrameDecoderConfig | null,
+    id?: DeviceId
+  ): Promise<string>;
+
+  /**
+   * [Android] Read the next complete frame, or null when none is buffered.
+   *
+   * @param id Device id
+   * @param encoding Overrides the device read encoding
+   */
+  export function readFrame(
+    id?: DeviceId,
+    encoding?: ReadEncoding
+  ): Promise<Array<number> | string | null>;
+
   /**
    * [iOS] Set custom services (read and write characteristics.)
    *
@@ -337,15 +907,19 @@ declare namespace BluetoothSerial {
    * @param id Device id or uuid
    */
   export function device(
-    id?: string
+    id?: DeviceId
   ): {
     /**
      * Connect to certain bluetooth device / peripheral.
      *
+     * @param options [Android] Connect options
+     *
      * @throws this will throws an error if Android bluetooth adapter
      *         is missing.
      */
-    connect(): Promise<AndroidBluetoothDevice | iOSBluetoothDevice>;
+    connect(
+      options?: ConnectOptions
+    ): Promise<AndroidBluetoothDevice | iOSBluetoothDevice>;
 
     /**
      * Disconnect from the selected bluetooth device / peripheral.
@@ -378,18 +952,67 @@ declare namespace BluetoothSerial {
      */
     withDelimiter: (delimiter: string) => Promise<string>;
 
+    /**
+     * [Android] Set the frame decoder of the selected device.
+     *
+     * @param config
+     */
+    setFrameDecoder: (config: FrameDecoderConfig | null) => Promise<string>;
+
+    /**
+     * [Android] Read the next complete frame from the selected device.
+     *
+     * @param encoding
+     */
+    readFrame: (encoding?: ReadEncoding) => Promise<Array<number> | string | null>;
+
+    /**
+     * [Android] Set the read encoding of the selected device.
+     *
+     * @param encoding
+     */
+    setReadEncoding: (encoding: ReadEncoding) => Promise<string>;
+
+    /**
+     * [Android] Choose how the selected device is read from on its next
+     * connection.
+     *
+     * @param mode
+     */
+    setReaderMode: (mode: ReaderMode) => Promise<string>;
+
+    /**
+     * [Android] Reconnect the selected device automatically after its
+     * connection was lost, or stop doing so with null options.
+     *
+     * @param options
+     */
+    setReconnectPolicy: (
+      options?: ReconnectPolicyOptions | null
+    ) => Promise<string>;
+
+    /**
+     * [Android] Limit the data buffered for the selected device, or remove
+     * the limit with null options.
+     *
+     * @param options
+     */
+    setBufferLimit: (options?: BufferLimitOptions | null) => Promise<string>;
+
     /**
      * Listen and read data from the selected device.
      *
      * @param callback
      * @param delimiter
+     * @param options
      */
     read: (
       callback: (
         data: string,
         subscription: ReactNative.EmitterSubscription
       ) => {},
-      delimiter?: ""
+      delimiter?: "",
+      options?: PushModeOptions
     ) => void;
 
     /**
@@ -422,8 +1045,10 @@ declare namespace BluetoothSerial {
 
     /**
      * Read all buffer data from connected device.
+     *
+     * @param encoding [Android] Overrides the device read encoding
      */
-    readFromDevice: () => Promise<string>;
+    readFromDevice: (encoding?: ReadEncoding) => Promise<string>;
 
     /**
      * Write data to the selected device, you can pass string or buffer,
@@ -439,6 +1064,15 @@ declare namespace BluetoothSerial {
      * @param data
      */
     writeToDevice: (data: string) => Promise<boolean>;
+
+    /**
+     * [Android] Write many binary frames to the selected device in one call.
+     *
+     * @param frames
+     */
+    writeBatch: (
+      frames: Array<string | Array<number> | Uint8Array>
+    ) => Promise<number>;
   };
 
   /**
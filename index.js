@@ -2,7 +2,7 @@ const ReactNative = require("react-native");
 const React = require("react");
 const { Buffer } = require("buffer");
 
-const { NativeModules, DeviceEventEmitter } = ReactNative;
+const { NativeModules, DeviceEventEmitter, Platform } = ReactNative;
 const { BluetoothSerial } = NativeModules;
 
 /**
@@ -65,34 +65,214 @@ export const withSubscription = (
   };
 };
 
+/**
+ * Session handles are passed to the native side as strings,
+ * device addresses and null as they are.
+ *
+ * @param {String|Number|null} id
+ * @return {String|null}
+ */
+const toNativeId = id => (typeof id === "number" ? String(id) : id);
+
 // Overloading
 const {
+  connect,
   disconnect,
   isConnected,
   readFromDevice,
   readUntilDelimiter,
   writeToDevice,
+  writeBase64ToDevice,
+  writeBytesToDevice,
+  writeBatchToDevice,
   clear,
   available,
   withDelimiter,
+  readFrame,
+  setFrameDecoder,
+  setReadEncoding,
+  enablePushMode,
+  disablePushMode,
+  setReaderMode,
+  setReconnectPolicy,
+  setBufferLimit,
+  provisionDevices,
+  getStatistics,
+  setTracing,
+  setErrorReporting,
+  cancelProvisioning,
+  dumpTrace,
+  getDiscoveredDevices,
+  getErrorStackTrace,
+  getExecutorStatistics,
+  setDiscoveryCacheTtl,
+  setMaxConcurrentConnects,
+  setPollingThreads,
+  setStatisticsInterval,
+  setTotalBufferLimit,
   listUnpaired,
   cancelDiscovery,
   setServices
 } = BluetoothSerial;
 
-BluetoothSerial.disconnect = (id = null) => disconnect(id);
-BluetoothSerial.isConnected = (id = null) => isConnected(id);
-BluetoothSerial.readFromDevice = (id = null) => readFromDevice(id);
+BluetoothSerial.connect = (id, options = null) =>
+  Platform.OS === "android" ? connect(id, options) : connect(id);
+BluetoothSerial.disconnect = (id = null) => disconnect(toNativeId(id));
+BluetoothSerial.isConnected = (id = null) => isConnected(toNativeId(id));
+BluetoothSerial.readFromDevice = (id = null, encoding = null) =>
+  Platform.OS === "android"
+    ? readFromDevice(toNativeId(id), encoding)
+    : readFromDevice(toNativeId(id));
 BluetoothSerial.readUntilDelimiter = (delimiter, id = null) =>
-  readUntilDelimiter(delimiter, id);
-BluetoothSerial.writeToDevice = (data, id = null) => writeToDevice(data, id);
-BluetoothSerial.clear = (id = null) => clear(id);
-BluetoothSerial.available = (id = null) => available(id);
+  readUntilDelimiter(delimiter, toNativeId(id));
+BluetoothSerial.writeToDevice = (data, id = null) =>
+  writeToDevice(data, toNativeId(id));
+BluetoothSerial.writeBase64ToDevice = (data, id = null) =>
+  Platform.OS === "android"
+    ? writeBase64ToDevice(data, toNativeId(id))
+    : Promise.reject(
+        new Error("writeBase64ToDevice is only supported on Android")
+      );
+BluetoothSerial.writeBytesToDevice = (data, id = null) =>
+  Platform.OS === "android"
+    ? writeBytesToDevice(data, toNativeId(id))
+    : Promise.reject(
+        new Error("writeBytesToDevice is only supported on Android")
+      );
+BluetoothSerial.writeBatchToDevice = (frames, id = null) =>
+  Platform.OS === "android"
+    ? writeBatchToDevice(
+        frames.map(frame =>
+          typeof frame === "string" || Array.isArray(frame)
+            ? frame
+            : Buffer.from(frame).toString("base64")
+        ),
+        toNativeId(id)
+      )
+    : Promise.reject(
+        new Error("writeBatchToDevice is only supported on Android")
+      );
+BluetoothSerial.clear = (id = null) => clear(toNativeId(id));
+BluetoothSerial.available = (id = null) => available(toNativeId(id));
 BluetoothSerial.withDelimiter = (delimiter, id = null) =>
-  withDelimiter(delimiter, id);
+  withDelimiter(delimiter, toNativeId(id));
+BluetoothSerial.readFrame = (id = null, encoding = null) =>
+  Platform.OS === "android"
+    ? readFrame(toNativeId(id), encoding)
+    : Promise.reject(new Error("readFrame is only supported on Android"));
+BluetoothSerial.setReadEncoding = (encoding, id = null) =>
+  Platform.OS === "android"
+    ? setReadEncoding(encoding, toNativeId(id))
+    : Promise.reject(new Error("setReadEncoding is only supported on Android"));
+BluetoothSerial.setFrameDecoder = (config, id = null) =>
+  Platform.OS === "android"
+    ? setFrameDecoder(config, toNativeId(id))
+    : Promise.reject(new Error("setFrameDecoder is only supported on Android"));
+BluetoothSerial.enablePushMode = (options = null, id = null) =>
+  Platform.OS === "android"
+    ? enablePushMode(options, toNativeId(id))
+    : Promise.reject(new Error("enablePushMode is only supported on Android"));
+BluetoothSerial.disablePushMode = (id = null) =>
+  Platform.OS === "android"
+    ? disablePushMode(toNativeId(id))
+    : Promise.reject(new Error("disablePushMode is only supported on Android"));
+BluetoothSerial.setReconnectPolicy = (options = null, id = null) =>
+  Platform.OS === "android"
+    ? setReconnectPolicy(options, toNativeId(id))
+    : Promise.reject(
+        new Error("setReconnectPolicy is only supported on Android")
+      );
+BluetoothSerial.setBufferLimit = (options = null, id = null) =>
+  Platform.OS === "android"
+    ? setBufferLimit(options, toNativeId(id))
+    : Promise.reject(new Error("setBufferLimit is only supported on Android"));
+BluetoothSerial.provisionDevices = (ids, options = null) =>
+  Platform.OS === "android"
+    ? provisionDevices(ids, options)
+    : Promise.reject(
+        new Error("provisionDevices is only supported on Android")
+      );
+BluetoothSerial.getStatistics = (id = null) =>
+  Platform.OS === "android"
+    ? getStatistics(toNativeId(id))
+    : Promise.reject(new Error("getStatistics is only supported on Android"));
+BluetoothSerial.setTracing = (options = null) =>
+  Platform.OS === "android"
+    ? setTracing(options)
+    : Promise.reject(new Error("setTracing is only supported on Android"));
+BluetoothSerial.setErrorReporting = (options = null) =>
+  Platform.OS === "android"
+    ? setErrorReporting(options)
+    : Promise.reject(
+        new Error("setErrorReporting is only supported on Android")
+      );
+BluetoothSerial.setReaderMode = (mode, id = null) =>
+  Platform.OS === "android"
+    ? setReaderMode(mode, toNativeId(id))
+    : Promise.reject(new Error("setReaderMode is only supported on Android"));
+BluetoothSerial.cancelProvisioning = () =>
+  Platform.OS === "android"
+    ? cancelProvisioning()
+    : Promise.reject(
+        new Error("cancelProvisioning is only supported on Android")
+      );
+BluetoothSerial.dumpTrace = () =>
+  Platform.OS === "android"
+    ? dumpTrace()
+    : Promise.reject(new Error("dumpTrace is only supported on Android"));
+BluetoothSerial.getDiscoveredDevices = () =>
+  Platform.OS === "android"
+    ? getDiscoveredDevices()
+    : Promise.reject(
+        new Error("getDiscoveredDevices is only supported on Android")
+      );
+BluetoothSerial.getErrorStackTrace = errorId =>
+  Platform.OS === "android"
+    ? getErrorStackTrace(errorId)
+    : Promise.reject(
+        new Error("getErrorStackTrace is only supported on Android")
+      );
+BluetoothSerial.getExecutorStatistics = () =>
+  Platform.OS === "android"
+    ? getExecutorStatistics()
+    : Promise.reject(
+        new Error("getExecutorStatistics is only supported on Android")
+      );
+BluetoothSerial.setDiscoveryCacheTtl = ttlMs =>
+  Platform.OS === "android"
+    ? setDiscoveryCacheTtl(ttlMs)
+    : Promise.reject(
+        new Error("setDiscoveryCacheTtl is only supported on Android")
+      );
+BluetoothSerial.setMaxConcurrentConnects = maxConcurrentConnects =>
+  Platform.OS === "android"
+    ? setMaxConcurrentConnects(maxConcurrentConnects)
+    : Promise.reject(
+        new Error("setMaxConcurrentConnects is only supported on Android")
+      );
+BluetoothSerial.setPollingThreads = pollingThreads =>
+  Platform.OS === "android"
+    ? setPollingThreads(pollingThreads)
+    : Promise.reject(
+        new Error("setPollingThreads is only supported on Android")
+      );
+BluetoothSerial.setStatisticsInterval = intervalMs =>
+  Platform.OS === "android"
+    ? setStatisticsInterval(intervalMs)
+    : Promise.reject(
+        new Error("setStatisticsInterval is only supported on Android")
+      );
+BluetoothSerial.setTotalBufferLimit = (options = null) =>
+  Platform.OS === "android"
+    ? setTotalBufferLimit(options)
+    : Promise.reject(
+        new Error("setTotalBufferLimit is only supported on Android")
+      );
 BluetoothSerial.setServices = (services, includeDefaultServices = true) =>
   setServices(services, includeDefaultServices);
-BluetoothSerial.discoverUnpairedDevices = listUnpaired;
+BluetoothSerial.listUnpaired = (options = null) =>
+  Platform.OS === "android" ? listUnpaired(options) : listUnpaired();
+BluetoothSerial.discoverUnpairedDevices = BluetoothSerial.listUnpaired;
 BluetoothSerial.stopScanning = cancelDiscovery;
 
 /**
@@ -100,19 +280,21 @@ BluetoothSerial.stopScanning = cancelDiscovery;
  * give you the ability to read / write from
  * that device.
  *
- * @param {String} [id]
+ * @param {String|Number} [id] Device id, or the session handle
+ *                             a connect resolved with
  * @return {Object}
  */
 BluetoothSerial.device = (id = null) => ({
   /**
    * Connect to certain bluetooth device / peripheral.
    *
+   * @param  {Object} [options] [Android] { timeout } in milliseconds
    * @return {Promise<Object>}
    *
    * @throws this will throws an error if android bluetooth adapter
    *         is missing.
    */
-  connect: () => BluetoothSerial.connect(id),
+  connect: (options = null) => BluetoothSerial.connect(id, options),
 
   /**
    * Disconnect from the selected bluetooth device / peripheral.
@@ -154,18 +336,76 @@ BluetoothSerial.device = (id = null) => ({
    */
   withDelimiter: delimiter => BluetoothSerial.withDelimiter(delimiter, id),
 
+  /**
+   * Set the frame decoder of the selected device, or pass null
+   * to go back to raw bytes.
+   *
+   * @param {Object|null} config
+   * @return {Promise<String>}
+   */
+  setFrameDecoder: config => BluetoothSerial.setFrameDecoder(config, id),
+
+  /**
+   * Read the next complete frame from the selected device.
+   *
+   * @param {String} [encoding]
+   * @return {Promise<Number[]|String|null>}
+   */
+  readFrame: (encoding = null) => BluetoothSerial.readFrame(id, encoding),
+
+  /**
+   * Set how data read from the selected device is encoded:
+   * "array", "base64", "hex" or "latin1".
+   *
+   * @param {String} encoding
+   * @return {Promise<String>}
+   */
+  setReadEncoding: encoding => BluetoothSerial.setReadEncoding(encoding, id),
+
+  /**
+   * Choose how the selected device is read from on its next connection.
+   *
+   * @param {String} mode "blocking" or "polling"
+   * @return {Promise<String>}
+   */
+  setReaderMode: mode => BluetoothSerial.setReaderMode(mode, id),
+
+  /**
+   * Reconnect the selected device automatically after its connection
+   * was lost, or stop doing so with null options.
+   *
+   * @param {Object} [options]
+   * @return {Promise<String>}
+   */
+  setReconnectPolicy: (options = null) =>
+    BluetoothSerial.setReconnectPolicy(options, id),
+
+  /**
+   * Limit the data buffered for the selected device,
+   * or remove the limit with null options.
+   *
+   * @param {Object} [options]
+   * @return {Promise<String>}
+   */
+  setBufferLimit: (options = null) =>
+    BluetoothSerial.setBufferLimit(options, id),
+
   /**
    * Listen and read data from the selected device.
+   * Data is pushed by the native side in batches,
+   * see enablePushMode for the options.
    *
    * @param {Function} [callback=() => {}]
    * @param {String} [delimiter=""]
+   * @param {Object} [options]
    */
-  read: (callback = () => {}, delimiter = "") => {
+  read: (callback = () => {}, delimiter = "", options = null) => {
     if (typeof callback !== "function") {
       return;
     }
 
     BluetoothSerial.withDelimiter(delimiter, id).then(deviceId => {
+      // Listen first, enabling push mode flushes buffered data at once
       const subscription = BluetoothSerial.addListener("read", result => {
         const { id: readDeviceId, data } = result;
 
@@ -173,6 +413,10 @@ BluetoothSerial.device = (id = null) => ({
           callback(data, subscription);
         }
       });
+
+      if (Platform.OS === "android") {
+        BluetoothSerial.enablePushMode(options, deviceId);
+      }
     });
   },
 
@@ -222,9 +466,11 @@ BluetoothSerial.device = (id = null) => ({
   /**
    * Read all buffer data from connected device.
    *
-   * @return {Promise<String>}
+   * @param {String} [encoding]
+   * @return {Promise<Number[]|String>}
    */
-  readFromDevice: () => BluetoothSerial.readFromDevice(id),
+  readFromDevice: (encoding = null) =>
+    BluetoothSerial.readFromDevice(id, encoding),
 
   /**
    * Write data to the selected device, you can pass string or buffer,
@@ -233,15 +479,16 @@ BluetoothSerial.device = (id = null) => ({
    * @param  {Buffer|String} data
    * @return {Promise<Boolean>}
    */
-  write: data => {
-    /*
-    if (typeof data === "string") {
-      data = new Buffer(data);
-    }
-    const buffer = data.toString("base64");
-    */
-    return BluetoothSerial.writeToDevice(data, id);
-  },
+  write: data => BluetoothSerial.write(data, id),
+
+  /**
+   * Write many binary frames to the selected device in one call.
+   * Each frame is a base64 string, an array of numbers or a buffer.
+   *
+   * @param  {Array<String|Number[]|Buffer>} frames
+   * @return {Promise<Number>}
+   */
+  writeBatch: frames => BluetoothSerial.writeBatchToDevice(frames, id),
 
   /**
    * Write string to the selected device.
@@ -340,17 +587,21 @@ BluetoothSerial.removeSubscription = subscription =>
 
 /**
  * Listen and read data from device.
+ * Data is pushed by the native side in batches,
+ * see enablePushMode for the options.
  *
  * @param {Function} callback
  * @param {String} [delimiter=""]
  * @param {String} [id]
+ * @param {Object} [options]
  */
-BluetoothSerial.read = (callback, delimiter = "", id = null) => {
+BluetoothSerial.read = (callback, delimiter = "", id = null, options = null) => {
   if (typeof callback !== "function") {
     return;
   }
 
   BluetoothSerial.withDelimiter(delimiter, id).then(deviceId => {
+    // Listen first, enabling push mode flushes buffered data at once
     const subscription = BluetoothSerial.addListener("read", result => {
       const { id: readDeviceId, data } = result;
 
@@ -358,6 +609,10 @@ BluetoothSerial.read = (callback, delimiter = "", id = null) => {
         callback(data, subscription);
       }
     });
+
+    if (Platform.OS === "android") {
+      BluetoothSerial.enablePushMode(options, deviceId);
+    }
   });
 };
 
@@ -410,13 +665,17 @@ BluetoothSerial.readEvery = (
  * @return {Promise<Boolean>}
  */
 BluetoothSerial.write = (data, id = null) => {
-  /*
   if (typeof data === "string") {
-    data = new Buffer(data);
+    return BluetoothSerial.writeToDevice(data, id);
   }
-  const buffer = data.toString("base64");
-  */
-  return BluetoothSerial.writeToDevice(data, id);
+
+  // Binary payloads travel as base64 so no charset conversion touches them.
+  // iOS has no writeBase64ToDevice, its writeToDevice decodes base64 itself.
+  const base64 = Buffer.from(data).toString("base64");
+
+  return Platform.OS === "android"
+    ? BluetoothSerial.writeBase64ToDevice(base64, id)
+    : BluetoothSerial.writeToDevice(base64, id);
 };
 
 export default BluetoothSerial;